@@ -0,0 +1,84 @@
+package com.github.fakegps;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+import com.litesuits.orm.LiteOrm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opening the bookmark list on a generated table of 100k rows: {@link DbUtils#getAllBookmark()}
+ * style full load against the page index plus the first page, as BookmarkAdapter does it.
+ */
+public class BookmarkPagingBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = "BookmarkPagingBenchmark";
+    private static final String DB_NAME = "paging_benchmark.db";
+    private static final int ROWS = 100000;
+    private static final int BATCH = 10000;
+
+    private LiteOrm mOrm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DB_NAME);
+        mOrm = LiteOrm.newSingleInstance(getContext(), DB_NAME);
+        for (int start = 0; start < ROWS; start += BATCH) {
+            List<LocBookmark> bookmarks = new ArrayList<>(BATCH);
+            for (int i = start; i < start + BATCH; i++) {
+                bookmarks.add(new LocBookmark("bookmark " + i, new LocPoint(48 + i * 1e-6, 11 + i * 1e-6)));
+            }
+            DbUtils.applyBookmarkBatch(mOrm, bookmarks, null, null);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mOrm.close();
+        getContext().deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public void testFirstScreen100k() {
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        ArrayList<LocBookmark> all = mOrm.query(LocBookmark.class);
+        long full = System.nanoTime() - start;
+        long fullHeap = usedHeap() - heap;
+        assertEquals(ROWS, all.size());
+        all = null;
+
+        heap = usedHeap();
+        start = System.nanoTime();
+        BookmarkPages.Index index = DbUtils.getBookmarkPageIndex(mOrm, BookmarkPages.PAGE_SIZE_DEFAULT);
+        long indexed = System.nanoTime() - start;
+        ArrayList<LocBookmark> page = DbUtils.getBookmarkRange(mOrm, Integer.MIN_VALUE, index.mFirstIds[1]);
+        long paged = System.nanoTime() - start;
+        long pagedHeap = usedHeap() - heap;
+        assertEquals(ROWS / BookmarkPages.PAGE_SIZE_DEFAULT, index.getPageCount());
+        assertEquals(BookmarkPages.PAGE_SIZE_DEFAULT, page.size());
+
+        // a page deep into the table costs the same as the first one
+        start = System.nanoTime();
+        int last = index.getPageCount() - 1;
+        page = DbUtils.getBookmarkRange(mOrm, index.mFirstIds[last], Integer.MAX_VALUE);
+        long lastPage = System.nanoTime() - start;
+        assertEquals(BookmarkPages.PAGE_SIZE_DEFAULT, page.size());
+
+        Log.i(TAG, ROWS + " rows: full load " + full / 1000000 + " ms " + fullHeap / 1024 + " KiB, index "
+                + indexed / 1000000 + " ms + first page " + (paged - indexed) / 1000000 + " ms "
+                + pagedHeap / 1024 + " KiB, last page " + lastPage / 1000000 + " ms");
+        assertTrue("paged " + paged + " ns not faster than full " + full + " ns", paged < full);
+    }
+}
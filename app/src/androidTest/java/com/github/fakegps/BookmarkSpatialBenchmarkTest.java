@@ -0,0 +1,74 @@
+package com.github.fakegps;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+import com.litesuits.orm.LiteOrm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Nearest-k and radius queries on the device's SQLite over 1M bookmarks spread over a
+ * 2 x 2 degree area, through the indexed cell column.
+ */
+public class BookmarkSpatialBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = "BookmarkSpatialBenchmark";
+    private static final String DB_NAME = "spatial_benchmark.db";
+    private static final int ROWS = 1000000;
+    private static final int BATCH = 10000;
+    private static final int QUERIES = 100;
+
+    private LiteOrm mOrm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DB_NAME);
+        mOrm = LiteOrm.newSingleInstance(getContext(), DB_NAME);
+        Random random = new Random(1);
+        for (int start = 0; start < ROWS; start += BATCH) {
+            List<LocBookmark> bookmarks = new ArrayList<>(BATCH);
+            for (int i = start; i < start + BATCH; i++) {
+                bookmarks.add(new LocBookmark("bookmark " + i,
+                        new LocPoint(52 + random.nextDouble() * 2, 13 + random.nextDouble() * 2)));
+            }
+            DbUtils.applyBookmarkBatch(mOrm, bookmarks, null, null);
+        }
+        DbUtils.ensureSpatialIndex(mOrm);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mOrm.close();
+        getContext().deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    public void testQueries1M() {
+        BookmarkSpatialIndex index = new BookmarkSpatialIndex(DbUtils.cellSource(mOrm));
+        index.nearest(53, 14, 10);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            assertEquals(10, index.nearest(52.5 + i * 0.01, 13.5 + i * 0.01, 10).size());
+        }
+        long nearest = (System.nanoTime() - start) / QUERIES;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            found += index.withinRadius(52.5 + i * 0.01, 13.5 + i * 0.01, 500).size();
+        }
+        long within = (System.nanoTime() - start) / QUERIES;
+
+        Log.i(TAG, ROWS + " rows: nearest-10 " + nearest / 1000 + " us, within 500 m " + within / 1000
+                + " us (" + found / QUERIES + " hits)");
+        assertTrue("nearest-10 took " + nearest + " ns", nearest < 50000000);
+        assertTrue("within 500 m took " + within + " ns", within < 50000000);
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.fakegps;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+import com.litesuits.orm.LiteOrm;
+import com.litesuits.orm.db.model.ConflictAlgorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bookmark import of 10k rows on the device's SQLite: one LiteOrm insert per row, as
+ * BookmarkActivity does it, against {@link DbUtils#applyBookmarkBatch}.
+ * LiteOrm 1.9 always opens a database file, so a throwaway one stands in for an in-memory database.
+ */
+public class DbUtilsBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = "DbUtilsBenchmark";
+    private static final String DB_NAME = "dbutils_benchmark.db";
+    private static final int ROWS = 10000;
+
+    private LiteOrm mOrm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DB_NAME);
+        mOrm = LiteOrm.newSingleInstance(getContext(), DB_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mOrm.close();
+        getContext().deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    private static List<LocBookmark> bookmarks(String prefix) {
+        List<LocBookmark> bookmarks = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            bookmarks.add(new LocBookmark(prefix + i, new LocPoint(48 + i * 1e-5, 11 + i * 1e-5)));
+        }
+        return bookmarks;
+    }
+
+    public void testImport10k() {
+        List<LocBookmark> single = bookmarks("single ");
+        long start = System.nanoTime();
+        for (LocBookmark bookmark : single) {
+            mOrm.insert(bookmark, ConflictAlgorithm.Replace);
+        }
+        long perRow = System.nanoTime() - start;
+        assertEquals(ROWS, mOrm.queryCount(LocBookmark.class));
+
+        List<LocBookmark> batch = bookmarks("batch ");
+        start = System.nanoTime();
+        int inserted = DbUtils.applyBookmarkBatch(mOrm, batch, null, null);
+        long batched = System.nanoTime() - start;
+        assertEquals(ROWS, inserted);
+        assertEquals(2 * ROWS, mOrm.queryCount(LocBookmark.class));
+
+        // rename the batch and drop the single-row ones, again as one transaction
+        for (LocBookmark bookmark : batch) {
+            bookmark.setName(bookmark.getName() + "'");
+        }
+        start = System.nanoTime();
+        DbUtils.applyBookmarkBatch(mOrm, null, batch, mOrm.query(LocBookmark.class).subList(0, ROWS));
+        long mixed = System.nanoTime() - start;
+        assertEquals(ROWS, mOrm.queryCount(LocBookmark.class));
+
+        Log.i(TAG, ROWS + " rows: per-row inserts " + perRow / 1000000 + " ms, batch insert "
+                + batched / 1000000 + " ms, batch update+delete " + mixed / 1000000 + " ms");
+        assertTrue("batch " + batched + " ns not faster than per-row " + perRow + " ns", batched < perRow);
+    }
+}
@@ -0,0 +1,307 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.BookmarkDelta;
+import com.github.fakegps.model.LocBookmark;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Position based access to the bookmark table without holding it in memory.
+ * <p>
+ * The table is cut into pages by id - keyset pagination - and only a small {@link Index} of
+ * where each page starts and how many rows it holds is kept. Rows are loaded a page at a time
+ * through the {@link Loader} when a position is first asked for, and the most recently used
+ * pages stay in an LRU cache. Deltas adjust the page counts and cached pages in place; only
+ * a page that has grown far past the page size calls for a new index.
+ * <p>
+ * Not thread safe; meant for the main thread, with the loader answering asynchronously.
+ */
+public class BookmarkPages {
+
+    public static final int PAGE_SIZE_DEFAULT = 100;
+    public static final int CACHED_PAGES_DEFAULT = 8;
+
+    public interface Loader {
+        /**
+         * Load the bookmarks with {@code fromId <= id < toId} in ascending id order and hand
+         * them to {@link #onPageLoaded(int, int, List)}.
+         */
+        void loadPage(int generation, int page, int fromId, int toId);
+    }
+
+    /**
+     * First id and row count of every page.
+     */
+    public static final class Index {
+        final int[] mFirstIds;
+        final int[] mCounts;
+        final int mPageCount;
+
+        public Index(int[] firstIds, int[] counts, int pageCount) {
+            mFirstIds = firstIds;
+            mCounts = counts;
+            mPageCount = pageCount;
+        }
+
+        /**
+         * Build an index from all ids in ascending order, one page every {@code pageSize} ids.
+         */
+        public static Builder builder(int pageSize) {
+            return new Builder(pageSize);
+        }
+
+        public int getPageCount() {
+            return mPageCount;
+        }
+    }
+
+    public static final class Builder {
+        private final int mPageSize;
+        private int[] mFirstIds = new int[16];
+        private int[] mCounts = new int[16];
+        private int mPageCount;
+
+        Builder(int pageSize) {
+            mPageSize = pageSize;
+        }
+
+        public void add(int id) {
+            if (mPageCount == 0 || mCounts[mPageCount - 1] == mPageSize) {
+                if (mPageCount == mFirstIds.length) {
+                    mFirstIds = Arrays.copyOf(mFirstIds, mPageCount * 2);
+                    mCounts = Arrays.copyOf(mCounts, mPageCount * 2);
+                }
+                mFirstIds[mPageCount++] = id;
+            }
+            mCounts[mPageCount - 1]++;
+        }
+
+        public Index build() {
+            return new Index(mFirstIds, mCounts, mPageCount);
+        }
+    }
+
+    private final int mPageSize;
+    private final Loader mLoader;
+    private final LinkedHashMap<Integer, List<LocBookmark>> mCache;
+    private final Set<Integer> mPending = new HashSet<>();
+
+    private int[] mFirstIds = new int[0];
+    private int[] mCounts = new int[0];
+    private int mPageCount;
+    // position of the first row of each page, stale while mStartsValid is false
+    private int[] mStarts = new int[0];
+    private boolean mStartsValid = true;
+    private int mCount;
+    private int mGeneration;
+
+    public BookmarkPages(int pageSize, final int cachedPages, Loader loader) {
+        mPageSize = pageSize;
+        mLoader = loader;
+        mCache = new LinkedHashMap<Integer, List<LocBookmark>>(cachedPages * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<LocBookmark>> eldest) {
+                return size() > cachedPages;
+            }
+        };
+    }
+
+    /**
+     * Start over with a freshly built index; pages loading for the previous one are dropped.
+     */
+    public void setIndex(Index index) {
+        mGeneration++;
+        mCache.clear();
+        mPending.clear();
+        mPageCount = index.mPageCount;
+        mFirstIds = Arrays.copyOf(index.mFirstIds, Math.max(mPageCount, 1));
+        mCounts = Arrays.copyOf(index.mCounts, Math.max(mPageCount, 1));
+        mStartsValid = false;
+    }
+
+    public int getCount() {
+        updateStarts();
+        return mCount;
+    }
+
+    public int getCachedPageCount() {
+        return mCache.size();
+    }
+
+    /**
+     * @return the bookmark at {@code position}, or null while its page is loading
+     */
+    public LocBookmark get(int position) {
+        updateStarts();
+        if (position < 0 || position >= mCount) return null;
+        int page = pageAtPosition(position);
+        List<LocBookmark> rows = mCache.get(page);
+        int offset = position - mStarts[page];
+        if (rows != null && offset < rows.size()) {
+            return rows.get(offset);
+        }
+        if (mPending.add(page)) {
+            mLoader.loadPage(mGeneration, page, fromId(page), toId(page));
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the rows changed what {@link #get(int)} returns
+     */
+    public boolean onPageLoaded(int generation, int page, List<LocBookmark> rows) {
+        if (generation != mGeneration || page >= mPageCount) return false;
+        mPending.remove(page);
+        mCache.put(page, rows);
+        if (mCounts[page] != rows.size()) {
+            // the index was off, e.g. a re-inserted id; the rows are the truth
+            mCounts[page] = rows.size();
+            mStartsValid = false;
+        }
+        return true;
+    }
+
+    /**
+     * Apply a change to the counts and the cached pages.
+     *
+     * @param changed current rows of {@link BookmarkDelta#getChanged()}
+     * @return false if the pages have become too lopsided and a new index should be set
+     */
+    public boolean applyDelta(BookmarkDelta delta, List<LocBookmark> changed) {
+        if (mPageCount == 0) {
+            // nothing to cut into pages yet
+            return delta.getInserted().length == 0;
+        }
+        for (int id : delta.getDeleted()) {
+            int page = pageOfId(id);
+            List<LocBookmark> rows = mCache.get(page);
+            if (rows != null) {
+                int index = BookmarkDelta.indexOf(rows, id);
+                if (index < 0) continue;
+                rows.remove(index);
+            }
+            if (mCounts[page] > 0) mCounts[page]--;
+            dropPending(page);
+        }
+        for (int id : delta.getInserted()) {
+            int page = pageOfId(id);
+            if (page == mPageCount - 1 && mCounts[page] >= mPageSize && id > lastKnownId(page)) {
+                // appending to a full last page, start a new one
+                addPage(id);
+                page++;
+            }
+            // cached pages get the row itself below
+            if (mCache.containsKey(page)) continue;
+            mCounts[page]++;
+            dropPending(page);
+        }
+        if (changed != null) {
+            for (LocBookmark bookmark : changed) {
+                List<LocBookmark> rows = mCache.get(pageOfId(bookmark.getId()));
+                if (rows == null) continue;
+                int index = BookmarkDelta.indexOf(rows, bookmark.getId());
+                if (index >= 0) {
+                    rows.set(index, bookmark);
+                } else {
+                    rows.add(-index - 1, bookmark);
+                    mCounts[pageOfId(bookmark.getId())]++;
+                }
+            }
+        }
+        mStartsValid = false;
+        for (int i = 0; i < mPageCount; i++) {
+            if (mCounts[i] > 2 * mPageSize) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A load in flight may or may not have seen the change; ask again instead.
+     */
+    private void dropPending(int page) {
+        if (mPending.contains(page)) {
+            mGeneration++;
+            mPending.clear();
+        }
+    }
+
+    private void addPage(int firstId) {
+        if (mPageCount == mFirstIds.length) {
+            mFirstIds = Arrays.copyOf(mFirstIds, mPageCount * 2);
+            mCounts = Arrays.copyOf(mCounts, mPageCount * 2);
+        }
+        mFirstIds[mPageCount] = firstId;
+        mCounts[mPageCount] = 0;
+        mPageCount++;
+    }
+
+    private int lastKnownId(int page) {
+        List<LocBookmark> rows = mCache.get(page);
+        return rows != null && !rows.isEmpty() ? rows.get(rows.size() - 1).getId() : mFirstIds[page];
+    }
+
+    private int fromId(int page) {
+        return page == 0 ? Integer.MIN_VALUE : mFirstIds[page];
+    }
+
+    private int toId(int page) {
+        return page == mPageCount - 1 ? Integer.MAX_VALUE : mFirstIds[page + 1];
+    }
+
+    private void updateStarts() {
+        if (mStartsValid) return;
+        if (mStarts.length < mPageCount) {
+            mStarts = new int[mFirstIds.length];
+        }
+        int start = 0;
+        for (int i = 0; i < mPageCount; i++) {
+            mStarts[i] = start;
+            start += mCounts[i];
+        }
+        mCount = start;
+        mStartsValid = true;
+    }
+
+    /**
+     * @return the last page starting at or before {@code position}; empty pages are skipped
+     * since the next page starts at the same position
+     */
+    int pageAtPosition(int position) {
+        int low = 0, high = mPageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the page whose id range holds {@code id}
+     */
+    int pageOfId(int id) {
+        int low = 0, high = mPageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mFirstIds[mid] <= id) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        return "BookmarkPages: count=" + getCount() + " pages=" + mPageCount + " cached=" + mCache.size();
+    }
+}
@@ -0,0 +1,243 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Asynchronous bookmark storage for the UI.
+ * <p>
+ * Every {@link DbUtils} call runs on one background thread, in submission order, so writes
+ * never race each other and a read sees every write submitted before it. Reads return fresh
+ * lists - snapshots the caller owns. Results come back as a {@link Future} and, if a callback
+ * is given, on the main thread; a failed task is logged and its callback is not called.
+ */
+public class BookmarkRepository {
+
+    private static final String TAG = "BookmarkRepository";
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static volatile BookmarkRepository sInstance;
+
+    private final ExecutorService mExecutor;
+    private final Executor mCallbackExecutor;
+
+    BookmarkRepository(ExecutorService executor, Executor callbackExecutor) {
+        mExecutor = executor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    public static BookmarkRepository get() {
+        if (sInstance == null) {
+            synchronized (BookmarkRepository.class) {
+                if (sInstance == null) {
+                    final Handler mainHandler = new Handler(Looper.getMainLooper());
+                    sInstance = new BookmarkRepository(
+                            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    return new Thread(r, TAG);
+                                }
+                            }),
+                            new Executor() {
+                                @Override
+                                public void execute(Runnable command) {
+                                    mainHandler.post(command);
+                                }
+                            });
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Open the database in the background, so the first query on it does not pay for that,
+     * and bring the spatial index up to date.
+     */
+    public Future<Void> open() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                FakeGpsApp.getLiteOrm().getReadableDatabase();
+                int updated = DbUtils.ensureSpatialIndex();
+                if (updated > 0) {
+                    Logger.i(TAG, "open: indexed " + updated + " bookmarks");
+                }
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * @see DbUtils#getAllBookmark()
+     */
+    public Future<ArrayList<LocBookmark>> loadAll(Callback<ArrayList<LocBookmark>> callback) {
+        return submit(new Callable<ArrayList<LocBookmark>>() {
+            @Override
+            public ArrayList<LocBookmark> call() {
+                return DbUtils.getAllBookmark();
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#getBookmarks(int[])
+     */
+    public Future<ArrayList<LocBookmark>> load(final int[] ids, Callback<ArrayList<LocBookmark>> callback) {
+        return submit(new Callable<ArrayList<LocBookmark>>() {
+            @Override
+            public ArrayList<LocBookmark> call() {
+                return DbUtils.getBookmarks(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#getBookmarkPageIndex(int)
+     */
+    public Future<BookmarkPages.Index> loadPageIndex(final int pageSize, Callback<BookmarkPages.Index> callback) {
+        return submit(new Callable<BookmarkPages.Index>() {
+            @Override
+            public BookmarkPages.Index call() {
+                return DbUtils.getBookmarkPageIndex(pageSize);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#getBookmarkRange(int, int)
+     */
+    public Future<ArrayList<LocBookmark>> loadRange(final int fromId, final int toId,
+                                                    Callback<ArrayList<LocBookmark>> callback) {
+        return submit(new Callable<ArrayList<LocBookmark>>() {
+            @Override
+            public ArrayList<LocBookmark> call() {
+                return DbUtils.getBookmarkRange(fromId, toId);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#getNearestBookmarks(LocPoint, int)
+     */
+    public Future<ArrayList<LocBookmark>> nearest(final LocPoint point, final int k,
+                                                  Callback<ArrayList<LocBookmark>> callback) {
+        return submit(new Callable<ArrayList<LocBookmark>>() {
+            @Override
+            public ArrayList<LocBookmark> call() {
+                return DbUtils.getNearestBookmarks(point, k);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#getBookmarksWithin(LocPoint, double)
+     */
+    public Future<ArrayList<LocBookmark>> within(final LocPoint point, final double metres,
+                                                 Callback<ArrayList<LocBookmark>> callback) {
+        return submit(new Callable<ArrayList<LocBookmark>>() {
+            @Override
+            public ArrayList<LocBookmark> call() {
+                return DbUtils.getBookmarksWithin(point, metres);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#insertBookmark(LocBookmark)
+     */
+    public Future<Long> insert(final LocBookmark bookmark, Callback<Long> callback) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return DbUtils.insertBookmark(bookmark);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#deleteBookmark(LocBookmark)
+     */
+    public Future<Void> delete(final LocBookmark bookmark) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                DbUtils.deleteBookmark(bookmark);
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * @see DbUtils#applyBookmarkBatch(Collection, Collection, Collection)
+     */
+    public Future<Integer> applyBatch(final Collection<LocBookmark> inserts, final Collection<LocBookmark> updates,
+                                      final Collection<LocBookmark> deletes, Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return DbUtils.applyBookmarkBatch(inserts, updates, deletes);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DbUtils#importBookmarks(File)
+     */
+    public Future<Long> importFile(final File file, Callback<Long> callback) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return DbUtils.importBookmarks(file);
+            }
+        }, callback);
+    }
+
+    <T> Future<T> submit(Callable<T> task, final Callback<T> callback) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+                final T result;
+                try {
+                    result = get();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    Logger.e(TAG, "bookmark task failed", e.getCause());
+                    return;
+                }
+                if (callback != null) {
+                    mCallbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(result);
+                        }
+                    });
+                }
+            }
+        };
+        mExecutor.execute(future);
+        return future;
+    }
+}
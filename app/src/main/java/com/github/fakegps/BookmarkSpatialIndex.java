@@ -0,0 +1,127 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GeoGrid;
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Radius and nearest-k bookmark queries on the indexed {@link GeoGrid} cell column.
+ * <p>
+ * A radius query reads the cells of the circle's bounding box - one index range per grid row -
+ * and keeps what is really within the great-circle distance. Nearest-k runs radius queries
+ * with a growing radius until k bookmarks are inside, so only the neighbourhood is read no
+ * matter how large the table is.
+ */
+public class BookmarkSpatialIndex {
+
+    public interface Source {
+        /**
+         * @param ranges inclusive {@code from, to} cell pairs
+         * @return the bookmarks in any of the first {@code count} ranges
+         */
+        List<LocBookmark> query(int[] ranges, int count);
+    }
+
+    // two query arguments per range, under SQLite's limit of 999; one range per 0.01 degree
+    // row covers boxes up to ~260 km tall before whole rows are read
+    static final int MAX_RANGES = 480;
+    static final double START_RADIUS = 1000;
+    static final double MAX_RADIUS = Math.PI * GreatCircleMotion.EARTH_RADIUS;
+
+    private static final class Hit {
+        final LocBookmark mBookmark;
+        final double mDistance;
+
+        Hit(LocBookmark bookmark, double distance) {
+            mBookmark = bookmark;
+            mDistance = distance;
+        }
+    }
+
+    private static final Comparator<Hit> BY_DISTANCE = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            return Double.compare(a.mDistance, b.mDistance);
+        }
+    };
+
+    private final Source mSource;
+    private final int[] mRanges = new int[2 * MAX_RANGES];
+
+    public BookmarkSpatialIndex(Source source) {
+        mSource = source;
+    }
+
+    /**
+     * @return bookmarks within {@code metres} of the point, nearest first
+     */
+    public synchronized ArrayList<LocBookmark> withinRadius(double latitude, double longitude, double metres) {
+        return toBookmarks(hitsWithin(latitude, longitude, metres), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the {@code k} bookmarks nearest to the point, nearest first; fewer if the table
+     * has less
+     */
+    public synchronized ArrayList<LocBookmark> nearest(double latitude, double longitude, int k) {
+        double radius = START_RADIUS;
+        while (true) {
+            List<Hit> hits = hitsWithin(latitude, longitude, radius);
+            if (hits.size() >= k || radius >= MAX_RADIUS) {
+                return toBookmarks(hits, k);
+            }
+            // grow by the density seen so far, at least by half
+            double factor = hits.isEmpty() ? 4 : Math.max(1.5, 1.2 * Math.sqrt((double) k / hits.size()));
+            radius = Math.min(MAX_RADIUS, radius * factor);
+        }
+    }
+
+    private List<Hit> hitsWithin(double latitude, double longitude, double metres) {
+        double angle = metres / GreatCircleMotion.EARTH_RADIUS;
+        double dLat = Math.toDegrees(angle);
+        double minLat = latitude - dLat, maxLat = latitude + dLat;
+        double minLon = -180, maxLon = 180;
+        // near a pole or for a very large circle every longitude is in the box
+        if (minLat > -90 && maxLat < 90) {
+            double sin = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+            if (sin < 1) {
+                double dLon = Math.toDegrees(Math.asin(sin));
+                minLon = normalize(longitude - dLon);
+                maxLon = normalize(longitude + dLon);
+            }
+        }
+        int count = GeoGrid.cellRanges(minLat, maxLat, minLon, maxLon, mRanges);
+        List<LocBookmark> candidates = mSource.query(mRanges, count);
+        List<Hit> hits = new ArrayList<>(candidates.size());
+        for (LocBookmark bookmark : candidates) {
+            LocPoint point = bookmark.getLocPoint();
+            if (point == null) continue;
+            double distance = GreatCircleMotion.distance(latitude, longitude, point.getLatitude(), point.getLongitude());
+            if (distance <= metres) {
+                hits.add(new Hit(bookmark, distance));
+            }
+        }
+        Collections.sort(hits, BY_DISTANCE);
+        return hits;
+    }
+
+    private static double normalize(double longitude) {
+        if (longitude < -180) return longitude + 360;
+        if (longitude >= 180) return longitude - 360;
+        return longitude;
+    }
+
+    private static ArrayList<LocBookmark> toBookmarks(List<Hit> hits, int limit) {
+        int size = Math.min(limit, hits.size());
+        ArrayList<LocBookmark> bookmarks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            bookmarks.add(hits.get(i).mBookmark);
+        }
+        return bookmarks;
+    }
+}
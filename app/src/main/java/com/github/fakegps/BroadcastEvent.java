@@ -7,6 +7,10 @@ public class BroadcastEvent {
 
     public static final class BookMark {
         public static final String ACTION_BOOK_MARK_UPDATE = "action_book_mark_update";
+        // int[] extras of ACTION_BOOK_MARK_UPDATE; without them, reload everything
+        public static final String EXTRA_INSERTED_IDS = "extra_inserted_ids";
+        public static final String EXTRA_UPDATED_IDS = "extra_updated_ids";
+        public static final String EXTRA_DELETED_IDS = "extra_deleted_ids";
 
     }
 }
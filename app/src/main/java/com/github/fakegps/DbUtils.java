@@ -2,15 +2,24 @@ package com.github.fakegps;
 
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.NonNull;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.github.fakegps.model.BookmarkDelta;
 import com.github.fakegps.model.LocBookmark;
 import com.github.fakegps.model.LocPoint;
+import com.litesuits.orm.LiteOrm;
+import com.litesuits.orm.db.assit.QueryBuilder;
 import com.litesuits.orm.db.model.ConflictAlgorithm;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by tiger on 7/23/16.
@@ -19,6 +28,14 @@ public final class DbUtils {
 
     private static final String SHARED_PREF_NAME = "FakeGPS";
     private static final String KEY_LAST_LOC = "last_loc";
+    private static final String TABLE_BOOKMARK = "LocBookmark";
+    private static final String COLUMN_ID = "_id";
+    // SQLITE_MAX_VARIABLE_NUMBER before 3.32
+    private static final int MAX_QUERY_ARGS = 999;
+
+    private static final Metrics.Histogram QUERY_TIME = Metrics.get().histogram("db.query_ns");
+
+    private static volatile BookmarkSpatialIndex sSpatialIndex;
 
     private DbUtils() {
     }
@@ -30,7 +47,7 @@ public final class DbUtils {
         }
         long id = FakeGpsApp.getLiteOrm().insert(bookmark, ConflictAlgorithm.Replace);
         if (id != -1) {
-            notifyBookmarkUpdate();
+            notifyBookmarkUpdate(BookmarkDelta.of(Collections.singleton(bookmark), null, null));
         }
         return id;
     }
@@ -38,16 +55,289 @@ public final class DbUtils {
     public static void deleteBookmark(LocBookmark bookmark) {
         if (bookmark == null) return;
         FakeGpsApp.getLiteOrm().delete(bookmark);
-        notifyBookmarkUpdate();
+        notifyBookmarkUpdate(BookmarkDelta.of(null, null, Collections.singleton(bookmark)));
     }
 
+    /**
+     * Replace all bookmarks, atomically.
+     */
     public static void saveBookmark(Collection<LocBookmark> bookmarks) {
-        FakeGpsApp.getLiteOrm().deleteAll(LocBookmark.class);
-        FakeGpsApp.getLiteOrm().save(bookmarks);
+        LiteOrm orm = FakeGpsApp.getLiteOrm();
+        SQLiteDatabase db = orm.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            orm.deleteAll(LocBookmark.class);
+            orm.save(bookmarks);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyBookmarkUpdate();
+    }
+
+    public static int insertBookmarks(Collection<LocBookmark> bookmarks) {
+        return applyBookmarkBatch(bookmarks, null, null);
+    }
+
+    public static int updateBookmarks(Collection<LocBookmark> bookmarks) {
+        return applyBookmarkBatch(null, bookmarks, null);
+    }
+
+    public static int deleteBookmarks(Collection<LocBookmark> bookmarks) {
+        return applyBookmarkBatch(null, null, bookmarks);
+    }
+
+    /**
+     * Insert, update and delete bookmarks in one transaction, followed by a single update
+     * broadcast; any of the collections may be null or empty.
+     *
+     * @return rows changed
+     */
+    public static int applyBookmarkBatch(Collection<LocBookmark> inserts, Collection<LocBookmark> updates,
+                                         Collection<LocBookmark> deletes) {
+        int changed = applyBookmarkBatch(FakeGpsApp.getLiteOrm(), inserts, updates, deletes);
+        if (changed > 0) {
+            notifyBookmarkUpdate(BookmarkDelta.of(inserts, updates, deletes));
+        }
+        return changed;
+    }
+
+    static int applyBookmarkBatch(LiteOrm orm, Collection<LocBookmark> inserts, Collection<LocBookmark> updates,
+                                  Collection<LocBookmark> deletes) {
+        int changed = 0;
+        SQLiteDatabase db = orm.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // LiteOrm wraps each collection in its own transaction; nested in ours they commit together
+            if (inserts != null && !inserts.isEmpty()) {
+                changed += orm.insert(inserts, ConflictAlgorithm.Replace);
+            }
+            if (updates != null && !updates.isEmpty()) {
+                changed += orm.update(updates, ConflictAlgorithm.Replace);
+            }
+            if (deletes != null && !deletes.isEmpty()) {
+                changed += orm.delete(deletes);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changed;
     }
 
+    /**
+     * Add the waypoints/placemarks of a GPX, KML or NMEA file as bookmarks, streamed in
+     * batches within one transaction and announced with one reload broadcast, so nothing is
+     * kept per imported bookmark.
+     *
+     * @return bookmarks imported
+     */
+    public static long importBookmarks(File file) throws IOException {
+        final LiteOrm orm = FakeGpsApp.getLiteOrm();
+        GeoImporter importer = new GeoImporter(new GeoImporter.Callback() {
+            @Override
+            public void onPoints(double[] latitudes, double[] longitudes, long[] times, int count) {
+            }
+
+            @Override
+            public void onBookmarks(List<LocBookmark> bookmarks) {
+                orm.insert(bookmarks, ConflictAlgorithm.Replace);
+            }
+        });
+        SQLiteDatabase db = orm.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            importer.importFile(file);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (importer.getBookmarkCount() > 0) {
+            notifyBookmarkUpdate();
+        }
+        return importer.getBookmarkCount();
+    }
+
+    /**
+     * @return all bookmarks in ascending id order, the order {@link BookmarkDelta#applyTo} keeps
+     */
     public static ArrayList<LocBookmark> getAllBookmark() {
-        return FakeGpsApp.getLiteOrm().query(LocBookmark.class);
+        long start = System.nanoTime();
+        try {
+            return FakeGpsApp.getLiteOrm().query(new QueryBuilder<>(LocBookmark.class).appendOrderAscBy(COLUMN_ID));
+        } finally {
+            QUERY_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Cut the bookmark table into pages of {@code pageSize} ids; only the ids are read.
+     */
+    public static BookmarkPages.Index getBookmarkPageIndex(int pageSize) {
+        return getBookmarkPageIndex(FakeGpsApp.getLiteOrm(), pageSize);
+    }
+
+    static BookmarkPages.Index getBookmarkPageIndex(LiteOrm orm, int pageSize) {
+        BookmarkPages.Builder builder = BookmarkPages.Index.builder(pageSize);
+        long start = System.nanoTime();
+        // LiteOrm creates the table lazily, and counts 0 until it exists
+        if (orm.queryCount(LocBookmark.class) == 0) {
+            QUERY_TIME.recordSince(start);
+            return builder.build();
+        }
+        Cursor cursor = orm.getReadableDatabase().rawQuery(
+                "SELECT " + COLUMN_ID + " FROM " + TABLE_BOOKMARK + " ORDER BY " + COLUMN_ID, null);
+        try {
+            while (cursor.moveToNext()) {
+                builder.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+            QUERY_TIME.recordSince(start);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Keyset page of bookmarks.
+     *
+     * @return bookmarks with {@code fromId <= id < toId} in ascending id order
+     */
+    public static ArrayList<LocBookmark> getBookmarkRange(int fromId, int toId) {
+        return getBookmarkRange(FakeGpsApp.getLiteOrm(), fromId, toId);
+    }
+
+    static ArrayList<LocBookmark> getBookmarkRange(LiteOrm orm, int fromId, int toId) {
+        long start = System.nanoTime();
+        try {
+            return orm.query(new QueryBuilder<>(LocBookmark.class)
+                    .where(COLUMN_ID + " >= ? AND " + COLUMN_ID + " < ?", fromId, toId)
+                    .appendOrderAscBy(COLUMN_ID));
+        } finally {
+            QUERY_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Create the index on the cell column and fill in the cell of bookmarks stored before
+     * there was one.
+     *
+     * @return bookmarks updated
+     */
+    public static int ensureSpatialIndex() {
+        return ensureSpatialIndex(FakeGpsApp.getLiteOrm());
+    }
+
+    static int ensureSpatialIndex(LiteOrm orm) {
+        SQLiteDatabase db = orm.getWritableDatabase();
+        // LiteOrm creates the table on the first insert; the index follows on the next start
+        if (!hasRows(db, "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + TABLE_BOOKMARK + "'")) {
+            return 0;
+        }
+        ArrayList<LocBookmark> stale;
+        if (hasColumn(db, TABLE_BOOKMARK, LocBookmark.COLUMN_CELL)) {
+            stale = orm.query(new QueryBuilder<>(LocBookmark.class).where(LocBookmark.COLUMN_CELL + " IS NULL"));
+        } else {
+            // a table from before the cell column; LiteOrm adds the column itself on the update
+            // below, behind its back it would try again later
+            stale = orm.query(LocBookmark.class);
+        }
+        int updated = 0;
+        if (!stale.isEmpty()) {
+            for (LocBookmark bookmark : stale) {
+                // recomputes the cell
+                bookmark.setLocPoint(bookmark.getLocPoint());
+            }
+            updated = applyBookmarkBatch(orm, null, stale, null);
+        }
+        if (hasColumn(db, TABLE_BOOKMARK, LocBookmark.COLUMN_CELL)) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_BOOKMARK + "_" + LocBookmark.COLUMN_CELL
+                    + " ON " + TABLE_BOOKMARK + "(" + LocBookmark.COLUMN_CELL + ")");
+        }
+        return updated;
+    }
+
+    private static boolean hasRows(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToNext();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        // pragma_table_info() needs SQLite 3.16, older devices only have the PRAGMA
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(1))) return true;
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static BookmarkSpatialIndex.Source cellSource(final LiteOrm orm) {
+        return new BookmarkSpatialIndex.Source() {
+            @Override
+            public List<LocBookmark> query(int[] ranges, int count) {
+                StringBuilder where = new StringBuilder();
+                Object[] args = new Object[2 * count];
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) where.append(" OR ");
+                    where.append(LocBookmark.COLUMN_CELL).append(" BETWEEN ? AND ?");
+                    args[2 * i] = ranges[2 * i];
+                    args[2 * i + 1] = ranges[2 * i + 1];
+                }
+                long start = System.nanoTime();
+                try {
+                    return orm.query(new QueryBuilder<>(LocBookmark.class).where(where.toString(), args));
+                } finally {
+                    QUERY_TIME.recordSince(start);
+                }
+            }
+        };
+    }
+
+    private static BookmarkSpatialIndex getSpatialIndex() {
+        if (sSpatialIndex == null) {
+            sSpatialIndex = new BookmarkSpatialIndex(cellSource(FakeGpsApp.getLiteOrm()));
+        }
+        return sSpatialIndex;
+    }
+
+    /**
+     * @return the {@code k} bookmarks nearest to the point, nearest first
+     */
+    public static ArrayList<LocBookmark> getNearestBookmarks(@NonNull LocPoint point, int k) {
+        return getSpatialIndex().nearest(point.getLatitude(), point.getLongitude(), k);
+    }
+
+    /**
+     * @return bookmarks within {@code metres} of the point, nearest first
+     */
+    public static ArrayList<LocBookmark> getBookmarksWithin(@NonNull LocPoint point, double metres) {
+        return getSpatialIndex().withinRadius(point.getLatitude(), point.getLongitude(), metres);
+    }
+
+    /**
+     * @return the bookmarks with these ids that still exist
+     */
+    public static ArrayList<LocBookmark> getBookmarks(int[] ids) {
+        ArrayList<LocBookmark> bookmarks = new ArrayList<>(ids.length);
+        LiteOrm orm = FakeGpsApp.getLiteOrm();
+        for (int start = 0; start < ids.length; start += MAX_QUERY_ARGS) {
+            Object[] args = new Object[Math.min(MAX_QUERY_ARGS, ids.length - start)];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = ids[start + i];
+            }
+            long begin = System.nanoTime();
+            bookmarks.addAll(orm.query(new QueryBuilder<>(LocBookmark.class).whereIn(COLUMN_ID, args)));
+            QUERY_TIME.recordSince(begin);
+        }
+        return bookmarks;
     }
 
     public static void saveLastLocPoint(@NonNull Context context, @NonNull LocPoint locPoint) {
@@ -61,9 +351,34 @@ public final class DbUtils {
                 .getString(KEY_LAST_LOC, "");
     }
 
+    /**
+     * Tell listeners to reload all bookmarks.
+     */
     public static void notifyBookmarkUpdate() {
         Intent intent = new Intent(BroadcastEvent.BookMark.ACTION_BOOK_MARK_UPDATE);
         LocalBroadcastManager.getInstance(FakeGpsApp.get()).sendBroadcast(intent);
     }
 
+    /**
+     * Tell listeners which bookmarks changed.
+     */
+    public static void notifyBookmarkUpdate(@NonNull BookmarkDelta delta) {
+        Intent intent = new Intent(BroadcastEvent.BookMark.ACTION_BOOK_MARK_UPDATE);
+        intent.putExtra(BroadcastEvent.BookMark.EXTRA_INSERTED_IDS, delta.getInserted());
+        intent.putExtra(BroadcastEvent.BookMark.EXTRA_UPDATED_IDS, delta.getUpdated());
+        intent.putExtra(BroadcastEvent.BookMark.EXTRA_DELETED_IDS, delta.getDeleted());
+        LocalBroadcastManager.getInstance(FakeGpsApp.get()).sendBroadcast(intent);
+    }
+
+    /**
+     * @return the delta of an update broadcast, or null if listeners have to reload everything
+     */
+    public static BookmarkDelta getBookmarkDelta(Intent intent) {
+        int[] inserted = intent.getIntArrayExtra(BroadcastEvent.BookMark.EXTRA_INSERTED_IDS);
+        int[] updated = intent.getIntArrayExtra(BroadcastEvent.BookMark.EXTRA_UPDATED_IDS);
+        int[] deleted = intent.getIntArrayExtra(BroadcastEvent.BookMark.EXTRA_DELETED_IDS);
+        if (inserted == null && updated == null && deleted == null) return null;
+        return new BookmarkDelta(inserted, updated, deleted);
+    }
+
 }
@@ -3,11 +3,16 @@ package com.github.fakegps;
 import android.app.Application;
 import android.content.Context;
 import android.os.Environment;
+import android.os.StrictMode;
+import android.preference.PreferenceManager;
+import android.util.Log;
 
 import com.litesuits.orm.LiteOrm;
+import com.tencent.fakegps.BuildConfig;
 
 import java.io.File;
 
+import tiger.radio.loggerlibrary.AsyncLogFile;
 import tiger.radio.loggerlibrary.Logger;
 
 /**
@@ -27,7 +32,31 @@ public class FakeGpsApp extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
-        initLogger();
+        // per-fix TPV and SKY records are debug level: a release build formats nothing per fix
+        Logger.setLevel(BuildConfig.DEBUG ? Log.DEBUG : Log.INFO);
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedSqlLiteObjects()
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
+        // keep disk I/O off the main thread: log files, preferences and the database
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                initLogger();
+                PreferenceManager.getDefaultSharedPreferences(FakeGpsApp.this);
+            }
+        }, "FakeGpsInit").start();
+        BookmarkRepository.get().open();
+        LocationBridge.init(this);
         JoyStickManager.get().init(this);
     }
 
@@ -47,8 +76,15 @@ public class FakeGpsApp extends Application {
         return sLiteOrm;
     }
 
+    /**
+     * Directory on external storage for logs and recorded tracks.
+     */
+    public static File getOutputDir() {
+        return new File(Environment.getExternalStorageDirectory(), "fakegps");
+    }
+
     private void initLogger() {
-        String outputDir = Environment.getExternalStorageDirectory().getAbsolutePath() + "/fakegps";
+        String outputDir = getOutputDir().getAbsolutePath();
         File file = new File(outputDir);
         if (!file.isDirectory()) {
             file.delete();
@@ -56,7 +92,8 @@ public class FakeGpsApp extends Application {
         if (!file.exists()) {
             file.mkdirs();
         }
-        Logger.configure(new File(outputDir), "logs");
+        // the gpsd reader thread logs every fix; keep disk I/O off it, and drop rather than stall
+        Logger.configureAsync(new File(outputDir), "logs", AsyncLogFile.CAPACITY_DEFAULT, AsyncLogFile.Overflow.DROP);
     }
 
 }
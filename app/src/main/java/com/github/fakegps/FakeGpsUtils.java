@@ -2,6 +2,8 @@ package com.github.fakegps;
 
 import android.content.ClipboardManager;
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 import android.widget.EditText;
 
 import com.github.fakegps.model.LocPoint;
@@ -62,4 +64,14 @@ public final class FakeGpsUtils {
         return value;
     }
 
+    /**
+     * SystemClock.elapsedRealtimeNanos() with a millisecond fallback below API 17.
+     */
+    public static long elapsedRealtimeNanos() {
+        if (Build.VERSION.SDK_INT > 16) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
 }
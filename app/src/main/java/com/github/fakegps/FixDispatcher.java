@@ -0,0 +1,131 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+
+import com.github.fakegps.model.GpsFix;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hand-off stage between the gpsd reader thread and the thread that reports locations.
+ * The reader only parses and calls {@link #offer(GpsFix)}; the fixes are published on the
+ * looper of the given handler, so a slow binder call no longer stalls socket reads.
+ */
+public class FixDispatcher implements FixSink {
+
+    public static final int CAPACITY_DEFAULT = 8;
+
+    public interface Publisher {
+        /**
+         * Called on the dispatcher's looper with a fix owned by the dispatcher; copy what you keep.
+         */
+        void publish(GpsFix fix);
+    }
+
+    private final Handler mHandler;
+    private final Publisher mPublisher;
+    private final FixRingBuffer mRingBuffer;
+    private final GpsFix mFix = new GpsFix();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    // written on the consumer looper only
+    private volatile long mPublishedCount;
+    private volatile long mLastLatencyNanos;
+    private volatile long mMaxLatencyNanos;
+    private volatile long mTotalLatencyNanos;
+
+    public FixDispatcher(Handler handler, Publisher publisher) {
+        this(handler, publisher, CAPACITY_DEFAULT);
+    }
+
+    public FixDispatcher(Handler handler, Publisher publisher, int capacity) {
+        mHandler = handler;
+        mPublisher = publisher;
+        mRingBuffer = new FixRingBuffer(capacity);
+    }
+
+    /**
+     * Producer side, called from the gpsd reader thread. The fix is copied.
+     */
+    @Override
+    public void offer(GpsFix fix) {
+        mRingBuffer.offer(fix);
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrain);
+        }
+    }
+
+    public void clear() {
+        mHandler.removeCallbacks(mDrain);
+        mDrainScheduled.set(false);
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Publish everything queued; the handler's job, called directly by tests.
+     */
+    void drain() {
+        // reset first so an offer racing with the drain schedules another run
+        mDrainScheduled.set(false);
+        GpsFix fix = mFix;
+        while (mRingBuffer.poll(fix)) {
+            mPublisher.publish(fix);
+            long latency = FakeGpsUtils.elapsedRealtimeNanos() - fix.getElapsedRealtimeNanos();
+            mLastLatencyNanos = latency;
+            if (latency > mMaxLatencyNanos) {
+                mMaxLatencyNanos = latency;
+            }
+            mTotalLatencyNanos += latency;
+            mPublishedCount++;
+        }
+    }
+
+    public int getQueueDepth() {
+        return mRingBuffer.size();
+    }
+
+    public long getOfferedCount() {
+        return mRingBuffer.getOfferedCount();
+    }
+
+    public long getDroppedCount() {
+        return mRingBuffer.getDroppedCount();
+    }
+
+    public long getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    /**
+     * @return time from parsing the last fix until its publish call returned
+     */
+    public long getLastLatencyNanos() {
+        return mLastLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    public long getMeanLatencyNanos() {
+        long count = mPublishedCount;
+        return count == 0 ? 0 : mTotalLatencyNanos / count;
+    }
+
+    @Override
+    public String toString() {
+        return "FixDispatcher: offered=" + getOfferedCount()
+                + " published=" + getPublishedCount()
+                + " dropped=" + getDroppedCount()
+                + " depth=" + getQueueDepth()
+                + " latency(last/mean/max)=" + getLastLatencyNanos() / 1000
+                + "/" + getMeanLatencyNanos() / 1000
+                + "/" + getMaxLatencyNanos() / 1000 + " us";
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue of {@link GpsFix} slots.
+ * All slots are allocated up front and fixes are copied in and out, so neither side allocates.
+ * <p>
+ * When the queue is full the producer drops the oldest queued fix ("latest fix wins") and
+ * never blocks. The consumer copies a slot before claiming it and retries when the producer
+ * overwrote it in the meantime.
+ */
+public class FixRingBuffer {
+
+    private final GpsFix[] mSlots;
+    private final int mMask;
+
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public FixRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new GpsFix[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new GpsFix();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * Producer side. Copies the fix into the queue, dropping the oldest queued fix if full.
+     *
+     * @return false if an older fix had to be dropped
+     */
+    public boolean offer(GpsFix fix) {
+        long tail = mTail.get();
+        boolean dropped = false;
+        while (true) {
+            long head = mHead.get();
+            if (tail - head < mSlots.length) {
+                break;
+            }
+            if (mHead.compareAndSet(head, head + 1)) {
+                mDropped.incrementAndGet();
+                dropped = true;
+                break;
+            }
+        }
+        mSlots[(int) (tail & mMask)].set(fix);
+        mTail.lazySet(tail + 1);
+        return !dropped;
+    }
+
+    /**
+     * Consumer side. Copies the oldest queued fix into {@code out}.
+     *
+     * @return false if the queue was empty
+     */
+    public boolean poll(GpsFix out) {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                return false;
+            }
+            out.set(mSlots[(int) (head & mMask)]);
+            if (mHead.compareAndSet(head, head + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public int capacity() {
+        return mSlots.length;
+    }
+
+    public int size() {
+        long size = mTail.get() - mHead.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public long getOfferedCount() {
+        return mTail.get();
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.github.fakegps.model.GpsFix;
+
+/**
+ * Merges fixes from several redundant gpsd sources into one stream.
+ * <p>
+ * Fixes are bucketed by their GPS time into windows of {@code windowMillis}; per window the
+ * valid fix with the lowest accuracy radius (mean of epx/epy) wins and is passed downstream.
+ * A window is closed as soon as every source has reported for it, when a fix of a later
+ * window arrives, or {@code graceMillis} after its first candidate, whichever comes first,
+ * so one slow or dead source delays the others by at most the grace period.
+ * Fixes for a window that has already been closed are counted as late and dropped.
+ * <p>
+ * {@link #offer(int, GpsFix)} is called concurrently from the sources' reader threads; the
+ * critical section only copies primitives, so sources never wait on each other for long.
+ */
+public class FixSelector {
+
+    public static final long WINDOW_DEFAULT = 1000;
+    public static final long GRACE_DEFAULT = 250;
+
+    /**
+     * Health counters of one source.
+     */
+    public static class SourceStats {
+        private final String mName;
+        private long mFixCount;
+        private long mValidCount;
+        private long mSelectedCount;
+        private long mLateCount;
+        private long mLastFixNanos;
+        private long mAccuracyCount;
+        private double mAccuracySum;
+
+        SourceStats(String name) {
+            mName = name;
+        }
+
+        public synchronized long getFixCount() {
+            return mFixCount;
+        }
+
+        public synchronized long getValidCount() {
+            return mValidCount;
+        }
+
+        public synchronized long getSelectedCount() {
+            return mSelectedCount;
+        }
+
+        public synchronized long getLateCount() {
+            return mLateCount;
+        }
+
+        /**
+         * @return elapsedRealtimeNanos of the last fix from this source, 0 if none
+         */
+        public synchronized long getLastFixNanos() {
+            return mLastFixNanos;
+        }
+
+        public synchronized double getMeanAccuracy() {
+            return mAccuracyCount == 0 ? Double.NaN : mAccuracySum / mAccuracyCount;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return mName + ": fixes=" + mFixCount + " valid=" + mValidCount + " selected=" + mSelectedCount
+                    + " late=" + mLateCount + " accuracy=" + (float) getMeanAccuracy() + " m";
+        }
+    }
+
+    private final FixSink mSink;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final long mGraceMillis;
+    private final SourceStats[] mStats;
+    private final long mAllSources;
+
+    // guarded by this
+    private final GpsFix mBest = new GpsFix();
+    private long mWindow = Long.MIN_VALUE;
+    private int mBestSource;
+    private boolean mHasBest;
+    private long mReported;
+    private long mClosedWindow = Long.MIN_VALUE;
+    private long mPublishedCount;
+
+    public FixSelector(String[] sourceNames, FixSink sink, Handler handler) {
+        this(sourceNames, sink, handler, WINDOW_DEFAULT, GRACE_DEFAULT);
+    }
+
+    /**
+     * @param sourceNames one name per source, at most 64; the index is the source id
+     * @param handler     runs the grace timeout, or null to close windows only on later fixes
+     */
+    public FixSelector(String[] sourceNames, FixSink sink, Handler handler, long windowMillis, long graceMillis) {
+        if (sourceNames.length == 0 || sourceNames.length > 64) {
+            throw new IllegalArgumentException("1..64 sources: " + sourceNames.length);
+        }
+        mSink = sink;
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+        mGraceMillis = graceMillis;
+        mStats = new SourceStats[sourceNames.length];
+        for (int i = 0; i < sourceNames.length; i++) {
+            mStats[i] = new SourceStats(sourceNames[i]);
+        }
+        mAllSources = sourceNames.length == 64 ? -1L : (1L << sourceNames.length) - 1;
+    }
+
+    /**
+     * @param source index into the names given to the constructor
+     * @param fix    copied, the caller keeps ownership
+     */
+    public void offer(int source, GpsFix fix) {
+        SourceStats stats = mStats[source];
+        GraceTimeout grace = null;
+        synchronized (this) {
+            synchronized (stats) {
+                stats.mFixCount++;
+                stats.mLastFixNanos = fix.getElapsedRealtimeNanos();
+                if (!fix.isValid()) return;
+                stats.mValidCount++;
+                float accuracy = fix.getAccuracy();
+                if (!Float.isNaN(accuracy) && !Float.isInfinite(accuracy)) {
+                    stats.mAccuracyCount++;
+                    stats.mAccuracySum += accuracy;
+                }
+            }
+            long window = fix.getTime() / mWindowMillis;
+            if (window <= mClosedWindow) {
+                synchronized (stats) {
+                    stats.mLateCount++;
+                }
+                return;
+            }
+            if (window > mWindow) {
+                closeWindow();
+                mWindow = window;
+                mReported = 0;
+                if (mHandler != null) {
+                    grace = new GraceTimeout(window);
+                }
+            }
+            if (!mHasBest || moreAccurate(fix.getAccuracy(), mBest.getAccuracy())) {
+                mBest.set(fix);
+                mBestSource = source;
+                mHasBest = true;
+            }
+            mReported |= 1L << source;
+            if (mReported == mAllSources) {
+                closeWindow();
+                return;
+            }
+        }
+        if (grace != null) {
+            // timers of earlier windows may still be pending; they are no-ops now
+            mHandler.postAtTime(grace, this, SystemClock.uptimeMillis() + mGraceMillis);
+        }
+    }
+
+    /**
+     * An unknown accuracy ranks below any known one.
+     */
+    private static boolean moreAccurate(float accuracy, float best) {
+        return !Float.isNaN(accuracy) && (Float.isNaN(best) || accuracy < best);
+    }
+
+    /**
+     * Close the current window now, publishing its best fix if there is one.
+     */
+    public synchronized void flush() {
+        closeWindow();
+    }
+
+    private void closeWindow() {
+        if (mWindow > mClosedWindow) {
+            mClosedWindow = mWindow;
+        }
+        if (!mHasBest) return;
+        mHasBest = false;
+        SourceStats stats = mStats[mBestSource];
+        synchronized (stats) {
+            stats.mSelectedCount++;
+        }
+        mPublishedCount++;
+        mSink.offer(mBest);
+    }
+
+    /**
+     * Ends the grace period of the window it was posted for, one allocation per window.
+     */
+    private class GraceTimeout implements Runnable {
+        private final long mWindow;
+
+        GraceTimeout(long window) {
+            mWindow = window;
+        }
+
+        @Override
+        public void run() {
+            graceTimeout(mWindow);
+        }
+    }
+
+    /**
+     * Close {@code window} if it is still the open one; the handler's job, called directly by tests.
+     */
+    synchronized void graceTimeout(long window) {
+        if (window == mWindow && window > mClosedWindow) {
+            closeWindow();
+        }
+    }
+
+    public void clear() {
+        if (mHandler != null) {
+            mHandler.removeCallbacksAndMessages(this);
+        }
+    }
+
+    public int getSourceCount() {
+        return mStats.length;
+    }
+
+    public SourceStats getStats(int source) {
+        return mStats[source];
+    }
+
+    public synchronized long getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("FixSelector: published=").append(getPublishedCount());
+        for (SourceStats stats : mStats) {
+            sb.append("\n  ").append(stats);
+        }
+        return sb.toString();
+    }
+}
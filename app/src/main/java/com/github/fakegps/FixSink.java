@@ -0,0 +1,13 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+/**
+ * Something fixes can be pushed into: the publish stage, a recorder, a test probe.
+ */
+public interface FixSink {
+    /**
+     * The fix stays owned by the caller; copy what you keep.
+     */
+    void offer(GpsFix fix);
+}
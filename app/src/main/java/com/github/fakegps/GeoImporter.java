@@ -0,0 +1,549 @@
+package com.github.fakegps;
+
+import android.util.Xml;
+
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tiger.radio.loggerlibrary.IOUtils;
+
+/**
+ * Streaming importer for GPX, KML and NMEA files.
+ * <p>
+ * XML is read with a pull parser and NMEA line by line, so memory use does not grow with the
+ * file: track and route points are collected into fixed primitive batches, waypoints and
+ * placemarks into bookmark batches, and every full batch goes to the {@link Callback}.
+ * <ul>
+ * <li>GPX: wpt become bookmarks, trkpt and rtept become points, with their time.</li>
+ * <li>KML: Placemarks with a Point become bookmarks, LineString coordinates and gx:Track
+ * gx:coord/when become points. Two exceptions to the bounded memory: a LineString's
+ * coordinates are one text node, which the pull parser hands over as one string, and a
+ * gx:Track listing all its when before its gx:coord keeps those times until the coords come,
+ * up to {@link #MAX_TRACK_WHENS}; the points after that get no time. Interleaved when/gx:coord
+ * pairs need no buffer, so keep huge tracks in that form.</li>
+ * <li>NMEA: RMC sentences with status A, and GGA with a fix, become points, one per epoch:
+ * an RMC replaces the GGA of the same time of day. Sentences with a bad checksum are skipped.</li>
+ * </ul>
+ */
+public class GeoImporter {
+
+    public static final int BATCH_DEFAULT = 4096;
+    // gx:Track times waiting for their gx:coord, 2 MB
+    public static final int MAX_TRACK_WHENS = 1 << 18;
+
+    public enum Format {GPX, KML, NMEA}
+
+    public interface Callback {
+        /**
+         * A batch of track or route points in file order. The arrays are reused once this
+         * returns; times are epoch milliseconds, 0 where the file has none.
+         */
+        void onPoints(double[] latitudes, double[] longitudes, long[] times, int count);
+
+        /**
+         * A batch of waypoints or placemarks. The list is cleared once this returns.
+         */
+        void onBookmarks(List<LocBookmark> bookmarks);
+    }
+
+    private final Callback mCallback;
+    private final int mBatchSize;
+
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final long[] mTimes;
+    private int mPointCount;
+    private final List<LocBookmark> mBookmarks;
+
+    private long mTotalPoints;
+    private long mTotalBookmarks;
+    private long mSkipped;
+
+    public GeoImporter(Callback callback) {
+        this(callback, BATCH_DEFAULT);
+    }
+
+    public GeoImporter(Callback callback, int batchSize) {
+        mCallback = callback;
+        mBatchSize = batchSize;
+        mLatitudes = new double[batchSize];
+        mLongitudes = new double[batchSize];
+        mTimes = new long[batchSize];
+        mBookmarks = new ArrayList<>(Math.min(batchSize, 256));
+    }
+
+    /**
+     * @return the format by file extension, NMEA for anything that is not .gpx or .kml
+     */
+    public static Format detect(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".gpx")) return Format.GPX;
+        if (name.endsWith(".kml")) return Format.KML;
+        return Format.NMEA;
+    }
+
+    public void importFile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            Format format = detect(file.getName());
+            if (format == Format.NMEA) {
+                importNmea(reader);
+            } else {
+                XmlPullParser parser = Xml.newPullParser();
+                if (format == Format.GPX) {
+                    importGpx(parser, reader);
+                } else {
+                    importKml(parser, reader);
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("parse " + file + " fail: " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    public long getPointCount() {
+        return mTotalPoints;
+    }
+
+    public long getBookmarkCount() {
+        return mTotalBookmarks;
+    }
+
+    /**
+     * @return points and sentences that could not be parsed
+     */
+    public long getSkippedCount() {
+        return mSkipped;
+    }
+
+    private void addPoint(double latitude, double longitude, long time) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)
+                || Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+            mSkipped++;
+            return;
+        }
+        mLatitudes[mPointCount] = latitude;
+        mLongitudes[mPointCount] = longitude;
+        mTimes[mPointCount] = time;
+        mTotalPoints++;
+        if (++mPointCount == mBatchSize) {
+            flushPoints();
+        }
+    }
+
+    private void addBookmark(String name, double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            mSkipped++;
+            return;
+        }
+        if (name == null || name.length() == 0) {
+            name = "Imported " + (mTotalBookmarks + 1);
+        }
+        mBookmarks.add(new LocBookmark(name, new LocPoint(latitude, longitude)));
+        mTotalBookmarks++;
+        if (mBookmarks.size() == mBatchSize) {
+            flushBookmarks();
+        }
+    }
+
+    private void flushPoints() {
+        if (mPointCount > 0) {
+            mCallback.onPoints(mLatitudes, mLongitudes, mTimes, mPointCount);
+            mPointCount = 0;
+        }
+    }
+
+    private void flushBookmarks() {
+        if (!mBookmarks.isEmpty()) {
+            mCallback.onBookmarks(mBookmarks);
+            mBookmarks.clear();
+        }
+    }
+
+    private void flush() {
+        flushPoints();
+        flushBookmarks();
+    }
+
+    // ---- GPX
+
+    public void importGpx(XmlPullParser parser, Reader reader) throws IOException, XmlPullParserException {
+        parser.setInput(reader);
+        double lat = Double.NaN, lon = Double.NaN;
+        long time = 0;
+        String name = null;
+        // the point element we are in: wpt, trkpt or rtept
+        String point = null;
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.START_TAG) {
+                String tag = localName(parser.getName());
+                if (tag.equals("wpt") || tag.equals("trkpt") || tag.equals("rtept")) {
+                    point = tag;
+                    lat = parseDouble(parser.getAttributeValue(null, "lat"));
+                    lon = parseDouble(parser.getAttributeValue(null, "lon"));
+                    time = 0;
+                    name = null;
+                } else if (point != null && tag.equals("time")) {
+                    time = parseTime(parser.nextText());
+                } else if (point != null && tag.equals("name")) {
+                    name = parser.nextText().trim();
+                }
+            } else if (event == XmlPullParser.END_TAG && point != null && localName(parser.getName()).equals(point)) {
+                if (point.equals("wpt")) {
+                    addBookmark(name, lat, lon);
+                } else {
+                    addPoint(lat, lon, time);
+                }
+                point = null;
+            }
+        }
+        flush();
+    }
+
+    // ---- KML
+
+    public void importKml(XmlPullParser parser, Reader reader) throws IOException, XmlPullParserException {
+        parser.setInput(reader);
+        boolean inPlacemark = false, inPoint = false, inLineString = false;
+        String name = null;
+        double lat = Double.NaN, lon = Double.NaN;
+        // times of the current gx:Track not matched with a gx:coord yet
+        long[] whens = new long[16];
+        int whenCount = 0, coordIndex = 0;
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.START_TAG) {
+                String tag = localName(parser.getName());
+                if (tag.equals("Placemark")) {
+                    inPlacemark = true;
+                    name = null;
+                    lat = Double.NaN;
+                    lon = Double.NaN;
+                } else if (tag.equals("name") && inPlacemark) {
+                    name = parser.nextText().trim();
+                } else if (tag.equals("Point")) {
+                    inPoint = true;
+                } else if (tag.equals("LineString")) {
+                    inLineString = true;
+                } else if (tag.equals("Track")) {
+                    whenCount = 0;
+                    coordIndex = 0;
+                } else if (tag.equals("when")) {
+                    long when = parseTime(parser.nextText());
+                    if (coordIndex == whenCount) {
+                        // every time so far has its coord, as with interleaved pairs: start over
+                        whenCount = 0;
+                        coordIndex = 0;
+                    }
+                    if (whenCount == whens.length && whenCount < MAX_TRACK_WHENS) {
+                        whens = Arrays.copyOf(whens, Math.min(whenCount * 2, MAX_TRACK_WHENS));
+                    }
+                    if (whenCount < whens.length) {
+                        whens[whenCount++] = when;
+                    }
+                } else if (tag.equals("coord")) {
+                    // "lon lat alt"
+                    String text = parser.nextText().trim();
+                    int space = text.indexOf(' ');
+                    int space2 = space < 0 ? -1 : text.indexOf(' ', space + 1);
+                    if (space < 0) {
+                        mSkipped++;
+                    } else {
+                        addPoint(parseDouble(text.substring(space + 1, space2 < 0 ? text.length() : space2)),
+                                parseDouble(text.substring(0, space)),
+                                coordIndex < whenCount ? whens[coordIndex] : 0);
+                    }
+                    coordIndex++;
+                } else if (tag.equals("coordinates")) {
+                    String text = parser.nextText();
+                    if (inPoint) {
+                        int comma = text.indexOf(',');
+                        if (comma > 0) {
+                            int comma2 = text.indexOf(',', comma + 1);
+                            lon = parseDouble(text.substring(0, comma).trim());
+                            lat = parseDouble(text.substring(comma + 1, comma2 < 0 ? text.length() : comma2).trim());
+                        }
+                    } else if (inLineString) {
+                        addCoordinates(text);
+                    }
+                }
+            } else if (event == XmlPullParser.END_TAG) {
+                String tag = localName(parser.getName());
+                if (tag.equals("Placemark")) {
+                    if (!Double.isNaN(lat)) {
+                        addBookmark(name, lat, lon);
+                    }
+                    inPlacemark = false;
+                } else if (tag.equals("Point")) {
+                    inPoint = false;
+                } else if (tag.equals("LineString")) {
+                    inLineString = false;
+                }
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Whitespace separated "lon,lat[,alt]" tuples, scanned in place.
+     */
+    private void addCoordinates(String text) {
+        int length = text.length();
+        int pos = 0;
+        while (pos < length) {
+            while (pos < length && Character.isWhitespace(text.charAt(pos))) pos++;
+            if (pos == length) break;
+            int end = pos;
+            while (end < length && !Character.isWhitespace(text.charAt(end))) end++;
+            int comma = text.indexOf(',', pos);
+            if (comma < 0 || comma >= end) {
+                mSkipped++;
+            } else {
+                int comma2 = text.indexOf(',', comma + 1);
+                if (comma2 < 0 || comma2 > end) comma2 = end;
+                addPoint(parseDouble(text.substring(comma + 1, comma2)), parseDouble(text.substring(pos, comma)), 0);
+            }
+            pos = end;
+        }
+    }
+
+    // ---- NMEA
+
+    public void importNmea(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        int[] commas = new int[24];
+        long date = 0; // epoch ms of 00:00 UTC of the last RMC date
+        int lastMillisOfDay = -1;
+        // a GGA is held back until the next sentence shows whether an RMC of its epoch follows
+        boolean pending = false;
+        double pendingLat = 0, pendingLon = 0;
+        long pendingTime = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            int start = line.indexOf('$');
+            if (start < 0 || line.length() < start + 7) continue;
+            int end = line.indexOf('*', start);
+            if (end < 0) {
+                end = line.length();
+            } else if (!checksumOk(line, start, end)) {
+                mSkipped++;
+                continue;
+            }
+            // "$GPRMC", "$GNGGA", ...: the talker does not matter
+            boolean rmc = line.startsWith("RMC", start + 3);
+            if (!rmc && !line.startsWith("GGA", start + 3)) continue;
+            int fields = 0;
+            for (int i = start; i < end && fields < commas.length - 1; i++) {
+                if (line.charAt(i) == ',') commas[fields++] = i;
+            }
+            commas[fields] = end;
+            try {
+                if (rmc) {
+                    // RMC,time,status,lat,N,lon,E,speed,course,date
+                    if (fields < 9 || !field(line, commas, 1).equals("A")) continue;
+                    String d = field(line, commas, 8);
+                    if (d.length() >= 6) {
+                        int day = Integer.parseInt(d.substring(0, 2));
+                        int month = Integer.parseInt(d.substring(2, 4));
+                        int year = 2000 + Integer.parseInt(d.substring(4, 6));
+                        date = GpsdFastParser.daysFromCivil(year, month, day) * 86400000L;
+                    }
+                    int millisOfDay = parseTimeOfDay(field(line, commas, 0));
+                    if (pending && millisOfDay != lastMillisOfDay) {
+                        addPoint(pendingLat, pendingLon, pendingTime);
+                    }
+                    pending = false;
+                    lastMillisOfDay = millisOfDay;
+                    addPoint(parseNmeaAngle(field(line, commas, 2), field(line, commas, 3)),
+                            parseNmeaAngle(field(line, commas, 4), field(line, commas, 5)),
+                            date == 0 ? 0 : date + millisOfDay);
+                } else {
+                    // GGA,time,lat,N,lon,E,quality,...
+                    if (fields < 6) continue;
+                    String quality = field(line, commas, 5);
+                    if (quality.length() == 0 || quality.equals("0")) continue;
+                    int millisOfDay = parseTimeOfDay(field(line, commas, 0));
+                    if (millisOfDay == lastMillisOfDay) continue;
+                    double lat = parseNmeaAngle(field(line, commas, 1), field(line, commas, 2));
+                    double lon = parseNmeaAngle(field(line, commas, 3), field(line, commas, 4));
+                    if (pending) {
+                        addPoint(pendingLat, pendingLon, pendingTime);
+                    }
+                    pending = true;
+                    pendingLat = lat;
+                    pendingLon = lon;
+                    pendingTime = date == 0 ? 0 : date + millisOfDay;
+                    lastMillisOfDay = millisOfDay;
+                }
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                mSkipped++;
+            }
+        }
+        if (pending) {
+            addPoint(pendingLat, pendingLon, pendingTime);
+        }
+        flush();
+    }
+
+    /**
+     * @return field {@code index} after the sentence id
+     */
+    private static String field(String line, int[] commas, int index) {
+        return line.substring(commas[index] + 1, commas[index + 1]);
+    }
+
+    private static boolean checksumOk(String line, int start, int star) {
+        if (star + 3 > line.length()) return false;
+        int sum = 0;
+        for (int i = start + 1; i < star; i++) {
+            sum ^= line.charAt(i);
+        }
+        try {
+            return sum == Integer.parseInt(line.substring(star + 1, star + 3), 16);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * "ddmm.mmmm" or "dddmm.mmmm" plus hemisphere to signed degrees.
+     */
+    static double parseNmeaAngle(String value, String hemisphere) {
+        if (value.length() == 0) return Double.NaN;
+        double raw = Double.parseDouble(value);
+        double degrees = Math.floor(raw / 100);
+        double result = degrees + (raw - degrees * 100) / 60;
+        return hemisphere.equals("S") || hemisphere.equals("W") ? -result : result;
+    }
+
+    /**
+     * "hhmmss.ss" to milliseconds of the day.
+     */
+    private static int parseTimeOfDay(String value) {
+        if (value.length() < 6) return 0;
+        int hours = Integer.parseInt(value.substring(0, 2));
+        int minutes = Integer.parseInt(value.substring(2, 4));
+        double seconds = Double.parseDouble(value.substring(4));
+        return (hours * 60 + minutes) * 60000 + (int) Math.round(seconds * 1000);
+    }
+
+    // ---- shared
+
+    private static String localName(String name) {
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(colon + 1);
+    }
+
+    private double parseDouble(String value) {
+        if (value == null) return Double.NaN;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * ISO 8601, "2019-05-11T10:01:02Z", with optional fraction and offset; 0 if unparseable.
+     */
+    static long parseTime(String value) {
+        String s = value.trim();
+        if (s.length() < 19) return 0;
+        try {
+            int year = Integer.parseInt(s.substring(0, 4));
+            int month = Integer.parseInt(s.substring(5, 7));
+            int day = Integer.parseInt(s.substring(8, 10));
+            int hour = Integer.parseInt(s.substring(11, 13));
+            int minute = Integer.parseInt(s.substring(14, 16));
+            int second = Integer.parseInt(s.substring(17, 19));
+            int pos = 19;
+            int millis = 0;
+            if (pos < s.length() && s.charAt(pos) == '.') {
+                int div = 100;
+                for (pos++; pos < s.length() && Character.isDigit(s.charAt(pos)); pos++) {
+                    millis += (s.charAt(pos) - '0') * div;
+                    div /= 10;
+                }
+            }
+            long time = ((GpsdFastParser.daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L
+                    + second * 1000L + millis;
+            if (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-') && pos + 6 <= s.length()) {
+                int offset = Integer.parseInt(s.substring(pos + 1, pos + 3)) * 60 + Integer.parseInt(s.substring(pos + 4, pos + 6));
+                time -= (s.charAt(pos) == '+' ? 1 : -1) * offset * 60000L;
+            }
+            return time;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Collects imported points into one {@link Route}, growing its arrays as needed.
+     * Bookmarks are kept as they come.
+     */
+    public static class RouteCollector implements Callback {
+        private double[] mLatitudes = new double[1024];
+        private double[] mLongitudes = new double[1024];
+        private long[] mTimes = new long[1024];
+        private int mCount;
+        private boolean mAllTimed = true;
+        private final List<LocBookmark> mBookmarks = new ArrayList<>();
+
+        @Override
+        public void onPoints(double[] latitudes, double[] longitudes, long[] times, int count) {
+            if (mCount + count > mLatitudes.length) {
+                int capacity = Math.max(mLatitudes.length * 2, mCount + count);
+                mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+                mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+                mTimes = Arrays.copyOf(mTimes, capacity);
+            }
+            System.arraycopy(latitudes, 0, mLatitudes, mCount, count);
+            System.arraycopy(longitudes, 0, mLongitudes, mCount, count);
+            System.arraycopy(times, 0, mTimes, mCount, count);
+            for (int i = 0; i < count; i++) {
+                long time = times[i];
+                if (time == 0 || (mCount + i > 0 && time < mTimes[mCount + i - 1])) {
+                    mAllTimed = false;
+                }
+            }
+            mCount += count;
+        }
+
+        @Override
+        public void onBookmarks(List<LocBookmark> bookmarks) {
+            mBookmarks.addAll(bookmarks);
+        }
+
+        public int getPointCount() {
+            return mCount;
+        }
+
+        public List<LocBookmark> getBookmarks() {
+            return mBookmarks;
+        }
+
+        /**
+         * @param speed m/s, used when not every point has a time
+         * @return the route, or null if no points were imported
+         */
+        public Route toRoute(double speed) {
+            if (mCount == 0) return null;
+            return new Route(Arrays.copyOf(mLatitudes, mCount), Arrays.copyOf(mLongitudes, mCount),
+                    mAllTimed ? Arrays.copyOf(mTimes, mCount) : null, null, speed);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.github.fakegps.model.GpsFix;
+
+import de.taimos.gpsd4java.api.IObjectListener;
+import de.taimos.gpsd4java.backend.GPSdEndpoint;
+import de.taimos.gpsd4java.backend.ResultParser;
+import de.taimos.gpsd4java.types.ATTObject;
+import de.taimos.gpsd4java.types.DeviceObject;
+import de.taimos.gpsd4java.types.DevicesObject;
+import de.taimos.gpsd4java.types.ENMEAMode;
+import de.taimos.gpsd4java.types.SKYObject;
+import de.taimos.gpsd4java.types.TPVObject;
+import de.taimos.gpsd4java.types.subframes.SUBFRAMEObject;
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Supervises one gpsd session.
+ * Connects on its own thread, forwards every object to the listener, and when the stream goes
+ * silent (socket dropped, Wi-Fi gone) rebuilds the {@link GPSdEndpoint} with jittered backoff and
+ * re-sends the WATCH so the session resumes without user action.
+ * Time-to-first-fix after each (re)connect is measured and logged.
+ * <p>
+ * With a {@link GpsdFastParser.Callback} set, TPV/SKY/SUBFRAME/ATT reports bypass gpsd4java's
+ * {@link ResultParser} and go to the callback instead; the listener never sees them.
+ */
+public class GpsdConnection {
+
+    private static final String TAG = "GpsdConnection";
+
+    private static final long LIVENESS_CHECK_INTERVAL = 1000;
+
+    private static final Metrics.Counter RECONNECTS = Metrics.get().counter("gpsd.reconnects");
+    private static final Metrics.Gauge TIME_TO_FIRST_FIX = Metrics.get().gauge("gpsd.time_to_first_fix_ms");
+
+    private final String mHost;
+    private final int mPort;
+    private final IObjectListener mListener;
+    private GpsdFastParser.Callback mFastCallback;
+    private final GpsdLivenessMonitor mLivenessMonitor = new GpsdLivenessMonitor();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    // written on the connection thread only
+    private volatile GPSdEndpoint mEndpoint;
+    private volatile boolean mStopped;
+
+    private volatile long mConnectTime;
+    private volatile boolean mAwaitingFirstFix;
+    private volatile long mTimeToFirstFix = -1;
+    private volatile int mConnectCount;
+
+    public GpsdConnection(String host, int port, IObjectListener listener) {
+        mHost = host;
+        mPort = port;
+        mListener = listener;
+    }
+
+    /**
+     * Route TPV reports through {@link GpsdFastParser} to this callback. Call before {@link #start()}.
+     */
+    public void setFastParserCallback(GpsdFastParser.Callback callback) {
+        mFastCallback = callback;
+    }
+
+    public void start() {
+        mThread = new HandlerThread("GpsdConnection-" + mHost + ":" + mPort);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mLivenessMonitor.onConnect(SystemClock.elapsedRealtime());
+        mHandler.post(mConnect);
+        mHandler.postDelayed(mCheckLiveness, LIVENESS_CHECK_INTERVAL);
+    }
+
+    public void stop() {
+        mStopped = true;
+        if (mHandler == null) {
+            // not started, or connected directly by a test
+            closeEndpoint();
+            return;
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeEndpoint();
+                mThread.quit();
+            }
+        });
+    }
+
+    /**
+     * Open the session on the calling thread, without the supervising looper; for JVM tests.
+     */
+    void connect() {
+        mConnect.run();
+    }
+
+    public String getAddress() {
+        return mHost + ":" + mPort;
+    }
+
+    /**
+     * @return connects done so far, the first one included
+     */
+    public int getConnectCount() {
+        return mConnectCount;
+    }
+
+    /**
+     * @return milliseconds from the last (re)connect to the first valid TPV, or -1 if there was none yet
+     */
+    public long getTimeToFirstFix() {
+        return mTimeToFirstFix;
+    }
+
+    public long getLastObjectTime() {
+        return mLivenessMonitor.getLastObjectTime();
+    }
+
+    public boolean isConnected() {
+        return mEndpoint != null;
+    }
+
+    private void closeEndpoint() {
+        GPSdEndpoint endpoint = mEndpoint;
+        mEndpoint = null;
+        if (endpoint != null) {
+            endpoint.removeListener(mObjectListener);
+            endpoint.stop();
+        }
+    }
+
+    /**
+     * (Re)open the session. Runs on the connection thread, the only place doing socket I/O.
+     */
+    private final Runnable mConnect = new Runnable() {
+        @Override
+        public void run() {
+            if (mStopped) return;
+            closeEndpoint();
+            mConnectTime = SystemClock.elapsedRealtime();
+            mAwaitingFirstFix = true;
+            mConnectCount++;
+            try {
+                ResultParser parser = mFastCallback != null ? new GpsdFastParser(mFastParserCallback) : new ResultParser();
+                GPSdEndpoint endpoint = new GPSdEndpoint(mHost, mPort, parser);
+                endpoint.addListener(mObjectListener);
+                endpoint.start();
+                mEndpoint = endpoint;
+                Logger.i(TAG, "Version: " + endpoint.version());
+                Logger.i(TAG, "Watch: " + endpoint.watch(true, true));
+                Logger.i(TAG, "Poll: " + endpoint.poll());
+            } catch (Exception e) {
+                Logger.e(TAG, "connect to " + getAddress() + " fail!", e);
+            }
+        }
+    };
+
+    private final Runnable mCheckLiveness = new Runnable() {
+        @Override
+        public void run() {
+            if (mStopped) return;
+            if (mLivenessMonitor.shouldReconnect(SystemClock.elapsedRealtime())) {
+                Logger.w(TAG, getAddress() + " silent, reconnect attempt " + mLivenessMonitor.getAttempts());
+                RECONNECTS.increment();
+                mConnect.run();
+            }
+            mHandler.postDelayed(mCheckLiveness, LIVENESS_CHECK_INTERVAL);
+        }
+    };
+
+    private void onObject() {
+        mLivenessMonitor.onObject(SystemClock.elapsedRealtime());
+    }
+
+    private void onFix() {
+        if (mAwaitingFirstFix) {
+            mAwaitingFirstFix = false;
+            mTimeToFirstFix = SystemClock.elapsedRealtime() - mConnectTime;
+            TIME_TO_FIRST_FIX.set(mTimeToFirstFix);
+            Logger.i(TAG, getAddress() + " first fix " + mTimeToFirstFix + " ms after connect #" + mConnectCount);
+        }
+    }
+
+    private final GpsdFastParser.Callback mFastParserCallback = new GpsdFastParser.Callback() {
+        @Override
+        public void onTpv(GpsFix fix) {
+            onObject();
+            if (fix.isValid()) {
+                onFix();
+            }
+            mFastCallback.onTpv(fix);
+        }
+
+        @Override
+        public void onDiscarded(int reportClass) {
+            onObject();
+            mFastCallback.onDiscarded(reportClass);
+        }
+    };
+
+    private final IObjectListener mObjectListener = new IObjectListener() {
+
+        @Override
+        public void handleTPV(TPVObject tpv) {
+            onObject();
+            if (tpv.getMode() != null && tpv.getMode() != ENMEAMode.NotSeen && tpv.getMode() != ENMEAMode.NoFix) {
+                onFix();
+            }
+            mListener.handleTPV(tpv);
+        }
+
+        @Override
+        public void handleSKY(SKYObject sky) {
+            if (sky == GpsdFastParser.CONSUMED) {
+                // already given to the fast parser callback
+                return;
+            }
+            onObject();
+            mListener.handleSKY(sky);
+        }
+
+        @Override
+        public void handleATT(ATTObject att) {
+            onObject();
+            mListener.handleATT(att);
+        }
+
+        @Override
+        public void handleSUBFRAME(SUBFRAMEObject subframe) {
+            onObject();
+            mListener.handleSUBFRAME(subframe);
+        }
+
+        @Override
+        public void handleDevices(DevicesObject devices) {
+            onObject();
+            mListener.handleDevices(devices);
+        }
+
+        @Override
+        public void handleDevice(DeviceObject device) {
+            onObject();
+            mListener.handleDevice(device);
+        }
+    };
+}
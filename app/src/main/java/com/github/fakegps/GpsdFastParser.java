@@ -0,0 +1,366 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import java.text.ParseException;
+
+import de.taimos.gpsd4java.backend.ResultParser;
+import de.taimos.gpsd4java.types.IGPSObject;
+import de.taimos.gpsd4java.types.SKYObject;
+
+/**
+ * Streaming replacement for {@link ResultParser} on the hot path.
+ * <p>
+ * The class field is scanned first. TPV reports are read straight into a reused {@link GpsFix}
+ * (lat, lon, alt, epx/epy, speed, track, time, mode) and handed to the {@link Callback};
+ * SKY, SUBFRAME and ATT reports are discarded unparsed. Both return {@link #CONSUMED}.
+ * Everything else (VERSION, WATCH, POLL, DEVICE, ERROR...) is rare and goes through
+ * {@link ResultParser}, which the endpoint needs for its synchronous commands.
+ * <p>
+ * Not thread safe; an endpoint parses on its single reader thread.
+ */
+public class GpsdFastParser extends ResultParser {
+
+    public interface Callback {
+        /**
+         * Called on the reader thread with a fix owned by the parser; copy what you keep.
+         */
+        void onTpv(GpsFix fix);
+
+        /**
+         * Called on the reader thread for every report that is not forwarded to the listeners.
+         */
+        void onDiscarded(int reportClass);
+    }
+
+    public static final int CLASS_OTHER = 0;
+    public static final int CLASS_TPV = 1;
+    public static final int CLASS_SKY = 2;
+    public static final int CLASS_SUBFRAME = 3;
+    public static final int CLASS_ATT = 4;
+
+    /**
+     * What {@link #parse(String)} returns for a report it consumed. GPSdEndpoint.handle() takes
+     * any object that is not a listener report, null included, as the reply to a pending
+     * synchronous command, so null could stand in for a WATCH or POLL reply. This empty SKY is
+     * dispatched to the listeners instead; skip it by identity.
+     */
+    public static final SKYObject CONSUMED = new SKYObject();
+
+    private static final String CLASS_KEY = "\"class\":\"";
+    private static final String CLASS_PREFIX = "{" + CLASS_KEY;
+
+    private final Callback mCallback;
+    private final GpsFix mFix = new GpsFix();
+
+    // scanner state for the current line
+    private String mLine;
+    private int mPos;
+    private int mKeyStart;
+    private int mKeyEnd;
+
+    public GpsdFastParser(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public IGPSObject parse(String line) throws ParseException {
+        int reportClass = scanClass(line);
+        switch (reportClass) {
+            case CLASS_TPV:
+                parseTpv(line);
+                mCallback.onTpv(mFix);
+                return CONSUMED;
+            case CLASS_SKY:
+            case CLASS_SUBFRAME:
+            case CLASS_ATT:
+                mCallback.onDiscarded(reportClass);
+                return CONSUMED;
+            default:
+                return super.parse(line);
+        }
+    }
+
+    /**
+     * @return one of the CLASS_ constants for the report's class field
+     */
+    public static int scanClass(String line) {
+        // gpsd writes "class" first; fall back to a search for hand-written input
+        int i;
+        if (line.startsWith(CLASS_PREFIX)) {
+            i = CLASS_PREFIX.length();
+        } else {
+            i = line.indexOf(CLASS_KEY);
+            if (i < 0) {
+                return CLASS_OTHER;
+            }
+            i += CLASS_KEY.length();
+        }
+        if (line.startsWith("TPV\"", i)) return CLASS_TPV;
+        if (line.startsWith("SKY\"", i)) return CLASS_SKY;
+        if (line.startsWith("SUBFRAME\"", i)) return CLASS_SUBFRAME;
+        if (line.startsWith("ATT\"", i)) return CLASS_ATT;
+        return CLASS_OTHER;
+    }
+
+    private void parseTpv(String line) throws ParseException {
+        double lat = Double.NaN, lon = Double.NaN, alt = Double.NaN;
+        double epx = Double.NaN, epy = Double.NaN, speed = Double.NaN, track = Double.NaN;
+        long time = 0;
+        int mode = 0;
+
+        mLine = line;
+        mPos = line.indexOf('{') + 1;
+        if (mPos == 0) {
+            throw new ParseException(line, 0);
+        }
+        while (nextKey()) {
+            if (keyIs("lat")) {
+                lat = readNumber();
+            } else if (keyIs("lon")) {
+                lon = readNumber();
+            } else if (keyIs("alt") || (alt != alt && keyIs("altHAE"))) {
+                alt = readNumber();
+            } else if (keyIs("epx")) {
+                epx = readNumber();
+            } else if (keyIs("epy")) {
+                epy = readNumber();
+            } else if (keyIs("speed")) {
+                speed = readNumber();
+            } else if (keyIs("track")) {
+                track = readNumber();
+            } else if (keyIs("mode")) {
+                mode = (int) readNumber();
+            } else if (keyIs("time")) {
+                time = readTime();
+            } else {
+                skipValue();
+            }
+        }
+        mLine = null;
+
+        GpsFix fix = mFix;
+        fix.setValid(mode >= 2);
+        fix.setLatitude(lat);
+        fix.setLongitude(lon);
+        fix.setAltitude(alt);
+        fix.setAccuracy((float) (epx + epy) / 2);
+        fix.setSpeed((float) speed);
+        fix.setBearing((float) track);
+        fix.setTime(time);
+        fix.setElapsedRealtimeNanos(FakeGpsUtils.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Advance to the next top-level key and stop on its value.
+     *
+     * @return false at the end of the object
+     */
+    private boolean nextKey() throws ParseException {
+        String line = mLine;
+        int pos = mPos;
+        int length = line.length();
+        while (pos < length) {
+            char c = line.charAt(pos);
+            if (c == '"') {
+                mKeyStart = pos + 1;
+                int end = line.indexOf('"', mKeyStart);
+                if (end < 0) break;
+                mKeyEnd = end;
+                pos = line.indexOf(':', end) + 1;
+                if (pos == 0) break;
+                while (pos < length && line.charAt(pos) == ' ') pos++;
+                mPos = pos;
+                return true;
+            } else if (c == '}') {
+                mPos = pos + 1;
+                return false;
+            }
+            pos++;
+        }
+        throw new ParseException(line, pos);
+    }
+
+    private boolean keyIs(String key) {
+        return mKeyEnd - mKeyStart == key.length() && mLine.startsWith(key, mKeyStart);
+    }
+
+    /**
+     * Parse a JSON number in place; no substring, no Double.parseDouble.
+     */
+    private double readNumber() throws ParseException {
+        String line = mLine;
+        int pos = mPos;
+        int length = line.length();
+        boolean negative = false;
+        if (pos < length && line.charAt(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        int start = pos;
+        for (; pos < length; pos++) {
+            char c = line.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (fraction) scale--;
+                } else if (!fraction) {
+                    scale++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (pos == start) {
+            throw new ParseException(line, pos);
+        }
+        if (pos < length && (line.charAt(pos) == 'e' || line.charAt(pos) == 'E')) {
+            pos++;
+            boolean expNegative = false;
+            if (pos < length && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+                expNegative = line.charAt(pos) == '-';
+                pos++;
+            }
+            int exp = 0;
+            for (; pos < length; pos++) {
+                char c = line.charAt(pos);
+                if (c < '0' || c > '9') break;
+                exp = exp * 10 + (c - '0');
+            }
+            scale += expNegative ? -exp : exp;
+        }
+        mPos = pos;
+        double value = mantissa;
+        if (scale < 0) {
+            value /= pow10(-scale);
+        } else if (scale > 0) {
+            value *= pow10(scale);
+        }
+        return negative ? -value : value;
+    }
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static double pow10(int exp) {
+        return exp < POW10.length ? POW10[exp] : Math.pow(10, exp);
+    }
+
+    /**
+     * Parse an ISO 8601 UTC time string ("2019-05-11T12:34:56.789Z") into epoch milliseconds.
+     */
+    private long readTime() throws ParseException {
+        String line = mLine;
+        int pos = mPos;
+        if (pos >= line.length() || line.charAt(pos) != '"') {
+            // gpsd before 3.x sent seconds since the epoch as a number
+            return (long) (readNumber() * 1000);
+        }
+        pos++;
+        if (pos + 19 > line.length()) {
+            throw new ParseException(line, pos);
+        }
+        int year = digits(line, pos, 4);
+        int month = digits(line, pos + 5, 2);
+        int day = digits(line, pos + 8, 2);
+        int hour = digits(line, pos + 11, 2);
+        int minute = digits(line, pos + 14, 2);
+        int second = digits(line, pos + 17, 2);
+        pos += 19;
+        int millis = 0;
+        if (pos < line.length() && line.charAt(pos) == '.') {
+            pos++;
+            int div = 100;
+            for (; pos < line.length(); pos++) {
+                char c = line.charAt(pos);
+                if (c < '0' || c > '9') break;
+                millis += (c - '0') * div;
+                div /= 10;
+            }
+        }
+        int end = line.indexOf('"', pos);
+        if (end < 0) {
+            throw new ParseException(line, pos);
+        }
+        mPos = end + 1;
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    private static int digits(String s, int pos, int count) throws ParseException {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new ParseException(s, i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 for a proleptic Gregorian date.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Skip a string, number, literal, object or array value.
+     */
+    private void skipValue() throws ParseException {
+        String line = mLine;
+        int pos = mPos;
+        int length = line.length();
+        int depth = 0;
+        boolean inString = false;
+        for (; pos < length; pos++) {
+            char c = line.charAt(pos);
+            if (inString) {
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0) {
+                        pos++;
+                        break;
+                    }
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+                if (depth == 0) {
+                    pos++;
+                    break;
+                }
+            } else if (c == ',' && depth == 0) {
+                break;
+            }
+        }
+        if (pos > length) {
+            throw new ParseException(line, length);
+        }
+        mPos = pos;
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.fakegps;
+
+import java.util.Random;
+
+/**
+ * Passive liveness tracking for a gpsd stream.
+ * Every object gpsd sends (TPV, SKY, DEVICE, ...) is stamped with {@link #onObject(long)};
+ * {@link #shouldReconnect(long)} is polled periodically and answers whether the stream has been
+ * silent long enough to reconnect, backing off exponentially while reconnects keep failing.
+ * With a {@link Random} the backoff is jittered to between half and all of its nominal value,
+ * so several phones losing the same access point do not hammer gpsd in lockstep.
+ * <p>
+ * Times are in milliseconds from a monotonic clock supplied by the caller.
+ */
+public class GpsdLivenessMonitor {
+
+    public static final long SILENCE_TIMEOUT_DEFAULT = 5000;
+    public static final long BACKOFF_INITIAL_DEFAULT = 1000;
+    public static final long BACKOFF_MAX_DEFAULT = 60000;
+
+    private final long mSilenceTimeout;
+    private final long mBackoffInitial;
+    private final long mBackoffMax;
+    private final Random mRandom;
+
+    // written by the gpsd reader thread
+    private volatile long mLastObjectTime;
+    // only touched by the thread polling shouldReconnect
+    private long mLastConnectTime;
+    private int mAttempts;
+    private long mNextBackoff;
+
+    public GpsdLivenessMonitor() {
+        this(SILENCE_TIMEOUT_DEFAULT, BACKOFF_INITIAL_DEFAULT, BACKOFF_MAX_DEFAULT, new Random());
+    }
+
+    public GpsdLivenessMonitor(long silenceTimeout, long backoffInitial, long backoffMax) {
+        this(silenceTimeout, backoffInitial, backoffMax, null);
+    }
+
+    /**
+     * @param random source of backoff jitter, or null for the exact exponential backoff
+     */
+    public GpsdLivenessMonitor(long silenceTimeout, long backoffInitial, long backoffMax, Random random) {
+        mSilenceTimeout = silenceTimeout;
+        mBackoffInitial = backoffInitial;
+        mBackoffMax = backoffMax;
+        mRandom = random;
+    }
+
+    /**
+     * Call when a connection attempt is started, including the first one.
+     */
+    public void onConnect(long now) {
+        mLastConnectTime = now;
+    }
+
+    /**
+     * Call for every object received from gpsd. Cheap enough for the reader thread.
+     */
+    public void onObject(long now) {
+        mLastObjectTime = now;
+    }
+
+    public long getLastObjectTime() {
+        return mLastObjectTime;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return true if a reconnect should be started now; the attempt is then counted
+     */
+    public boolean shouldReconnect(long now) {
+        long lastObjectTime = mLastObjectTime;
+        if (lastObjectTime > mLastConnectTime) {
+            // data arrived since the last connect, so it worked
+            mAttempts = 0;
+            mNextBackoff = 0;
+        }
+        if (now - Math.max(lastObjectTime, mLastConnectTime) < mSilenceTimeout) {
+            return false;
+        }
+        if (now - mLastConnectTime < mNextBackoff) {
+            return false;
+        }
+        mAttempts++;
+        mLastConnectTime = now;
+        mNextBackoff = jitter(getBackoff(mAttempts));
+        return true;
+    }
+
+    private long jitter(long backoff) {
+        if (mRandom == null || backoff < 2) {
+            return backoff;
+        }
+        long half = backoff / 2;
+        return half + (long) (mRandom.nextDouble() * (backoff - half));
+    }
+
+    /**
+     * @return nominal minimum time between the previous and the next attempt after {@code attempts} failures
+     */
+    public long getBackoff(int attempts) {
+        if (attempts <= 0) {
+            return 0;
+        }
+        if (attempts > 30) {
+            return mBackoffMax;
+        }
+        return Math.min(mBackoffMax, mBackoffInitial << (attempts - 1));
+    }
+}
@@ -0,0 +1,293 @@
+package com.github.fakegps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import tiger.radio.loggerlibrary.IOUtils;
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Loopback stand-in for gpsd, for testing without a receiver.
+ * <p>
+ * Speaks enough of the gpsd JSON protocol for gpsd4java: VERSION on connect, replies to
+ * ?VERSION, ?WATCH and ?POLL, and once watching streams TPV (plus a SKY every
+ * {@link #setSkyInterval(int)} fixes) at {@link #setRate(double)} reports per second.
+ * Reports are either synthetic - a circle around a start point - or recorded gpsd lines.
+ * <p>
+ * Synthetic TPV number n carries the time {@link #getStartTime()} + n / rate seconds, as a
+ * receiver reporting at that rate would.
+ */
+public class GpsdSimulator {
+
+    private static final String TAG = "GpsdSimulator";
+
+    public static final double RATE_DEFAULT = 1;
+
+    private static final String VERSION =
+            "{\"class\":\"VERSION\",\"release\":\"3.17\",\"rev\":\"fakegps\",\"proto_major\":3,\"proto_minor\":12}";
+    private static final String DEVICES =
+            "{\"class\":\"DEVICES\",\"devices\":[{\"class\":\"DEVICE\",\"path\":\"/dev/sim0\",\"driver\":\"fakegps\",\"activated\":\"2019-05-11T10:00:00.000Z\",\"native\":0}]}";
+    private static final String WATCH =
+            "{\"class\":\"WATCH\",\"enable\":true,\"json\":true,\"nmea\":false,\"raw\":0,\"scaled\":false,\"timing\":false,\"split24\":false,\"pps\":false}";
+    private static final String SKY =
+            "{\"class\":\"SKY\",\"device\":\"/dev/sim0\",\"xdop\":0.72,\"ydop\":0.94,\"hdop\":1.10,\"pdop\":1.70,\"satellites\":["
+                    + "{\"PRN\":2,\"el\":31,\"az\":158,\"ss\":38,\"used\":true},"
+                    + "{\"PRN\":5,\"el\":64,\"az\":271,\"ss\":44,\"used\":true},"
+                    + "{\"PRN\":12,\"el\":12,\"az\":40,\"ss\":21,\"used\":false}]}";
+
+    private volatile double mRate = RATE_DEFAULT;
+    private volatile int mSkyInterval = 10;
+    private double mLatitude = 48.137154;
+    private double mLongitude = 11.576124;
+    private List<String> mRecordedLines;
+
+    private final long mStartTime = System.currentTimeMillis();
+    private volatile long mSentCount;
+
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+    private final List<Socket> mClients = new ArrayList<>();
+    private volatile boolean mStopped;
+
+    /**
+     * @param rate reports per second; fractional and very high (thousands) rates are fine
+     */
+    public void setRate(double rate) {
+        mRate = rate;
+    }
+
+    public void setSkyInterval(int skyInterval) {
+        mSkyInterval = skyInterval;
+    }
+
+    public void setStartPoint(double latitude, double longitude) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * Stream these gpsd lines (in a loop) instead of synthetic reports.
+     */
+    public void setRecordedLines(List<String> lines) {
+        mRecordedLines = lines;
+    }
+
+    /**
+     * @return epoch milliseconds of synthetic TPV number 0
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * Listen on the loopback interface.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return the port actually bound
+     */
+    public int start(int port) throws IOException {
+        mServerSocket = new ServerSocket(port, 4, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("GpsdSimulator") {
+            @Override
+            public void run() {
+                while (!mStopped) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        synchronized (mClients) {
+                            mClients.add(socket);
+                        }
+                        new Thread("GpsdSimulator-client") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        if (!mStopped) {
+                            Logger.e(TAG, "accept fail!", e);
+                        }
+                    }
+                }
+            }
+        };
+        mAcceptThread.start();
+        return mServerSocket.getLocalPort();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public void stop() {
+        mStopped = true;
+        IOUtils.closeQuietly(mServerSocket);
+        // closing a client ends its serve(), which interrupts its streamer
+        synchronized (mClients) {
+            for (Socket socket : mClients) {
+                IOUtils.closeQuietly(socket);
+            }
+            mClients.clear();
+        }
+    }
+
+    private void serve(Socket socket) {
+        Thread streamer = null;
+        try {
+            socket.setTcpNoDelay(true);
+            final Writer writer = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            final Object lock = new Object();
+            final boolean[] watching = new boolean[1];
+            writeLine(writer, lock, VERSION);
+
+            streamer = new Thread("GpsdSimulator-stream") {
+                @Override
+                public void run() {
+                    stream(writer, lock, watching);
+                }
+            };
+            streamer.start();
+
+            String command;
+            while ((command = reader.readLine()) != null) {
+                for (String part : command.split(";")) {
+                    part = part.trim();
+                    if (part.startsWith("?VERSION")) {
+                        writeLine(writer, lock, VERSION);
+                    } else if (part.startsWith("?WATCH")) {
+                        boolean enable = !part.contains("\"enable\":false");
+                        writeLine(writer, lock, DEVICES);
+                        writeLine(writer, lock, enable ? WATCH : WATCH.replace("\"enable\":true", "\"enable\":false"));
+                        synchronized (lock) {
+                            watching[0] = enable;
+                            lock.notifyAll();
+                        }
+                    } else if (part.startsWith("?POLL")) {
+                        String tpv = buildSyntheticTpv(new StringBuilder(), mSentCount).toString();
+                        writeLine(writer, lock, "{\"class\":\"POLL\",\"time\":\"" + formatTime(System.currentTimeMillis())
+                                + "\",\"active\":1,\"tpv\":[" + tpv + "],\"fixes\":[" + tpv + "],\"sky\":[],\"skyviews\":[]}");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!mStopped) {
+                Logger.w(TAG, "client gone: " + e);
+            }
+        } finally {
+            // the streamer may be waiting for a WATCH that will never come
+            if (streamer != null) {
+                streamer.interrupt();
+            }
+            IOUtils.closeQuietly(socket);
+            synchronized (mClients) {
+                mClients.remove(socket);
+            }
+        }
+    }
+
+    private static void writeLine(Writer writer, Object lock, String line) throws IOException {
+        synchronized (lock) {
+            writer.write(line);
+            writer.write("\r\n");
+            writer.flush();
+        }
+    }
+
+    /**
+     * Paces reports by writing however many are due every millisecond, so rates far above
+     * the sleep resolution still come out right.
+     */
+    private void stream(Writer writer, Object lock, boolean[] watching) {
+        StringBuilder sb = new StringBuilder(256);
+        long recordedIndex = 0;
+        long sent = 0;
+        long start = 0;
+        boolean streaming = false;
+        try {
+            while (!mStopped) {
+                synchronized (lock) {
+                    if (!watching[0]) {
+                        streaming = false;
+                        while (!watching[0] && !mStopped) {
+                            lock.wait();
+                        }
+                    }
+                    if (!streaming) {
+                        // pace from when the watch began, however early ?WATCH came
+                        start = System.nanoTime();
+                        sent = 0;
+                        streaming = true;
+                    }
+                }
+                long due = (long) ((System.nanoTime() - start) / 1e9 * mRate) + 1;
+                if (sent >= due) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                synchronized (lock) {
+                    for (; sent < due; sent++) {
+                        List<String> recorded = mRecordedLines;
+                        if (recorded != null) {
+                            writer.write(recorded.get((int) (recordedIndex++ % recorded.size())));
+                            writer.write("\r\n");
+                            continue;
+                        }
+                        long seq = mSentCount;
+                        sb.setLength(0);
+                        buildSyntheticTpv(sb, seq).append("\r\n");
+                        if (mSkyInterval > 0 && seq % mSkyInterval == 0) {
+                            sb.append(SKY).append("\r\n");
+                        }
+                        writer.append(sb);
+                        mSentCount = seq + 1;
+                    }
+                    writer.flush();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // client gone or stopped
+        }
+    }
+
+    private StringBuilder buildSyntheticTpv(StringBuilder sb, long seq) {
+        // ~50 m circle, one lap every 3600 reports
+        double angle = seq * 2 * Math.PI / 3600;
+        double lat = mLatitude + 0.00045 * Math.sin(angle);
+        double lon = mLongitude + 0.00067 * Math.cos(angle);
+        sb.append("{\"class\":\"TPV\",\"device\":\"/dev/sim0\",\"mode\":3,\"time\":\"")
+                .append(formatTime(mStartTime + (long) (seq * 1000 / mRate)))
+                .append("\",\"ept\":0.005,\"lat\":").append(lat)
+                .append(",\"lon\":").append(lon)
+                .append(",\"alt\":519.300,\"epx\":3.214,\"epy\":4.118,\"epv\":9.200,\"track\":")
+                .append(Math.toDegrees(angle + Math.PI / 2) % 360)
+                .append(",\"speed\":1.337,\"climb\":0.000}");
+        return sb;
+    }
+
+    private final Calendar mCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    private String formatTime(long millis) {
+        synchronized (mCalendar) {
+            mCalendar.setTimeInMillis(millis);
+            return String.format("%04d-%02d-%02dT%02d:%02d:%02d.%03dZ",
+                    mCalendar.get(Calendar.YEAR), mCalendar.get(Calendar.MONTH) + 1,
+                    mCalendar.get(Calendar.DAY_OF_MONTH), mCalendar.get(Calendar.HOUR_OF_DAY),
+                    mCalendar.get(Calendar.MINUTE), mCalendar.get(Calendar.SECOND),
+                    mCalendar.get(Calendar.MILLISECOND));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+/**
+ * One flight from a start point to a target along the great circle, as a pure function of time.
+ * <p>
+ * The speed profile is trapezoidal: accelerate at {@code acceleration} up to {@code speed},
+ * cruise, and brake to a stop on the target (triangular when the route is too short to reach
+ * cruise speed). Acceleration 0 means cruising from start to end. Since the position only
+ * depends on the elapsed time, how often it is sampled does not change the trajectory.
+ * <p>
+ * Instances are immutable, so any thread may sample one without locking; to change course,
+ * build a new one starting where the old one is now.
+ */
+public final class GreatCircleMotion {
+
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    private final double mFromLatitude;
+    private final double mFromLongitude;
+    private final double mToLatitude;
+    private final double mToLongitude;
+    private final long mStartNanos;
+
+    // unit vectors of start and target, and the angle between them
+    private final double mAx, mAy, mAz;
+    private final double mBx, mBy, mBz;
+    private final double mAngle;
+    private final double mSinAngle;
+
+    private final double mDistance;
+    private final double mSpeed;
+    private final double mAcceleration;
+    private final double mRampTime;
+    private final double mRampDistance;
+    private final double mDuration;
+    // course on arrival, when there is no "towards the target" any more
+    private final double mFinalBearing;
+
+    /**
+     * @param speed        cruise speed in m/s, must be positive
+     * @param acceleration in m/s^2, 0 to cruise from start to end
+     * @param startNanos   elapsedRealtimeNanos at departure
+     */
+    public GreatCircleMotion(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude,
+                             double speed, double acceleration, long startNanos) {
+        if (!(speed > 0) || acceleration < 0) {
+            throw new IllegalArgumentException("speed " + speed + ", acceleration " + acceleration);
+        }
+        mFromLatitude = fromLatitude;
+        mFromLongitude = fromLongitude;
+        mToLatitude = toLatitude;
+        mToLongitude = toLongitude;
+        mStartNanos = startNanos;
+
+        double lat = Math.toRadians(fromLatitude), lon = Math.toRadians(fromLongitude);
+        mAx = Math.cos(lat) * Math.cos(lon);
+        mAy = Math.cos(lat) * Math.sin(lon);
+        mAz = Math.sin(lat);
+        lat = Math.toRadians(toLatitude);
+        lon = Math.toRadians(toLongitude);
+        mBx = Math.cos(lat) * Math.cos(lon);
+        mBy = Math.cos(lat) * Math.sin(lon);
+        mBz = Math.sin(lat);
+        // atan2 of |a x b| and a.b stays accurate for tiny and near-antipodal angles
+        double cx = mAy * mBz - mAz * mBy;
+        double cy = mAz * mBx - mAx * mBz;
+        double cz = mAx * mBy - mAy * mBx;
+        mAngle = Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), mAx * mBx + mAy * mBy + mAz * mBz);
+        mSinAngle = Math.sin(mAngle);
+        mDistance = mAngle * EARTH_RADIUS;
+        mFinalBearing = (initialBearing(toLatitude, toLongitude, fromLatitude, fromLongitude) + 180) % 360;
+
+        if (acceleration == 0) {
+            mSpeed = speed;
+            mAcceleration = 0;
+            mRampTime = 0;
+            mRampDistance = 0;
+            mDuration = mDistance / speed;
+        } else {
+            // cap the peak speed if there is no room to reach cruise speed
+            double peak = Math.min(speed, Math.sqrt(acceleration * mDistance));
+            mSpeed = peak;
+            mAcceleration = acceleration;
+            mRampTime = peak / acceleration;
+            mRampDistance = peak * mRampTime / 2;
+            mDuration = peak == 0 ? 0 : 2 * mRampTime + (mDistance - 2 * mRampDistance) / peak;
+        }
+    }
+
+    public double getDistance() {
+        return mDistance;
+    }
+
+    public long getDurationNanos() {
+        return (long) (mDuration * 1e9);
+    }
+
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    public double getToLatitude() {
+        return mToLatitude;
+    }
+
+    public double getToLongitude() {
+        return mToLongitude;
+    }
+
+    public boolean isFinished(long nowNanos) {
+        return (nowNanos - mStartNanos) / 1e9 >= mDuration;
+    }
+
+    /**
+     * @return metres travelled at {@code nowNanos}
+     */
+    public double distanceAt(long nowNanos) {
+        double t = (nowNanos - mStartNanos) / 1e9;
+        if (t <= 0) return 0;
+        if (t >= mDuration) return mDistance;
+        if (mAcceleration == 0) return mSpeed * t;
+        if (t < mRampTime) return mAcceleration * t * t / 2;
+        double braking = t - (mDuration - mRampTime);
+        if (braking <= 0) return mRampDistance + mSpeed * (t - mRampTime);
+        return mDistance - mAcceleration * (mRampTime - braking) * (mRampTime - braking) / 2;
+    }
+
+    /**
+     * @return speed in m/s at {@code nowNanos}
+     */
+    public double speedAt(long nowNanos) {
+        double t = (nowNanos - mStartNanos) / 1e9;
+        if (t <= 0 || t >= mDuration) return 0;
+        if (mAcceleration == 0) return mSpeed;
+        return Math.min(mSpeed, mAcceleration * Math.min(t, mDuration - t));
+    }
+
+    /**
+     * Fill position, speed and bearing at {@code nowNanos}; other fields are left alone.
+     */
+    public void sample(long nowNanos, GpsFix out) {
+        double d = distanceAt(nowNanos);
+        double x, y, z;
+        if (d >= mDistance) {
+            out.setLatitude(mToLatitude);
+            out.setLongitude(mToLongitude);
+            x = mBx;
+            y = mBy;
+            z = mBz;
+        } else if (d <= 0 || mSinAngle < 1e-15) {
+            out.setLatitude(mFromLatitude);
+            out.setLongitude(mFromLongitude);
+            x = mAx;
+            y = mAy;
+            z = mAz;
+        } else {
+            // spherical linear interpolation between the two unit vectors
+            double f = d / mDistance;
+            double wa = Math.sin((1 - f) * mAngle) / mSinAngle;
+            double wb = Math.sin(f * mAngle) / mSinAngle;
+            x = wa * mAx + wb * mBx;
+            y = wa * mAy + wb * mBy;
+            z = wa * mAz + wb * mBz;
+            out.setLatitude(Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y))));
+            out.setLongitude(Math.toDegrees(Math.atan2(y, x)));
+        }
+        out.setSpeed((float) speedAt(nowNanos));
+        out.setBearing((float) bearing(x, y, z, mBx, mBy, mBz, mFinalBearing));
+    }
+
+    /**
+     * @return great-circle distance in metres
+     */
+    public static double distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double lat1 = Math.toRadians(fromLatitude), lat2 = Math.toRadians(toLatitude);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(toLongitude - fromLongitude) / 2);
+        double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * @return initial course in degrees [0, 360) from the first point towards the second
+     */
+    public static double initialBearing(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double lat1 = Math.toRadians(fromLatitude), lat2 = Math.toRadians(toLatitude);
+        double dLon = Math.toRadians(toLongitude - fromLongitude);
+        double y = Math.sin(dLon) * Math.cos(lat2);
+        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLon);
+        double bearing = Math.toDegrees(Math.atan2(y, x));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * Course from unit vector p towards unit vector b, or {@code fallback} once they coincide.
+     */
+    private static double bearing(double px, double py, double pz, double bx, double by, double bz, double fallback) {
+        // north and east unit vectors at p
+        double horizontal = Math.sqrt(px * px + py * py);
+        if (horizontal < 1e-12) return fallback;
+        double ex = -py / horizontal, ey = px / horizontal;
+        double nx = -pz * px / horizontal, ny = -pz * py / horizontal, nz = horizontal;
+        double east = bx * ex + by * ey;
+        double north = bx * nx + by * ny + bz * nz;
+        if (east * east + north * north < 1e-24) return fallback;
+        double bearing = Math.toDegrees(Math.atan2(east, north));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+}
@@ -1,19 +1,23 @@
 package com.github.fakegps;
 
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
-import android.support.v7.app.NotificationCompat;
 import android.widget.Toast;
 
+import com.github.fakegps.model.GpsFix;
+import com.github.fakegps.model.LocBookmark;
 import com.github.fakegps.model.LocPoint;
 import com.github.fakegps.ui.BookmarkActivity;
 import com.github.fakegps.ui.JoyStickView;
 import com.github.fakegps.ui.MainActivity;
-import com.tencent.fakegps.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import tiger.radio.loggerlibrary.Logger;
 
@@ -26,20 +30,26 @@ public class JoyStickManager implements IJoyStickPresenter {
     private static final String TAG = "JoyStickManager";
 
     public static double STEP_DEFAULT = 0.00002;
+    public static final double FLY_ACCELERATION_DEFAULT = 2.0;
+
+    // a GPX, KML or NMEA file played as a route on start; empty plays none
+    public static final String PREFS_KEY_PLAY_ROUTE = "play_route";
+    public static final String PREFS_KEY_ROUTE_LOOP = "route_loop";
+    // m/s for routes without timestamps
+    public static final String PREFS_KEY_ROUTE_SPEED = "route_speed";
 
     private static JoyStickManager INSTANCE = new JoyStickManager();
 
     private Context mContext;
+    private NotificationPublisher mNotificationPublisher;
     private LocationThread mLocationThread;
     private boolean mIsStarted = false;
     private double mMoveStep = STEP_DEFAULT;
 
     private LocPoint mCurrentLocPoint;
 
-    private LocPoint mTargetLocPoint;
-    private int mFlyTime;
-    private int mFlyTimeIndex;
-    private boolean mIsFlyMode = false;
+    // immutable, replaced as a whole; null when not flying
+    private volatile GreatCircleMotion mFlight;
 
     private JoyStickView mJoyStickView;
 
@@ -49,6 +59,14 @@ public class JoyStickManager implements IJoyStickPresenter {
 
     public void init(Context context) {
         mContext = context;
+        mNotificationPublisher = new NotificationPublisher(context);
+    }
+
+    /**
+     * For tests: no context, notifications go to {@code publisher}.
+     */
+    void init(NotificationPublisher publisher) {
+        mNotificationPublisher = publisher;
     }
 
     public static JoyStickManager get() {
@@ -59,7 +77,9 @@ public class JoyStickManager implements IJoyStickPresenter {
         if (mLocationThread == null || !mLocationThread.isAlive()) {
             mLocationThread = new LocationThread(mContext.getApplicationContext(), this);
             mLocationThread.startThread();
+            playRouteFromPreferences();
         }
+        mNotificationPublisher.start();
         showJoyStick(null, null);
         mIsStarted = true;
     }
@@ -78,68 +98,185 @@ public class JoyStickManager implements IJoyStickPresenter {
         return mIsStarted;
     }
 
-    public void showJoyStick(String contentText, String subText) {
-        Intent intent = new Intent(mContext, MainActivity.class);
-        PendingIntent pendingIntent = PendingIntent.getActivity(mContext, 01, intent, Intent.FLAG_ACTIVITY_CLEAR_TASK);
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext.getApplicationContext());
-        builder.setContentTitle(mContext.getText(R.string.app_name));
-        builder.setContentText(contentText);
-        builder.setSubText(subText);
-        builder.setNumber(101);
-        builder.setContentIntent(pendingIntent);
-        //builder.setTicker(contentText);
-        builder.setSmallIcon(R.drawable.icon_app);
-        //builder.setLargeIcon(bm);
-        builder.setOngoing(true);
-        builder.setPriority(Notification.PRIORITY_DEFAULT);
-        Notification notification = builder.build();
-        NotificationManager notificationManger =
-                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManger.notify(01, notification);
+    public void showJoyStick(CharSequence contentText, CharSequence subText) {
+        mNotificationPublisher.update(contentText, subText);
     }
 
     public void hideJoyStick() {
-        NotificationManager notificationManger =
-                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManger.cancel(01);
+        mNotificationPublisher.cancel();
+    }
+
+    public NotificationPublisher getNotificationPublisher() {
+        return mNotificationPublisher;
     }
 
     public LocPoint getCurrentLocPoint() {
         return mCurrentLocPoint;
     }
 
+    /**
+     * @return where we are now, on the flight path while flying
+     */
     public LocPoint getUpdateLocPoint() {
-        if (!mIsFlyMode || mFlyTimeIndex > mFlyTime) {
+        GreatCircleMotion flight = mFlight;
+        if (flight == null) {
             return mCurrentLocPoint;
-        } else {
-            float factor = (float) mFlyTimeIndex / (float) mFlyTime;
-            double lat = mCurrentLocPoint.getLatitude() + (factor * (mTargetLocPoint.getLatitude() - mCurrentLocPoint.getLatitude()));
-            double lon = mCurrentLocPoint.getLongitude() + (factor * (mTargetLocPoint.getLatitude() - mCurrentLocPoint.getLatitude()));
-            mCurrentLocPoint.setLatitude(lat);
-            mCurrentLocPoint.setLongitude(lon);
-            mFlyTimeIndex++;
+        }
+        long now = FakeGpsUtils.elapsedRealtimeNanos();
+        if (flight.isFinished(now)) {
+            mCurrentLocPoint = new LocPoint(flight.getToLatitude(), flight.getToLongitude());
+            mFlight = null;
             return mCurrentLocPoint;
         }
+        // callers get their own point; hot paths use sampleFlight with a reused fix
+        GpsFix sample = new GpsFix();
+        flight.sample(now, sample);
+        return new LocPoint(sample.getLatitude(), sample.getLongitude());
+    }
+
+    /**
+     * Lock-free sample of the current flight, usable from any thread.
+     *
+     * @return false if not flying, {@code out} is untouched then
+     */
+    public boolean sampleFlight(long nowNanos, GpsFix out) {
+        GreatCircleMotion flight = mFlight;
+        if (flight == null) return false;
+        flight.sample(nowNanos, out);
+        return true;
     }
 
     public void jumpToLocation(@NonNull LocPoint location) {
-        mIsFlyMode = false;
+        mFlight = null;
         mCurrentLocPoint = location;
     }
 
+    /**
+     * Fly at constant speed so that the target is reached after {@code flyTime} seconds.
+     */
     public void flyToLocation(@NonNull LocPoint location, int flyTime) {
-        mTargetLocPoint = location;
-        mFlyTime = flyTime;
-        mFlyTimeIndex = 0;
-        mIsFlyMode = true;
+        LocPoint from = getUpdateLocPoint();
+        if (from == null) {
+            jumpToLocation(location);
+            return;
+        }
+        double distance = GreatCircleMotion.distance(from.getLatitude(), from.getLongitude(),
+                location.getLatitude(), location.getLongitude());
+        flyToLocation(location, Math.max(distance, 1) / Math.max(flyTime, 1), 0);
+    }
+
+    /**
+     * Fly along the great circle from where we are now, even in the middle of another flight.
+     *
+     * @param speed        cruise speed in m/s
+     * @param acceleration m/s^2, e.g. {@link #FLY_ACCELERATION_DEFAULT}; 0 for constant speed
+     */
+    public void flyToLocation(@NonNull LocPoint location, double speed, double acceleration) {
+        LocPoint from = getUpdateLocPoint();
+        if (from == null) {
+            jumpToLocation(location);
+            return;
+        }
+        mCurrentLocPoint = from;
+        mFlight = new GreatCircleMotion(from.getLatitude(), from.getLongitude(),
+                location.getLatitude(), location.getLongitude(),
+                speed, acceleration, FakeGpsUtils.elapsedRealtimeNanos());
     }
 
     public boolean isFlyMode() {
-        return mIsFlyMode;
+        return mFlight != null;
     }
 
+    /**
+     * Stop where we are now.
+     */
     public void stopFlyMode() {
-        mIsFlyMode = false;
+        if (mFlight != null) {
+            mCurrentLocPoint = getUpdateLocPoint();
+            mFlight = null;
+        }
+    }
+
+    /**
+     * Start publishing the route instead of the gpsd fixes.
+     *
+     * @return the player, for pause/resume/seek; null if the service is not started
+     */
+    public RoutePlayer playRoute(@NonNull Route route, boolean loop) {
+        if (mLocationThread == null) return null;
+        RoutePlayer player = new RoutePlayer(route, loop);
+        player.resume(FakeGpsUtils.elapsedRealtimeNanos());
+        mLocationThread.playRoute(player);
+        return player;
+    }
+
+    public void stopRoute() {
+        if (mLocationThread != null) {
+            mLocationThread.stopRoute();
+        }
+    }
+
+    /**
+     * There is no route picker in the UI yet; the {@link #PREFS_KEY_PLAY_ROUTE} preference is
+     * how a route gets played. The file is imported off the main thread.
+     */
+    private void playRouteFromPreferences() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final String path = sharedPref.getString(PREFS_KEY_PLAY_ROUTE, "");
+        if (path.length() == 0) return;
+        final boolean loop = sharedPref.getBoolean(PREFS_KEY_ROUTE_LOOP, false);
+        final String speed = sharedPref.getString(PREFS_KEY_ROUTE_SPEED, String.valueOf(Route.SPEED_DEFAULT));
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        new Thread("RouteImport") {
+            @Override
+            public void run() {
+                final Route route;
+                try {
+                    GeoImporter.RouteCollector collector = new GeoImporter.RouteCollector();
+                    new GeoImporter(collector).importFile(new File(path));
+                    route = collector.toRoute(Double.parseDouble(speed));
+                } catch (IOException | NumberFormatException e) {
+                    Logger.e(TAG, "import route " + path + " fail!", e);
+                    return;
+                }
+                if (route == null) {
+                    Logger.w(TAG, "no points in " + path);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (playRoute(route, loop) != null) {
+                            Logger.i(TAG, "playing " + path + (loop ? " in a loop" : ""));
+                        }
+                    }
+                });
+            }
+        }.start();
+    }
+
+    /**
+     * The {@code k} bookmarks nearest to where we are now, nearest first.
+     *
+     * @return false if there is no location yet
+     */
+    public boolean findNearestBookmarks(int k, BookmarkRepository.Callback<ArrayList<LocBookmark>> callback) {
+        LocPoint here = getUpdateLocPoint();
+        if (here == null) return false;
+        BookmarkRepository.get().nearest(new LocPoint(here), k, callback);
+        return true;
+    }
+
+    /**
+     * Bookmarks within {@code metres} of where we are now, nearest first.
+     *
+     * @return false if there is no location yet
+     */
+    public boolean findBookmarksWithin(double metres, BookmarkRepository.Callback<ArrayList<LocBookmark>> callback) {
+        LocPoint here = getUpdateLocPoint();
+        if (here == null) return false;
+        BookmarkRepository.get().within(new LocPoint(here), metres, callback);
+        return true;
     }
 
     public void setMoveStep(double moveStep) {
@@ -0,0 +1,219 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+/**
+ * Constant-velocity Kalman filter for horizontal position, run as an optional stage
+ * between parsing and reportLocation.
+ * <p>
+ * East and north are filtered independently in metres around a local origin, each with a
+ * position/velocity state and its 2x2 covariance held in primitive fields, so a fix costs a
+ * few dozen flops and no allocation. The measurement noise comes from the fix accuracy.
+ * A fix whose innovation is further than {@link #GATE_DEFAULT} (squared Mahalanobis distance)
+ * from the prediction is rejected as an outlier; after {@link #MAX_REJECTS} rejects in a row
+ * the filter restarts from the next fix, so a real jump is followed within a few seconds.
+ * <p>
+ * The output accuracy is the filtered position standard deviation, speed and bearing are
+ * derived from the velocity state. Not thread safe; feed it from one thread at a time.
+ */
+public class KalmanFixFilter {
+
+    /** 99.9% of a chi-square distribution with two degrees of freedom */
+    public static final double GATE_DEFAULT = 13.8;
+    /** process noise, acceleration standard deviation in m/s^2 */
+    public static final double ACCELERATION_DEFAULT = 1.0;
+    public static final int MAX_REJECTS = 3;
+
+    private static final double EARTH_RADIUS = 6371008.8;
+    private static final double MIN_SIGMA = 1.0;
+    // for fixes without epx/epy
+    private static final double UNKNOWN_SIGMA = 10.0;
+    private static final double MAX_GAP_SECONDS = 10;
+    // move the origin before the flat-earth projection gets noticeably wrong
+    private static final double MAX_ORIGIN_DISTANCE = 10000;
+
+    private final double mAccelerationVariance;
+    private final double mGate;
+
+    private boolean mInitialized;
+    private long mLastTime;
+    private double mOriginLatitude;
+    private double mOriginLongitude;
+    private double mMetersPerRadianLongitude;
+
+    // east axis: position, velocity, covariance
+    private double mEast, mEastVelocity, mEastP00, mEastP01, mEastP11;
+    // north axis
+    private double mNorth, mNorthVelocity, mNorthP00, mNorthP01, mNorthP11;
+
+    private int mRejectsInRow;
+    private long mFilteredCount;
+    private long mRejectedCount;
+    private long mResetCount;
+
+    public KalmanFixFilter() {
+        this(ACCELERATION_DEFAULT, GATE_DEFAULT);
+    }
+
+    /**
+     * @param acceleration expected acceleration standard deviation in m/s^2
+     * @param gate         squared Mahalanobis distance above which a fix is an outlier
+     */
+    public KalmanFixFilter(double acceleration, double gate) {
+        mAccelerationVariance = acceleration * acceleration;
+        mGate = gate;
+    }
+
+    public void reset() {
+        mInitialized = false;
+        mRejectsInRow = 0;
+    }
+
+    /**
+     * Filter one fix.
+     *
+     * @param in  the raw fix; invalid fixes are passed through untouched
+     * @param out receives the filtered fix, may be {@code in}
+     * @return false if {@code in} was rejected as an outlier and {@code out} was not written
+     */
+    public boolean filter(GpsFix in, GpsFix out) {
+        if (!in.isValid()) {
+            if (out != in) out.set(in);
+            return true;
+        }
+        float accuracy = in.getAccuracy();
+        double sigma = isFinite(accuracy) ? Math.max(accuracy, MIN_SIGMA) : UNKNOWN_SIGMA;
+        double r = sigma * sigma;
+        double dt = (in.getTime() - mLastTime) / 1000.0;
+
+        if (!mInitialized || dt <= 0 || dt > MAX_GAP_SECONDS || mRejectsInRow >= MAX_REJECTS) {
+            restart(in, r);
+            copyOut(in, out);
+            return true;
+        }
+
+        double east = (Math.toRadians(in.getLongitude() - mOriginLongitude)) * mMetersPerRadianLongitude;
+        double north = (Math.toRadians(in.getLatitude() - mOriginLatitude)) * EARTH_RADIUS;
+
+        // predict
+        double dt2 = dt * dt;
+        double q00 = mAccelerationVariance * dt2 * dt2 / 4;
+        double q01 = mAccelerationVariance * dt2 * dt / 2;
+        double q11 = mAccelerationVariance * dt2;
+
+        double ePos = mEast + mEastVelocity * dt;
+        double eP00 = mEastP00 + dt * (2 * mEastP01 + dt * mEastP11) + q00;
+        double eP01 = mEastP01 + dt * mEastP11 + q01;
+        double eP11 = mEastP11 + q11;
+
+        double nPos = mNorth + mNorthVelocity * dt;
+        double nP00 = mNorthP00 + dt * (2 * mNorthP01 + dt * mNorthP11) + q00;
+        double nP01 = mNorthP01 + dt * mNorthP11 + q01;
+        double nP11 = mNorthP11 + q11;
+
+        // gate
+        double eY = east - ePos;
+        double nY = north - nPos;
+        double eS = eP00 + r;
+        double nS = nP00 + r;
+        if (eY * eY / eS + nY * nY / nS > mGate) {
+            mRejectsInRow++;
+            mRejectedCount++;
+            return false;
+        }
+        mRejectsInRow = 0;
+
+        // update
+        double eK0 = eP00 / eS;
+        double eK1 = eP01 / eS;
+        mEast = ePos + eK0 * eY;
+        mEastVelocity += eK1 * eY;
+        mEastP11 = eP11 - eK1 * eP01;
+        mEastP00 = (1 - eK0) * eP00;
+        mEastP01 = (1 - eK0) * eP01;
+
+        double nK0 = nP00 / nS;
+        double nK1 = nP01 / nS;
+        mNorth = nPos + nK0 * nY;
+        mNorthVelocity += nK1 * nY;
+        mNorthP11 = nP11 - nK1 * nP01;
+        mNorthP00 = (1 - nK0) * nP00;
+        mNorthP01 = (1 - nK0) * nP01;
+
+        mLastTime = in.getTime();
+        mFilteredCount++;
+        copyOut(in, out);
+        if (mEast * mEast + mNorth * mNorth > MAX_ORIGIN_DISTANCE * MAX_ORIGIN_DISTANCE) {
+            moveOrigin(out.getLatitude(), out.getLongitude());
+        }
+        return true;
+    }
+
+    private void restart(GpsFix in, double r) {
+        if (mInitialized) {
+            mResetCount++;
+        }
+        mInitialized = true;
+        mRejectsInRow = 0;
+        mLastTime = in.getTime();
+        moveOrigin(in.getLatitude(), in.getLongitude());
+        mEast = 0;
+        mNorth = 0;
+        // seed the velocity from gpsd's own speed and track, if it reported both
+        float speed = in.getSpeed();
+        float bearing = in.getBearing();
+        if (isFinite(speed) && isFinite(bearing)) {
+            mEastVelocity = speed * Math.sin(Math.toRadians(bearing));
+            mNorthVelocity = speed * Math.cos(Math.toRadians(bearing));
+        } else {
+            mEastVelocity = 0;
+            mNorthVelocity = 0;
+        }
+        mEastP00 = mNorthP00 = r;
+        mEastP01 = mNorthP01 = 0;
+        mEastP11 = mNorthP11 = r;
+        mFilteredCount++;
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    private void moveOrigin(double latitude, double longitude) {
+        mOriginLatitude = latitude;
+        mOriginLongitude = longitude;
+        mMetersPerRadianLongitude = EARTH_RADIUS * Math.cos(Math.toRadians(latitude));
+        mEast = 0;
+        mNorth = 0;
+    }
+
+    private void copyOut(GpsFix in, GpsFix out) {
+        if (out != in) out.set(in);
+        out.setLatitude(mOriginLatitude + Math.toDegrees(mNorth / EARTH_RADIUS));
+        out.setLongitude(mOriginLongitude + Math.toDegrees(mEast / mMetersPerRadianLongitude));
+        out.setAccuracy((float) Math.sqrt((mEastP00 + mNorthP00) / 2));
+        double speed = Math.sqrt(mEastVelocity * mEastVelocity + mNorthVelocity * mNorthVelocity);
+        out.setSpeed((float) speed);
+        if (speed > 0) {
+            double bearing = Math.toDegrees(Math.atan2(mEastVelocity, mNorthVelocity));
+            out.setBearing((float) (bearing < 0 ? bearing + 360 : bearing));
+        }
+    }
+
+    public long getFilteredCount() {
+        return mFilteredCount;
+    }
+
+    public long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    public long getResetCount() {
+        return mResetCount;
+    }
+
+    @Override
+    public String toString() {
+        return "KalmanFixFilter: filtered=" + mFilteredCount + " rejected=" + mRejectedCount + " resets=" + mResetCount;
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.fakegps;
+
+import android.content.Context;
+import android.location.ILocationManager;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.RemoteException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Resolves the hidden platform pieces needed to inject a location once, at app start:
+ * the {@link ILocationManager} behind LocationManager.mService and the way to
+ * complete a {@link Location} before reporting it.
+ * <p>
+ * MethodHandles are not available on the API levels we support, so completion either
+ * does what Location.makeComplete() does inline, or falls back to a cached reflective call.
+ */
+public final class LocationBridge {
+
+    private static final String TAG = "LocationBridge";
+
+    public enum CompletePath {
+        /** API level below 17, the location service does not check for completeness */
+        NONE,
+        /** same checks as Location.makeComplete(), done with public setters */
+        DIRECT,
+        /** Location.makeComplete() through a cached Method */
+        REFLECTIVE
+    }
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static volatile boolean sInitialized;
+    private static ILocationManager sLocationManager;
+    private static Method sMethodMakeComplete;
+    private static CompletePath sCompletePath = CompletePath.NONE;
+    // complete() runs once per fix; a failing makeComplete() is logged the first time only
+    private static volatile boolean sCompleteFailureLogged;
+
+    private LocationBridge() {
+    }
+
+    public static synchronized void init(Context context) {
+        if (sInitialized) return;
+
+        LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        try {
+            Field declaredField = LocationManager.class.getDeclaredField("mService");
+            declaredField.setAccessible(true);
+            sLocationManager = (ILocationManager) declaredField.get(locationManager);
+        } catch (Exception e) {
+            Logger.e(TAG, "get LocationManager mService fail!", e);
+        }
+
+        if (Build.VERSION.SDK_INT <= 16) {
+            sCompletePath = CompletePath.NONE;
+        } else if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.M) {
+            // makeComplete() is known to only fill these fields up to M
+            sCompletePath = CompletePath.DIRECT;
+        } else {
+            try {
+                sMethodMakeComplete = Location.class.getMethod("makeComplete");
+                sCompletePath = CompletePath.REFLECTIVE;
+            } catch (NoSuchMethodException e) {
+                Logger.e(TAG, "get Location.makeComplete method fail!", e);
+                sCompletePath = CompletePath.DIRECT;
+            }
+        }
+
+        sInitialized = true;
+        Logger.i(TAG, "init: completePath=" + sCompletePath + " service=" + (sLocationManager != null));
+    }
+
+    public static CompletePath getCompletePath() {
+        return sCompletePath;
+    }
+
+    public static boolean isAvailable() {
+        return sLocationManager != null;
+    }
+
+    /**
+     * Make sure the location service will accept the location.
+     */
+    public static void complete(Location location) {
+        switch (sCompletePath) {
+            case DIRECT:
+                if (location.getProvider() == null) location.setProvider("?");
+                if (!location.hasAccuracy()) location.setAccuracy(100.0f);
+                if (location.getTime() == 0) location.setTime(System.currentTimeMillis());
+                if (location.getElapsedRealtimeNanos() == 0) {
+                    location.setElapsedRealtimeNanos(FakeGpsUtils.elapsedRealtimeNanos());
+                }
+                break;
+            case REFLECTIVE:
+                try {
+                    sMethodMakeComplete.invoke(location, NO_ARGS);
+                } catch (IllegalArgumentException | IllegalAccessException | InvocationTargetException e) {
+                    if (!sCompleteFailureLogged) {
+                        sCompleteFailureLogged = true;
+                        Logger.e(TAG, "invoke Location.makeComplete fail!", e);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return false if there is no location service to report to
+     */
+    public static boolean reportLocation(Location location) throws RemoteException {
+        ILocationManager locationManager = sLocationManager;
+        if (locationManager == null) {
+            return false;
+        }
+        locationManager.reportLocation(location, false);
+        return true;
+    }
+}
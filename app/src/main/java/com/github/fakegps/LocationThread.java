@@ -2,7 +2,6 @@ package com.github.fakegps;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.location.ILocationManager;
 import android.location.Location;
 import android.location.LocationManager;
 import android.net.wifi.WifiManager;
@@ -10,27 +9,19 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.RemoteException;
-import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 
-import com.github.fakegps.model.LocPoint;
+import com.github.fakegps.model.GpsFix;
 import com.github.fakegps.ui.MainActivity;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.InetAddress;
 
 import de.taimos.gpsd4java.api.ObjectListener;
-import de.taimos.gpsd4java.backend.GPSdEndpoint;
-import de.taimos.gpsd4java.backend.ResultParser;
 import de.taimos.gpsd4java.types.ATTObject;
 import de.taimos.gpsd4java.types.DeviceObject;
 import de.taimos.gpsd4java.types.DevicesObject;
-import de.taimos.gpsd4java.types.ENMEAMode;
-import de.taimos.gpsd4java.types.SATObject;
 import de.taimos.gpsd4java.types.SKYObject;
 import de.taimos.gpsd4java.types.TPVObject;
 import de.taimos.gpsd4java.types.subframes.SUBFRAMEObject;
@@ -45,159 +36,406 @@ public class LocationThread extends HandlerThread {
 
     private static final String TAG = "LocationThread";
 
+    private static final long ROUTE_TICK_INTERVAL = 1000;
+    private static final long METRICS_INTERVAL = 60 * 1000;
+
+    private static final Metrics.Counter FIXES_RECEIVED = Metrics.get().counter("location.fixes_received");
+    private static final Metrics.Counter FIXES_PUBLISHED = Metrics.get().counter("location.fixes_published");
+    private static final Metrics.Counter REPORT_FAILURES = Metrics.get().counter("location.report_failures");
+    // fixes dropped because LocationBridge found no location service
+    private static final Metrics.Counter REPORTS_UNAVAILABLE = Metrics.get().counter("location.reports_unavailable");
+    private static final Metrics.Histogram REPORT_LATENCY = Metrics.get().histogram("location.report_location_ns");
+
+    // opt-in: the fast parser skips SKY, SUBFRAME and ATT reports, so they are no longer logged
+    public static final String PREFS_KEY_FAST_PARSER = "fast_parser";
+    public static final String PREFS_KEY_RECORD_TRACK = "record_track";
+    public static final String PREFS_KEY_REPLAY_TRACK = "replay_track";
+    public static final String PREFS_KEY_REPLAY_SPEED = "replay_speed";
+    // reports per second from a built-in loopback gpsd; 0 or empty talks to the configured address
+    public static final String PREFS_KEY_SIMULATE_RATE = "simulate_rate";
+    public static final String PREFS_KEY_KALMAN_FILTER = "kalman_filter";
+    // fixes per second to publish by dead reckoning between real ones; 0 or empty publishes only real fixes
+    public static final String PREFS_KEY_UPSAMPLE_RATE = "upsample_rate";
+    public static final String PREFS_KEY_UPSAMPLE_TIMEOUT = "upsample_timeout";
+
     private Context mContext;
-    private JoyStickManager mJoyStickManager;
-    private LocationManager mLocationManager;
+    private volatile JoyStickManager mJoyStickManager;
 
     private Handler mHandler;
-    private LocPoint mLastLocPoint = new LocPoint(0, 0);
 
-    private static Method mMethodMakeComplete;
-    private static ILocationManager mILocationManager;
+    private FixDispatcher mDispatcher;
+    private UpsamplingEmitter mEmitter;
+    // only touched from this thread's looper; reportLocation parcels the Location, so it can be reused
+    private final Location mLocation = new Location(LocationManager.GPS_PROVIDER);
+    private final StringBuilder mContentText = new StringBuilder(16);
+    private final StringBuilder mSubText = new StringBuilder(48);
 
     private WifiManager.WifiLock wifiLock;
-    GPSdEndpoint ep;
     SharedPreferences sharedPref;
-    InetAddress ia;
-    boolean skip;
+    // one per configured address, each connecting and reading on its own threads,
+    // so neither socket calls nor a stalled source ever block this thread's looper
+    private GpsdConnection[] mConnections;
+    // merges the sources when more than one address is configured
+    private FixSelector mSelector;
+    // replaces the gpsd connection when a track file is configured
+    private TrackReplaySource mReplaySource;
+    private TrackRecorder mRecorder;
+    private GpsdSimulator mSimulator;
+    // optional smoothing between ingest and dispatch, fed by one source thread at a time
+    private KalmanFixFilter mFilter;
+    private final GpsFix mFiltered = new GpsFix();
+    // while a route plays, it is the only source of fixes
+    private volatile RoutePlayer mRoutePlayer;
+    private final GpsFix mRouteFix = new GpsFix();
 
     public LocationThread(Context context, JoyStickManager joyStickManager) {
         super("LocationThread");
         mContext = context;
         mJoyStickManager = joyStickManager;
 
-        mLocationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
-        if (mMethodMakeComplete == null) {
+        WifiManager wm = (WifiManager) mContext.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        wifiLock = wm.createWifiLock(/*WifiManager.WIFI_MODE_FULL,*/ "GPSdWifiLock");
+        wifiLock.acquire();
+        sharedPref= PreferenceManager.getDefaultSharedPreferences(mContext);
+        if (sharedPref.getBoolean(PREFS_KEY_KALMAN_FILTER, false)) {
+            mFilter = new KalmanFixFilter();
+        }
+        String replayTrack = sharedPref.getString(PREFS_KEY_REPLAY_TRACK, "");
+        if (replayTrack.length() > 0) {
             try {
-                mMethodMakeComplete = Location.class.getMethod("makeComplete", new Class[0]);
-            } catch (NoSuchMethodException e) {
-                Logger.e(TAG, "get Location.makeComplete method fail!", e);
+                double speed = Double.parseDouble(sharedPref.getString(PREFS_KEY_REPLAY_SPEED, "1"));
+                mReplaySource = new TrackReplaySource(new File(replayTrack), mIngest, speed, false);
+                Logger.i(TAG, "replaying " + replayTrack + " at " + speed + "x");
+                return;
+            } catch (IOException | NumberFormatException e) {
+                Logger.e(TAG, "open track " + replayTrack + " fail!", e);
             }
         }
 
-        if (mILocationManager == null) {
-            Field declaredField = null;
+        String value = sharedPref.getString(MainActivity.PREFS_KEY, MainActivity.PREFS_DEFAULT);
+        String simulateRate = sharedPref.getString(PREFS_KEY_SIMULATE_RATE, "");
+        if (simulateRate.length() > 0) {
             try {
-                declaredField = Class.forName(mLocationManager.getClass().getName()).getDeclaredField("mService");
-                declaredField.setAccessible(true);
-                mILocationManager = (ILocationManager) declaredField.get(mLocationManager);
-            } catch (Exception e) {
-                Logger.e(TAG, "get LocationManager mService fail!", e);
+                double rate = Double.parseDouble(simulateRate);
+                if (rate > 0) {
+                    mSimulator = new GpsdSimulator();
+                    mSimulator.setRate(rate);
+                    value = "127.0.0.1:" + mSimulator.start(0);
+                    Logger.i(TAG, "simulating gpsd on " + value + " at " + rate + "/s");
+                }
+            } catch (IOException | NumberFormatException e) {
+                Logger.e(TAG, "start gpsd simulator fail!", e);
+            }
+        }
+        // several receivers may be given as host:port,host:port
+        final String[] addresses = value.split(",");
+        final boolean fastParser = sharedPref.getBoolean(PREFS_KEY_FAST_PARSER, false);
+        mConnections = new GpsdConnection[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            final String[] parts = addresses[i].trim().split(":");
+            SourceListener listener = new SourceListener(i);
+            mConnections[i] = new GpsdConnection(parts[0], Integer.parseInt(parts[1]), listener);
+            if (fastParser) {
+                mConnections[i].setFastParserCallback(listener);
             }
         }
+        if (sharedPref.getBoolean(PREFS_KEY_RECORD_TRACK, false)) {
+            File dir = new File(FakeGpsApp.getOutputDir(), "tracks");
+            File file = new File(dir, "track-" + System.currentTimeMillis() + ".fgt");
+            try {
+                if (!dir.isDirectory()) dir.mkdirs();
+                mRecorder = new TrackRecorder(file);
+                Logger.i(TAG, "recording to " + file);
+            } catch (IOException e) {
+                Logger.e(TAG, "create track " + file + " fail!", e);
+            }
+        }
+    }
 
+    /**
+     * Only the fix path, for JVM benchmarks: no gpsd, no preferences, nothing started. Fixes
+     * offered by a {@link SourceListener} wait in the dispatcher until it is drained.
+     */
+    LocationThread(JoyStickManager joyStickManager, Handler handler) {
+        super("LocationThread");
+        mJoyStickManager = joyStickManager;
+        mHandler = handler;
+        mDispatcher = new FixDispatcher(handler, mPublisher);
+    }
 
-        WifiManager wm = (WifiManager) mContext.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        wifiLock = wm.createWifiLock(/*WifiManager.WIFI_MODE_FULL,*/ "GPSdWifiLock");
-        wifiLock.acquire();
-        try {
-            sharedPref= PreferenceManager.getDefaultSharedPreferences(mContext);
-            String value = sharedPref.getString(MainActivity.PREFS_KEY, MainActivity.PREFS_DEFAULT);
-            final String[] parts = value.split(":");
-            ep = new GPSdEndpoint(parts[0], Integer.parseInt(parts[1]), new ResultParser());
-            ia=InetAddress.getByName(parts[0]);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private final FixDispatcher.Publisher mPublisher = new FixDispatcher.Publisher() {
+        @Override
+        public void publish(GpsFix fix) {
+            publishFix(fix);
         }
-    }
+    };
 
     @Override
     public synchronized void start() {
         super.start();
 
         mHandler = new Handler(getLooper());
-        mHandler.post(mUpdateLocation);
-
-
-        ep.addListener(new ObjectListener() {
-
-            @Override
-            public void handleTPV(final TPVObject tpv) {
-                skip=true;
-                Logger.i(TAG, "TPV: "+tpv);
-
-                if(tpv.getMode() != ENMEAMode.NotSeen && tpv.getMode() != ENMEAMode.NoFix) {
-                    Location location = new Location("gps");
-                    location.setLatitude(tpv.getLatitude());
-                    location.setLongitude(tpv.getLongitude());
-                    location.setAltitude(tpv.getAltitude());
-                    if (Build.VERSION.SDK_INT > 16) {
-                        location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
-                    }
-                    location.setAccuracy((float) (tpv.getLatitudeError() + tpv.getLongitudeError()) / 2);
-                    location.setSpeed((float) tpv.getSpeed());
-                    location.setBearing((float) tpv.getCourse());
-                    location.setTime((long) tpv.getTimestamp() * 1000);
-
-                    mJoyStickManager.showJoyStick(Math.round(location.getAccuracy())+" m", location.getLatitude()+"°, "+location.getLongitude()+"° ");
-                    if (mMethodMakeComplete != null) {
-                        try {
-                            mMethodMakeComplete.invoke(location, new Object[0]);
-                        } catch (IllegalArgumentException | IllegalAccessException | InvocationTargetException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    try {
-                        mILocationManager.reportLocation(location, false);
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
-                    }
-                }
+        FixDispatcher.Publisher publisher = mPublisher;
+        try {
+            double rate = Double.parseDouble(sharedPref.getString(PREFS_KEY_UPSAMPLE_RATE, "0"));
+            if (rate > 0) {
+                long timeout = Long.parseLong(sharedPref.getString(PREFS_KEY_UPSAMPLE_TIMEOUT,
+                        String.valueOf(UpsamplingEmitter.TIMEOUT_DEFAULT)));
+                mEmitter = new UpsamplingEmitter(mHandler, publisher, rate, timeout);
+                publisher = mEmitter;
+                Logger.i(TAG, "upsampling to " + rate + "/s, timeout " + timeout + " ms");
             }
+        } catch (NumberFormatException e) {
+            Logger.e(TAG, "upsample settings fail!", e);
+        }
+        mDispatcher = new FixDispatcher(mHandler, publisher);
+        mHandler.postDelayed(mMetricsReport, METRICS_INTERVAL);
+        if (mReplaySource != null) {
+            mReplaySource.start();
+            return;
+        }
+        if (mConnections.length > 1) {
+            String[] names = new String[mConnections.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = mConnections[i].getAddress();
+            }
+            mSelector = new FixSelector(names, mIngest, mHandler);
+        }
+        for (GpsdConnection connection : mConnections) {
+            connection.start();
+        }
+    }
 
-            @Override
-            public void handleSKY(final SKYObject sky) {
-                Logger.i(TAG, "SKY: "+sky);
-                for (final SATObject sat : sky.getSatellites()) {
-//                        Logger.i(TAG, "  SAT: "+sat);
+    /**
+     * Where the fixes of all sources end up: recorded raw if asked for, then filtered if
+     * enabled and published if valid.
+     * With several sources only the fixes chosen by the {@link FixSelector} get here.
+     */
+    private final FixSink mIngest = new FixSink() {
+        @Override
+        public void offer(GpsFix fix) {
+            if (mRoutePlayer != null) {
+                return;
+            }
+            TrackRecorder recorder = mRecorder;
+            if (recorder != null) {
+                recorder.offer(fix);
+            }
+            if (!fix.isValid()) {
+                return;
+            }
+            KalmanFixFilter filter = mFilter;
+            if (filter != null) {
+                if (!filter.filter(fix, mFiltered)) {
+                    return;
                 }
+                fix = mFiltered;
             }
+            mDispatcher.offer(fix);
+        }
+    };
 
-            @Override
-            public void handleSUBFRAME(final SUBFRAMEObject subframe) {
-                Logger.i(TAG, "SUBFRAME: "+subframe);
+    /**
+     * Receives the reports of one gpsd source, on that source's reader thread.
+     */
+    class SourceListener extends ObjectListener implements GpsdFastParser.Callback {
+
+        private final int mIndex;
+        // only touched from this source's reader thread
+        private final GpsFix mFix = new GpsFix();
+
+        SourceListener(int index) {
+            mIndex = index;
+        }
+
+        private void onFix(GpsFix fix) {
+            FIXES_RECEIVED.increment();
+            FixSelector selector = mSelector;
+            if (selector != null) {
+                selector.offer(mIndex, fix);
+            } else {
+                mIngest.offer(fix);
             }
+        }
 
-            @Override
-            public void handleATT(final ATTObject att) {
-                Logger.i(TAG, "ATT: "+att);
+        @Override
+        public void onTpv(GpsFix fix) {
+            Logger.d(TAG, "TPV: %s", fix);
+            onFix(fix);
+        }
+
+        @Override
+        public void onDiscarded(int reportClass) {
+        }
+
+        @Override
+        public void handleTPV(final TPVObject tpv) {
+            Logger.d(TAG, "TPV: %s", tpv);
+            mFix.set(tpv, FakeGpsUtils.elapsedRealtimeNanos());
+            onFix(mFix);
+        }
+
+        @Override
+        public void handleSKY(final SKYObject sky) {
+            Logger.d(TAG, "SKY: %s", sky);
+        }
+
+        @Override
+        public void handleSUBFRAME(final SUBFRAMEObject subframe) {
+            Logger.i(TAG, "SUBFRAME: %s", subframe);
+        }
+
+        @Override
+        public void handleATT(final ATTObject att) {
+            Logger.i(TAG, "ATT: %s", att);
+        }
+
+        @Override
+        public void handleDevice(final DeviceObject device) {
+            Logger.i(TAG, "Device: %s", device);
+        }
+
+        @Override
+        public void handleDevices(final DevicesObject devices) {
+            for (final DeviceObject d : devices.getDevices()) {
+                Logger.i(TAG, "Device: %s", d);
             }
+        }
+    }
 
+    /**
+     * Publish fixes sampled from {@code player} instead of the gpsd ones until the route
+     * ends or {@link #stopRoute()}. Pause, resume and seek work on the player directly.
+     */
+    public void playRoute(final RoutePlayer player) {
+        mHandler.post(new Runnable() {
             @Override
-            public void handleDevice(final DeviceObject device) {
-                Logger.i(TAG, "Device: "+device);
+            public void run() {
+                mRoutePlayer = player;
+                mHandler.removeCallbacks(mRouteTick);
+                mRouteTick.run();
             }
+        });
+    }
 
+    public void stopRoute() {
+        mHandler.post(new Runnable() {
             @Override
-            public void handleDevices(final DevicesObject devices) {
-                for (final DeviceObject d : devices.getDevices()) {
-                    Logger.i(TAG, "Device: "+d);
-                }
+            public void run() {
+                mRoutePlayer = null;
+                mHandler.removeCallbacks(mRouteTick);
             }
         });
+    }
+
+    public RoutePlayer getRoutePlayer() {
+        return mRoutePlayer;
+    }
 
-        ep.start();
+    private final Runnable mRouteTick = new Runnable() {
+        @Override
+        public void run() {
+            RoutePlayer player = mRoutePlayer;
+            if (player == null) return;
+            long now = FakeGpsUtils.elapsedRealtimeNanos();
+            GpsFix fix = mRouteFix;
+            boolean playing = player.sample(now, fix);
+            fix.setValid(true);
+            fix.setAltitude(0);
+            fix.setAccuracy(3);
+            fix.setTime(System.currentTimeMillis());
+            fix.setElapsedRealtimeNanos(now);
+            mDispatcher.offer(fix);
+            if (playing) {
+                mHandler.postDelayed(this, ROUTE_TICK_INTERVAL);
+            } else {
+                Logger.i(TAG, "route finished");
+                mRoutePlayer = null;
+            }
+        }
+    };
 
+    /**
+     * Fill the reused {@link Location} from the fix and hand it to the location service.
+     * Runs on this thread's looper once per TPV, so nothing in here may allocate in the steady state.
+     */
+    private void publishFix(GpsFix fix) {
+        JoyStickManager joyStickManager = mJoyStickManager;
+        if (joyStickManager == null) {
+            return;
+        }
+        Location location = mLocation;
+        location.setLatitude(fix.getLatitude());
+        location.setLongitude(fix.getLongitude());
+        location.setAltitude(fix.getAltitude());
+        if (Build.VERSION.SDK_INT > 16) {
+            location.setElapsedRealtimeNanos(fix.getElapsedRealtimeNanos());
+        }
+        location.setAccuracy(fix.getAccuracy());
+        location.setSpeed(fix.getSpeed());
+        location.setBearing(fix.getBearing());
+        location.setTime(fix.getTime());
+
+        mContentText.setLength(0);
+        fix.appendAccuracy(mContentText);
+        mSubText.setLength(0);
+        fix.appendLatLon(mSubText);
+        joyStickManager.showJoyStick(mContentText, mSubText);
+        LocationBridge.complete(location);
+
+        long start = System.nanoTime();
         try {
-            Logger.i(TAG, "Version: "+ep.version());
-            Logger.i(TAG, "Watch: "+ep.watch(true, true));
-            Logger.i(TAG, "Poll: "+ep.poll());
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (LocationBridge.reportLocation(location)) {
+                FIXES_PUBLISHED.increment();
+            } else {
+                REPORTS_UNAVAILABLE.increment();
+            }
+        } catch (RemoteException e) {
+            REPORT_FAILURES.increment();
+            Logger.e(TAG, "reportLocation fail!", e);
         }
+        REPORT_LATENCY.recordSince(start);
     }
 
+    private final Runnable mMetricsReport = new Runnable() {
+        @Override
+        public void run() {
+            Metrics.get().log(TAG);
+            mHandler.postDelayed(this, METRICS_INTERVAL);
+        }
+    };
+
     public void startThread() {
         start();
     }
 
     public void stopThread() {
         mHandler.removeCallbacksAndMessages(null);
+        mDispatcher.clear();
+        Logger.i(TAG, mDispatcher.toString());
+        if (mEmitter != null) {
+            mEmitter.stop();
+            Logger.i(TAG, mEmitter.toString());
+        }
+        if (mFilter != null) {
+            Logger.i(TAG, mFilter.toString());
+        }
+        if (mSelector != null) {
+            mSelector.clear();
+            Logger.i(TAG, mSelector.toString());
+        }
+        Metrics.get().log(TAG);
         try {
             quit();
             interrupt();
-            ep.stop();
+            if (mConnections != null) {
+                for (GpsdConnection connection : mConnections) {
+                    connection.stop();
+                }
+            }
+            if (mSimulator != null) mSimulator.stop();
+            if (mReplaySource != null) mReplaySource.stopReplay();
+            if (mRecorder != null) mRecorder.close();
             if (wifiLock.isHeld()) wifiLock.release();
         } catch (Exception e) {
             Logger.e(TAG, "stopThread fail!", e);
@@ -208,7 +446,7 @@ public class LocationThread extends HandlerThread {
 
 
     protected static boolean setMockLocation(int i, Context context) {
-        Logger.d(TAG, "setMockLocation " + i);
+        Logger.d(TAG, "setMockLocation %d", i);
         try {
             return Settings.Secure.putInt(context.getContentResolver(), "mock_location", i);
         } catch (Exception e) {
@@ -216,26 +454,24 @@ public class LocationThread extends HandlerThread {
         }
     }
 
-    Runnable mUpdateLocation = new Runnable() {
-        static final int DELAY=1000;
-        @Override
-        public void run() {
-            if(skip) {
-                skip=false;
-            } else {
-                try {
-                    Logger.d(TAG, "isReachable:" + ia.isReachable(DELAY / 2));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            mHandler.postDelayed(mUpdateLocation, DELAY);
-        }
-    };
-
     public Handler getHandler() {
         return mHandler;
     }
 
+    /**
+     * @return one connection per configured address, or null while replaying a track
+     */
+    public GpsdConnection[] getConnections() {
+        return mConnections;
+    }
+
+    public FixSelector getSelector() {
+        return mSelector;
+    }
+
+    public FixDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
 }
        
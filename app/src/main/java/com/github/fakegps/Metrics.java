@@ -0,0 +1,268 @@
+package com.github.fakegps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Named counters, gauges and latency histograms of the app, for a look at how it performs in
+ * the field.
+ * <p>
+ * Metrics are created once, typically into static fields, and recorded into from any thread
+ * with plain atomic operations: no lock, no allocation. {@link #snapshot()} renders all of them
+ * as text, {@link #log(String)} writes that to the log.
+ */
+public final class Metrics {
+
+    private static final Metrics sInstance = new Metrics();
+
+    public static Metrics get() {
+        return sInstance;
+    }
+
+    private interface Metric {
+        void appendTo(StringBuilder sb);
+    }
+
+    /**
+     * Counts events.
+     */
+    public static final class Counter implements Metric {
+        private final String mName;
+        private final AtomicLong mCount = new AtomicLong();
+
+        Counter(String name) {
+            mName = name;
+        }
+
+        public void increment() {
+            mCount.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mCount.addAndGet(delta);
+        }
+
+        public long get() {
+            return mCount.get();
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append(mName).append(" = ").append(mCount.get());
+        }
+    }
+
+    /**
+     * Holds the last value set.
+     */
+    public static final class Gauge implements Metric {
+        private final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+
+        Gauge(String name) {
+            mName = name;
+        }
+
+        public void set(long value) {
+            mValue.set(value);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append(mName).append(" = ").append(mValue.get());
+        }
+    }
+
+    /**
+     * Distribution of non-negative values, HdrHistogram style: exact below
+     * {@link #SUB_BUCKETS}, above that every power of two is cut into {@code SUB_BUCKETS / 2}
+     * equal buckets, so a value is known to within 1/16 of itself over the whole long range.
+     */
+    public static final class Histogram implements Metric {
+        static final int SUB_BUCKET_BITS = 5;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int HALF = SUB_BUCKETS / 2;
+        static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+        private final String mName;
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram(String name) {
+            mName = name;
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS + 1;
+            return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * HALF + (int) (value >>> shift) - HALF;
+        }
+
+        /**
+         * @return the largest value that falls into {@code bucket}
+         */
+        static long highestOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / HALF + SUB_BUCKET_BITS;
+            int shift = exponent - SUB_BUCKET_BITS + 1;
+            long sub = (bucket - SUB_BUCKETS) % HALF + HALF;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        /**
+         * @param value negative values count as 0
+         */
+        public void record(long value) {
+            if (value < 0) value = 0;
+            mCounts.incrementAndGet(bucketOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get())) {
+                if (mMax.compareAndSet(max, value)) break;
+            }
+        }
+
+        /**
+         * Record the nanoseconds since {@code startNanos}, a {@link System#nanoTime()} value.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * @param percentile 0 to 100
+         * @return a value at most 1/16 above the one at that percentile; 0 when empty
+         */
+        public long getValueAt(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+                total += counts[i];
+            }
+            return valueAt(counts, total, percentile);
+        }
+
+        private long valueAt(long[] counts, long total, double percentile) {
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestOf(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+                total += counts[i];
+            }
+            sb.append(mName).append(": n=").append(total);
+            if (total == 0) return;
+            // a record in progress may have counted its bucket only
+            sb.append(" mean=").append(mSum.get() / Math.max(1, mCount.get()))
+                    .append(" p50=").append(valueAt(counts, total, 50))
+                    .append(" p90=").append(valueAt(counts, total, 90))
+                    .append(" p99=").append(valueAt(counts, total, 99))
+                    .append(" max=").append(mMax.get());
+        }
+    }
+
+    // guarded by this; registration only, recording never looks at it
+    private final LinkedHashMap<String, Metric> mMetrics = new LinkedHashMap<>();
+
+    Metrics() {
+    }
+
+    /**
+     * @return the counter of that name, created on first use
+     */
+    public synchronized Counter counter(String name) {
+        Metric metric = mMetrics.get(name);
+        if (metric == null) {
+            metric = new Counter(name);
+            mMetrics.put(name, metric);
+        }
+        return (Counter) metric;
+    }
+
+    /**
+     * @return the gauge of that name, created on first use
+     */
+    public synchronized Gauge gauge(String name) {
+        Metric metric = mMetrics.get(name);
+        if (metric == null) {
+            metric = new Gauge(name);
+            mMetrics.put(name, metric);
+        }
+        return (Gauge) metric;
+    }
+
+    /**
+     * @return the histogram of that name, created on first use
+     */
+    public synchronized Histogram histogram(String name) {
+        Metric metric = mMetrics.get(name);
+        if (metric == null) {
+            metric = new Histogram(name);
+            mMetrics.put(name, metric);
+        }
+        return (Histogram) metric;
+    }
+
+    /**
+     * @return one line per metric, in the order they were created
+     */
+    public String snapshot() {
+        List<Metric> metrics;
+        synchronized (this) {
+            metrics = new ArrayList<>(mMetrics.values());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Metric metric : metrics) {
+            metric.appendTo(sb);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void log(String tag) {
+        for (String line : snapshot().split("\n")) {
+            if (line.length() > 0) {
+                Logger.i(tag, line);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.fakegps;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.app.NotificationCompat;
+
+import com.github.fakegps.ui.MainActivity;
+import com.tencent.fakegps.R;
+
+/**
+ * Posts the ongoing status notification at most once per interval.
+ * Updates arriving in between are coalesced (last text wins) and texts equal to
+ * what is already shown are dropped, so most fixes never reach the notification service.
+ * The texts come rounded (whole metres, 5 decimals of a degree), so a receiver standing still
+ * does not post.
+ * <p>
+ * After {@link #cancel()} updates are ignored until {@link #start()}.
+ */
+public class NotificationPublisher {
+
+    /**
+     * Where the texts go; the notification service outside of tests.
+     */
+    interface Target {
+        void post(String contentText, String subText);
+
+        void cancel();
+    }
+
+    public static final long MIN_INTERVAL_DEFAULT = 1000;
+
+    private static final int NOTIFICATION_ID = 01;
+
+    private static final Metrics.Counter UPDATES = Metrics.get().counter("notification.updates");
+    private static final Metrics.Counter POSTS = Metrics.get().counter("notification.posts");
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final NotificationManager mNotificationManager;
+    private final Target mTarget;
+    private NotificationCompat.Builder mBuilder;
+
+    private volatile long mMinInterval = MIN_INTERVAL_DEFAULT;
+
+    // guarded by this
+    private final StringBuilder mPendingContent = new StringBuilder(16);
+    private final StringBuilder mPendingSub = new StringBuilder(48);
+    private String mPostedContent;
+    private String mPostedSub;
+    private boolean mFlushScheduled;
+    private long mFlushTime;
+    private long mLastPostTime;
+    private boolean mCancelled;
+
+    public NotificationPublisher(Context context) {
+        mContext = context.getApplicationContext();
+        mHandler = new Handler(Looper.getMainLooper());
+        mNotificationManager = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        mTarget = new Target() {
+            @Override
+            public void post(String contentText, String subText) {
+                NotificationPublisher.this.post(contentText, subText);
+            }
+
+            @Override
+            public void cancel() {
+                mNotificationManager.cancel(NOTIFICATION_ID);
+            }
+        };
+    }
+
+    /**
+     * For tests: flushes are scheduled on {@code handler}, posts go to {@code target}.
+     */
+    NotificationPublisher(Handler handler, Target target) {
+        mContext = null;
+        mHandler = handler;
+        mNotificationManager = null;
+        mTarget = target;
+    }
+
+    /**
+     * @param minInterval minimum time between two posts in milliseconds, 0 to post every change
+     */
+    public void setMinInterval(long minInterval) {
+        mMinInterval = Math.max(0, minInterval);
+    }
+
+    public long getMinInterval() {
+        return mMinInterval;
+    }
+
+    /**
+     * Accept updates again after {@link #cancel()}.
+     */
+    public synchronized void start() {
+        mCancelled = false;
+    }
+
+    /**
+     * Queue new notification texts. Safe to call from any thread; the texts are copied.
+     */
+    public void update(CharSequence contentText, CharSequence subText) {
+        UPDATES.increment();
+        long postAt;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            copy(mPendingContent, contentText);
+            copy(mPendingSub, subText);
+            if (mFlushScheduled || isShown(mPendingContent, mPendingSub)) {
+                return;
+            }
+            mFlushScheduled = true;
+            postAt = mLastPostTime + mMinInterval;
+            mFlushTime = postAt;
+        }
+        mHandler.postAtTime(mFlush, postAt);
+    }
+
+    /**
+     * Remove the notification and forget what was shown; updates are ignored until
+     * {@link #start()}, which then posts the next one right away.
+     */
+    public void cancel() {
+        synchronized (this) {
+            mCancelled = true;
+            mFlushScheduled = false;
+            mPostedContent = null;
+            mPostedSub = null;
+            mLastPostTime = 0;
+        }
+        mHandler.removeCallbacks(mFlush);
+        mTarget.cancel();
+    }
+
+    /**
+     * @return the uptime millis the pending flush is scheduled at, -1 if there is none
+     */
+    synchronized long getFlushTime() {
+        return mFlushScheduled ? mFlushTime : -1;
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush(SystemClock.uptimeMillis());
+        }
+    };
+
+    /**
+     * Post the pending texts, the handler's job at {@link #getFlushTime()}.
+     */
+    void flush(long uptimeMillis) {
+        String content;
+        String sub;
+        synchronized (this) {
+            if (!mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = false;
+            if (isShown(mPendingContent, mPendingSub)) {
+                return;
+            }
+            content = mPendingContent.toString();
+            sub = mPendingSub.toString();
+            mPostedContent = content;
+            mPostedSub = sub;
+            mLastPostTime = uptimeMillis;
+        }
+        mTarget.post(content, sub);
+    }
+
+    private void post(String contentText, String subText) {
+        NotificationCompat.Builder builder = getBuilder();
+        builder.setContentText(contentText);
+        builder.setSubText(subText);
+        Notification notification = builder.build();
+        mNotificationManager.notify(NOTIFICATION_ID, notification);
+        POSTS.increment();
+    }
+
+    private NotificationCompat.Builder getBuilder() {
+        if (mBuilder == null) {
+            Intent intent = new Intent(mContext, MainActivity.class);
+            PendingIntent pendingIntent = PendingIntent.getActivity(mContext, 01, intent, Intent.FLAG_ACTIVITY_CLEAR_TASK);
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext);
+            builder.setContentTitle(mContext.getText(R.string.app_name));
+            builder.setNumber(101);
+            builder.setContentIntent(pendingIntent);
+            builder.setSmallIcon(R.drawable.icon_app);
+            builder.setOngoing(true);
+            builder.setOnlyAlertOnce(true);
+            builder.setPriority(Notification.PRIORITY_DEFAULT);
+            mBuilder = builder;
+        }
+        return mBuilder;
+    }
+
+    private boolean isShown(CharSequence contentText, CharSequence subText) {
+        return mPostedContent != null && mPostedContent.contentEquals(contentText)
+                && mPostedSub != null && mPostedSub.contentEquals(subText);
+    }
+
+    private static void copy(StringBuilder target, CharSequence source) {
+        target.setLength(0);
+        if (source != null) {
+            target.append(source);
+        }
+    }
+}
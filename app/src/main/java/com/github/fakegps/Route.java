@@ -0,0 +1,185 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+import com.github.fakegps.model.LocPoint;
+
+import java.util.List;
+
+/**
+ * An immutable route of waypoints, kept as primitive arrays so that 100k+ points load fast and
+ * take little memory.
+ * <p>
+ * Next to the coordinates it keeps the cumulative distance and the cumulative travel time up
+ * to each point, so finding the position at a given time or distance is a binary search.
+ * Travel times come from the waypoint timestamps if there are any, else from the per-segment
+ * speeds, else from one speed for the whole route.
+ */
+public class Route {
+
+    public static final double SPEED_DEFAULT = 1.4; // walking, m/s
+
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    // metres from the first point
+    private final double[] mDistances;
+    // seconds from the first point
+    private final double[] mTimes;
+
+    /**
+     * @param latitudes  at least one point
+     * @param longitudes same length as latitudes
+     * @param times      epoch milliseconds per point, non-decreasing, or null
+     * @param speeds     m/s of the segment starting at each point, or null; ignored if times are given
+     * @param speed      m/s for segments without a speed of their own
+     */
+    public Route(double[] latitudes, double[] longitudes, long[] times, float[] speeds, double speed) {
+        int n = latitudes.length;
+        if (n == 0 || longitudes.length != n || (times != null && times.length != n)
+                || (speeds != null && speeds.length < n - 1)) {
+            throw new IllegalArgumentException("inconsistent route arrays");
+        }
+        if (times == null && !(speed > 0)) {
+            throw new IllegalArgumentException("speed " + speed);
+        }
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mDistances = new double[n];
+        mTimes = new double[n];
+        for (int i = 1; i < n; i++) {
+            double length = GreatCircleMotion.distance(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+            mDistances[i] = mDistances[i - 1] + length;
+            if (times != null) {
+                if (times[i] < times[i - 1]) {
+                    throw new IllegalArgumentException("time goes backwards at point " + i);
+                }
+                mTimes[i] = (times[i] - times[0]) / 1000.0;
+            } else {
+                double segmentSpeed = speeds != null && speeds[i - 1] > 0 ? speeds[i - 1] : speed;
+                mTimes[i] = mTimes[i - 1] + length / segmentSpeed;
+            }
+        }
+    }
+
+    public static Route fromLocPoints(List<LocPoint> points, double speed) {
+        int n = points.size();
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            LocPoint point = points.get(i);
+            latitudes[i] = point.getLatitude();
+            longitudes[i] = point.getLongitude();
+        }
+        return new Route(latitudes, longitudes, null, null, speed);
+    }
+
+    public int size() {
+        return mLatitudes.length;
+    }
+
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    /**
+     * @return length in metres
+     */
+    public double getDistance() {
+        return mDistances[mDistances.length - 1];
+    }
+
+    /**
+     * @return travel time in seconds
+     */
+    public double getDuration() {
+        return mTimes[mTimes.length - 1];
+    }
+
+    public double getDistance(int index) {
+        return mDistances[index];
+    }
+
+    public double getTime(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * @return the travel time at which {@code distance} metres are covered
+     */
+    public double timeAtDistance(double distance) {
+        int i = segment(mDistances, distance);
+        if (i == mDistances.length - 1) return mTimes[i];
+        double f = fraction(mDistances, i, distance);
+        return mTimes[i] + f * (mTimes[i + 1] - mTimes[i]);
+    }
+
+    /**
+     * @return metres covered after {@code time} seconds
+     */
+    public double distanceAtTime(double time) {
+        int i = segment(mTimes, time);
+        if (i == mTimes.length - 1) return mDistances[i];
+        double f = fraction(mTimes, i, time);
+        return mDistances[i] + f * (mDistances[i + 1] - mDistances[i]);
+    }
+
+    /**
+     * Fill position, speed and bearing at {@code time} seconds into the route; other fields are left alone.
+     */
+    public void sampleAtTime(double time, GpsFix out) {
+        int n = mLatitudes.length;
+        int i = segment(mTimes, time);
+        if (i >= n - 1) {
+            i = Math.max(n - 2, 0);
+            time = mTimes[n - 1];
+        }
+        if (n == 1) {
+            out.setLatitude(mLatitudes[0]);
+            out.setLongitude(mLongitudes[0]);
+            out.setSpeed(0);
+            return;
+        }
+        double f = fraction(mTimes, i, time);
+        double lat0 = mLatitudes[i], lon0 = mLongitudes[i];
+        double dLon = mLongitudes[i + 1] - lon0;
+        // the short way round across the antimeridian
+        if (dLon > 180) dLon -= 360;
+        else if (dLon < -180) dLon += 360;
+        double lon = lon0 + f * dLon;
+        if (lon > 180) lon -= 360;
+        else if (lon < -180) lon += 360;
+        out.setLatitude(lat0 + f * (mLatitudes[i + 1] - lat0));
+        out.setLongitude(lon);
+        double duration = mTimes[i + 1] - mTimes[i];
+        out.setSpeed(duration > 0 ? (float) ((mDistances[i + 1] - mDistances[i]) / duration) : 0);
+        if (mDistances[i + 1] > mDistances[i]) {
+            out.setBearing((float) GreatCircleMotion.initialBearing(lat0, lon0, mLatitudes[i + 1], mLongitudes[i + 1]));
+        }
+    }
+
+    /**
+     * @return the last index whose value is <= key, clamped to [0, length - 1]
+     */
+    static int segment(double[] values, double key) {
+        int low = 0, high = values.length - 1;
+        if (key >= values[high]) return high;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (values[mid] <= key) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static double fraction(double[] values, int i, double key) {
+        double span = values[i + 1] - values[i];
+        if (span <= 0) return 0;
+        return Math.min(1, Math.max(0, (key - values[i]) / span));
+    }
+}
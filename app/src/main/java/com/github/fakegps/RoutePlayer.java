@@ -0,0 +1,128 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+/**
+ * Plays a {@link Route} back against the elapsed realtime clock, with pause, resume, seek,
+ * playback rate and loop.
+ * <p>
+ * The playback position is derived from an immutable state - route time at the last change,
+ * when that was, rate, paused - swapped through a volatile field. Controls are synchronized
+ * with each other; {@link #sample(long, GpsFix)} reads without locking from any thread.
+ */
+public class RoutePlayer {
+
+    private static final class State {
+        final double mOffset;
+        final long mSinceNanos;
+        final double mRate;
+        final boolean mPaused;
+
+        State(double offset, long sinceNanos, double rate, boolean paused) {
+            mOffset = offset;
+            mSinceNanos = sinceNanos;
+            mRate = rate;
+            mPaused = paused;
+        }
+    }
+
+    private final Route mRoute;
+    private final boolean mLoop;
+    private volatile State mState;
+
+    /**
+     * Starts paused at the beginning of the route; call {@link #resume(long)} to play.
+     */
+    public RoutePlayer(Route route, boolean loop) {
+        mRoute = route;
+        mLoop = loop;
+        mState = new State(0, 0, 1, true);
+    }
+
+    public Route getRoute() {
+        return mRoute;
+    }
+
+    /**
+     * @return seconds into the route at {@code nowNanos}, wrapped when looping
+     */
+    public double getPosition(long nowNanos) {
+        return getPosition(mState, nowNanos);
+    }
+
+    private double getPosition(State state, long nowNanos) {
+        double position = state.mOffset;
+        if (!state.mPaused) {
+            position += (nowNanos - state.mSinceNanos) / 1e9 * state.mRate;
+        }
+        double duration = mRoute.getDuration();
+        if (mLoop && duration > 0) {
+            position %= duration;
+            if (position < 0) position += duration;
+        } else {
+            position = Math.max(0, Math.min(duration, position));
+        }
+        return position;
+    }
+
+    public boolean isPaused() {
+        return mState.mPaused;
+    }
+
+    public boolean isFinished(long nowNanos) {
+        return !mLoop && getPosition(nowNanos) >= mRoute.getDuration();
+    }
+
+    public synchronized void resume(long nowNanos) {
+        State state = mState;
+        if (!state.mPaused) return;
+        mState = new State(state.mOffset, nowNanos, state.mRate, false);
+    }
+
+    public synchronized void pause(long nowNanos) {
+        State state = mState;
+        if (state.mPaused) return;
+        mState = new State(getPosition(state, nowNanos), nowNanos, state.mRate, true);
+    }
+
+    /**
+     * @param seconds route time to continue from
+     */
+    public synchronized void seek(double seconds, long nowNanos) {
+        State state = mState;
+        mState = new State(seconds, nowNanos, state.mRate, state.mPaused);
+    }
+
+    /**
+     * @param metres distance along the route to continue from
+     */
+    public void seekDistance(double metres, long nowNanos) {
+        seek(mRoute.timeAtDistance(metres), nowNanos);
+    }
+
+    /**
+     * @param rate playback speed, 1 for real time, 2 for twice as fast
+     */
+    public synchronized void setRate(double rate, long nowNanos) {
+        State state = mState;
+        mState = new State(getPosition(state, nowNanos), nowNanos, rate, state.mPaused);
+    }
+
+    /**
+     * Fill position, speed and bearing at {@code nowNanos}; speed is scaled by the playback rate.
+     *
+     * @return false once a non-looping route has been played to its end
+     */
+    public boolean sample(long nowNanos, GpsFix out) {
+        // one snapshot, so position and speed come from the same state
+        State state = mState;
+        double position = getPosition(state, nowNanos);
+        mRoute.sampleAtTime(position, out);
+        if (state.mPaused) {
+            out.setSpeed(0);
+        } else {
+            out.setSpeed((float) (out.getSpeed() * state.mRate));
+        }
+        return mLoop || position < mRoute.getDuration();
+    }
+}
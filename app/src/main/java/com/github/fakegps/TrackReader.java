@@ -0,0 +1,79 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import tiger.radio.loggerlibrary.IOUtils;
+
+/**
+ * Random access to a track file written by {@link TrackRecorder}.
+ * The file is mapped read-only; reading a record is a few loads into a caller-owned fix.
+ */
+public class TrackReader implements Closeable {
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final long mCount;
+
+    public TrackReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mFile.getChannel();
+            long size = channel.size();
+            if (size < TrackRecorder.HEADER_SIZE) {
+                throw new IOException("not a track file: " + file);
+            }
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (mBuffer.getInt(0) != TrackRecorder.MAGIC || mBuffer.getInt(4) != TrackRecorder.VERSION) {
+                throw new IOException("not a track file: " + file);
+            }
+            // trust the header, but not beyond what is really on disk
+            long complete = (size - TrackRecorder.HEADER_SIZE) / TrackRecorder.RECORD_SIZE;
+            mCount = Math.min(mBuffer.getLong(8), complete);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(mFile);
+            throw e;
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public void read(long index, GpsFix out) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("record " + index + " of " + mCount);
+        }
+        int offset = (int) (TrackRecorder.HEADER_SIZE + index * TrackRecorder.RECORD_SIZE);
+        MappedByteBuffer buffer = mBuffer;
+        out.setElapsedRealtimeNanos(buffer.getLong(offset));
+        out.setTime(buffer.getLong(offset + 8));
+        out.setLatitude(buffer.getDouble(offset + 16));
+        out.setLongitude(buffer.getDouble(offset + 24));
+        out.setAltitude(buffer.getDouble(offset + 32));
+        out.setAccuracy(buffer.getFloat(offset + 40));
+        out.setSpeed(buffer.getFloat(offset + 44));
+        out.setBearing(buffer.getFloat(offset + 48));
+        out.setValid((buffer.getInt(offset + 52) & TrackRecorder.FLAG_VALID) != 0);
+    }
+
+    /**
+     * @return elapsedRealtimeNanos of the record at {@code index}, the replay clock
+     */
+    public long readElapsedRealtimeNanos(long index) {
+        return mBuffer.getLong((int) (TrackRecorder.HEADER_SIZE + index * TrackRecorder.RECORD_SIZE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
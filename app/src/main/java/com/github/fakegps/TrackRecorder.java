@@ -0,0 +1,140 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import tiger.radio.loggerlibrary.IOUtils;
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Appends fixes to a compact binary track file through memory-mapped chunks,
+ * so recording on the fix path is a handful of stores and no syscall.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * header  MAGIC int, VERSION int, record count long
+ * record  elapsedRealtimeNanos long, time long, latitude double, longitude double,
+ *         altitude double, accuracy float, speed float, bearing float, flags int
+ * </pre>
+ * Meant for a single writer thread; append and close are synchronized only so that
+ * closing from another thread is safe.
+ */
+public class TrackRecorder implements FixSink, Closeable {
+
+    private static final String TAG = "TrackRecorder";
+
+    public static final int MAGIC = 0x46475452; // "FGTR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 56;
+    public static final int FLAG_VALID = 1;
+
+    private static final int COUNT_OFFSET = 8;
+    private static final int CHUNK_RECORDS_DEFAULT = 16384;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mHeader;
+    private final int mChunkSize;
+    private MappedByteBuffer mChunk;
+    private long mChunkPosition;
+    private long mCount;
+    private volatile boolean mFailed;
+
+    public TrackRecorder(File file) throws IOException {
+        this(file, CHUNK_RECORDS_DEFAULT);
+    }
+
+    /**
+     * @param chunkRecords records per mapped chunk
+     */
+    public TrackRecorder(File file, int chunkRecords) throws IOException {
+        mChunkSize = RECORD_SIZE * chunkRecords;
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        mHeader.order(ByteOrder.LITTLE_ENDIAN);
+        mHeader.putInt(0, MAGIC);
+        mHeader.putInt(4, VERSION);
+        mHeader.putLong(COUNT_OFFSET, 0);
+        mChunkPosition = HEADER_SIZE;
+        mapChunk();
+    }
+
+    private void mapChunk() throws IOException {
+        mChunk = mChannel.map(FileChannel.MapMode.READ_WRITE, mChunkPosition, mChunkSize);
+        mChunk.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Append, or once an append failed (disk full...) drop the fix: the error is logged once
+     * and recording stops.
+     */
+    @Override
+    public void offer(GpsFix fix) {
+        if (mFailed) return;
+        try {
+            append(fix);
+        } catch (IOException e) {
+            mFailed = true;
+            Logger.e(TAG, "recording stopped after " + mCount + " fixes", e);
+        }
+    }
+
+    /**
+     * @return true once {@link #offer(GpsFix)} gave up
+     */
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    public synchronized void append(GpsFix fix) throws IOException {
+        if (mChunk == null) {
+            throw new IOException("recorder closed");
+        }
+        if (mChunk.remaining() < RECORD_SIZE) {
+            mChunkPosition += mChunk.position();
+            mapChunk();
+        }
+        MappedByteBuffer chunk = mChunk;
+        chunk.putLong(fix.getElapsedRealtimeNanos());
+        chunk.putLong(fix.getTime());
+        chunk.putDouble(fix.getLatitude());
+        chunk.putDouble(fix.getLongitude());
+        chunk.putDouble(fix.getAltitude());
+        chunk.putFloat(fix.getAccuracy());
+        chunk.putFloat(fix.getSpeed());
+        chunk.putFloat(fix.getBearing());
+        chunk.putInt(fix.isValid() ? FLAG_VALID : 0);
+        // the count goes last, so a crash never exposes a half-written record
+        mHeader.putLong(COUNT_OFFSET, ++mCount);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Flush the mapped pages and cut the file back to the records actually written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mChunk == null) return;
+        mChunk.force();
+        mHeader.force();
+        mChunk = null;
+        try {
+            mChannel.truncate(HEADER_SIZE + mCount * RECORD_SIZE);
+        } finally {
+            IOUtils.closeQuietly(mFile);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import java.io.File;
+import java.io.IOException;
+
+import tiger.radio.loggerlibrary.Logger;
+
+/**
+ * Plays a recorded track file into a {@link FixSink}, standing in for a live gpsd.
+ * At speed 1 the original timing is reproduced, at speed N it runs N times faster,
+ * and speed 0 pushes records as fast as the sink takes them.
+ * Every replayed fix is stamped with the current elapsed realtime, like a live one, and its
+ * time is moved by the same offset.
+ */
+public class TrackReplaySource extends Thread {
+
+    private static final String TAG = "TrackReplaySource";
+
+    public static final double SPEED_AS_FAST_AS_POSSIBLE = 0;
+
+    private final TrackReader mReader;
+    private final FixSink mSink;
+    private final double mSpeed;
+    private final boolean mLoop;
+    private volatile boolean mStopped;
+    private volatile long mReplayedCount;
+
+    public TrackReplaySource(File file, FixSink sink, double speed, boolean loop) throws IOException {
+        super("TrackReplaySource");
+        mReader = new TrackReader(file);
+        mSink = sink;
+        mSpeed = speed;
+        mLoop = loop;
+    }
+
+    public void stopReplay() {
+        mStopped = true;
+        interrupt();
+    }
+
+    public long getReplayedCount() {
+        return mReplayedCount;
+    }
+
+    public long getTrackSize() {
+        return mReader.getCount();
+    }
+
+    @Override
+    public void run() {
+        GpsFix fix = new GpsFix();
+        long count = mReader.getCount();
+        try {
+            do {
+                if (count == 0) break;
+                long trackStart = mReader.readElapsedRealtimeNanos(0);
+                long replayStart = FakeGpsUtils.elapsedRealtimeNanos();
+                for (long i = 0; i < count && !mStopped; i++) {
+                    mReader.read(i, fix);
+                    if (mSpeed > 0) {
+                        long due = replayStart + (long) ((fix.getElapsedRealtimeNanos() - trackStart) / mSpeed);
+                        long wait = due - FakeGpsUtils.elapsedRealtimeNanos();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                        }
+                    }
+                    long now = FakeGpsUtils.elapsedRealtimeNanos();
+                    fix.setTime(fix.getTime() + (now - fix.getElapsedRealtimeNanos()) / 1000000);
+                    fix.setElapsedRealtimeNanos(now);
+                    mSink.offer(fix);
+                    mReplayedCount++;
+                }
+            } while (mLoop && !mStopped);
+        } catch (InterruptedException e) {
+            // stopReplay()
+        } finally {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                Logger.e(TAG, "close track fail!", e);
+            }
+        }
+        Logger.i(TAG, "replayed " + mReplayedCount + " fixes");
+    }
+}
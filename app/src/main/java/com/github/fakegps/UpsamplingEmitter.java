@@ -0,0 +1,182 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.github.fakegps.model.GpsFix;
+
+/**
+ * Publishes fixes at a fixed rate above the receiver's, dead reckoning from the last real fix.
+ * <p>
+ * Real fixes pass straight through {@link #publish(GpsFix)}. In between, a tick on the given
+ * handler moves the last fix along its speed and course - or, when gpsd leaves those out, along
+ * the velocity between the last two fixes - and publishes the result. Ticks are scheduled
+ * against an absolute elapsedRealtimeNanos timeline (start + n * period), so they do not drift,
+ * and a tick that lands right after a real fix is skipped. Extrapolation stops
+ * {@code timeoutMillis} after the last real fix and resumes with the next one.
+ * <p>
+ * Everything runs on the handler's looper and reuses its fixes; nothing is allocated per tick.
+ */
+public class UpsamplingEmitter implements FixDispatcher.Publisher {
+
+    public static final long TIMEOUT_DEFAULT = 2000;
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final Handler mHandler;
+    private final FixDispatcher.Publisher mPublisher;
+    private final long mPeriodNanos;
+    private final long mTimeoutNanos;
+
+    private final GpsFix mLast = new GpsFix();
+    private final GpsFix mPrevious = new GpsFix();
+    private final GpsFix mOut = new GpsFix();
+    private boolean mHasLast;
+    private boolean mHasPrevious;
+
+    private boolean mTicking;
+    private long mStartNanos;
+    private long mTick;
+    private long mNextTickUptime = -1;
+
+    private long mRealCount;
+    private long mExtrapolatedCount;
+
+    /**
+     * @param rate          published fixes per second
+     * @param timeoutMillis how long after the last real fix to keep extrapolating
+     */
+    public UpsamplingEmitter(Handler handler, FixDispatcher.Publisher publisher, double rate, long timeoutMillis) {
+        mHandler = handler;
+        mPublisher = publisher;
+        mPeriodNanos = (long) (1e9 / rate);
+        mTimeoutNanos = timeoutMillis * 1000000L;
+    }
+
+    /**
+     * A real fix, called on the handler's looper.
+     */
+    @Override
+    public void publish(GpsFix fix) {
+        publish(fix, FakeGpsUtils.elapsedRealtimeNanos(), SystemClock.uptimeMillis());
+    }
+
+    /**
+     * {@link #publish(GpsFix)} at the given clocks, for tests.
+     */
+    void publish(GpsFix fix, long nowNanos, long uptimeMillis) {
+        mPublisher.publish(fix);
+        mRealCount++;
+        if (mHasLast) {
+            mPrevious.set(mLast);
+            mHasPrevious = true;
+        }
+        mLast.set(fix);
+        mHasLast = true;
+        if (!mTicking) {
+            mTicking = true;
+            mStartNanos = fix.getElapsedRealtimeNanos();
+            mTick = 0;
+            scheduleNext(nowNanos, uptimeMillis);
+        }
+    }
+
+    public void stop() {
+        mHandler.removeCallbacks(mTickRunnable);
+        mTicking = false;
+        mNextTickUptime = -1;
+        mHasLast = false;
+        mHasPrevious = false;
+    }
+
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick(FakeGpsUtils.elapsedRealtimeNanos(), SystemClock.uptimeMillis());
+        }
+    };
+
+    /**
+     * One tick at the given clocks; the handler's job, called directly by tests.
+     */
+    void tick(long now, long uptimeMillis) {
+        mNextTickUptime = -1;
+        if (now - mLast.getElapsedRealtimeNanos() > mTimeoutNanos) {
+            // receiver silent; wait for the next real fix instead of inventing more
+            mTicking = false;
+            return;
+        }
+        // a real fix within the last half period already served this slot
+        if (now - mLast.getElapsedRealtimeNanos() >= mPeriodNanos / 2 && extrapolate(now, mOut)) {
+            mPublisher.publish(mOut);
+            mExtrapolatedCount++;
+        }
+        scheduleNext(now, uptimeMillis);
+    }
+
+    private void scheduleNext(long now, long uptimeMillis) {
+        // the next slot on the fixed timeline, skipping any we are already late for
+        long next = mStartNanos + (mTick + 1) * mPeriodNanos;
+        if (next <= now) {
+            mTick = (now - mStartNanos) / mPeriodNanos;
+            next = mStartNanos + (mTick + 1) * mPeriodNanos;
+        }
+        mTick++;
+        // rounded up: the handler never runs a tick before its slot
+        long delayMillis = (next - now + 999999) / 1000000;
+        mNextTickUptime = uptimeMillis + delayMillis;
+        mHandler.postAtTime(mTickRunnable, mNextTickUptime);
+    }
+
+    /**
+     * @return the uptimeMillis the next tick is posted for, -1 if none is
+     */
+    long getNextTickUptime() {
+        return mNextTickUptime;
+    }
+
+    /**
+     * Dead reckon the last real fix to {@code nowNanos}.
+     *
+     * @return false if there is nothing to extrapolate from
+     */
+    boolean extrapolate(long nowNanos, GpsFix out) {
+        if (!mHasLast) return false;
+        GpsFix last = mLast;
+        double dt = (nowNanos - last.getElapsedRealtimeNanos()) / 1e9;
+        double east, north;
+        if (!Float.isNaN(last.getSpeed()) && !Float.isNaN(last.getBearing())) {
+            double bearing = Math.toRadians(last.getBearing());
+            east = last.getSpeed() * Math.sin(bearing);
+            north = last.getSpeed() * Math.cos(bearing);
+        } else if (mHasPrevious && last.getElapsedRealtimeNanos() > mPrevious.getElapsedRealtimeNanos()) {
+            double span = (last.getElapsedRealtimeNanos() - mPrevious.getElapsedRealtimeNanos()) / 1e9;
+            north = Math.toRadians(last.getLatitude() - mPrevious.getLatitude()) * EARTH_RADIUS / span;
+            east = Math.toRadians(last.getLongitude() - mPrevious.getLongitude())
+                    * EARTH_RADIUS * Math.cos(Math.toRadians(last.getLatitude())) / span;
+        } else {
+            east = 0;
+            north = 0;
+        }
+        out.set(last);
+        out.setLatitude(last.getLatitude() + Math.toDegrees(north * dt / EARTH_RADIUS));
+        out.setLongitude(last.getLongitude()
+                + Math.toDegrees(east * dt / (EARTH_RADIUS * Math.cos(Math.toRadians(last.getLatitude())))));
+        out.setTime(last.getTime() + (long) (dt * 1000));
+        out.setElapsedRealtimeNanos(nowNanos);
+        return true;
+    }
+
+    public long getRealCount() {
+        return mRealCount;
+    }
+
+    public long getExtrapolatedCount() {
+        return mExtrapolatedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "UpsamplingEmitter: real=" + mRealCount + " extrapolated=" + mExtrapolatedCount;
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.fakegps.model;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ids of the bookmarks inserted, updated and deleted by one write, so that views can patch
+ * what they show instead of reloading the whole table.
+ */
+public final class BookmarkDelta {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int[] mInserted;
+    private final int[] mUpdated;
+    private final int[] mDeleted;
+
+    public BookmarkDelta(int[] inserted, int[] updated, int[] deleted) {
+        mInserted = inserted != null ? inserted : EMPTY;
+        mUpdated = updated != null ? updated : EMPTY;
+        mDeleted = deleted != null ? deleted : EMPTY;
+    }
+
+    /**
+     * Any of the collections may be null; ids are read after the write, once LiteOrm has
+     * assigned them to the inserted bookmarks.
+     */
+    public static BookmarkDelta of(Collection<LocBookmark> inserted, Collection<LocBookmark> updated,
+                                   Collection<LocBookmark> deleted) {
+        return new BookmarkDelta(ids(inserted), ids(updated), ids(deleted));
+    }
+
+    private static int[] ids(Collection<LocBookmark> bookmarks) {
+        if (bookmarks == null || bookmarks.isEmpty()) return EMPTY;
+        int[] ids = new int[bookmarks.size()];
+        int i = 0;
+        for (LocBookmark bookmark : bookmarks) {
+            ids[i++] = bookmark.getId();
+        }
+        return ids;
+    }
+
+    public int[] getInserted() {
+        return mInserted;
+    }
+
+    public int[] getUpdated() {
+        return mUpdated;
+    }
+
+    public int[] getDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     * @return inserted and updated ids, the rows a view has to (re)load
+     */
+    public int[] getChanged() {
+        if (mUpdated.length == 0) return mInserted;
+        if (mInserted.length == 0) return mUpdated;
+        int[] changed = new int[mInserted.length + mUpdated.length];
+        System.arraycopy(mInserted, 0, changed, 0, mInserted.length);
+        System.arraycopy(mUpdated, 0, changed, mInserted.length, mUpdated.length);
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return mInserted.length == 0 && mUpdated.length == 0 && mDeleted.length == 0;
+    }
+
+    /**
+     * Patch a list kept in ascending id order, as {@code DbUtils.getAllBookmark()} returns it:
+     * drop the deleted ids, then replace or insert each of {@code changed} at its place. Every
+     * step is a binary search, so the cost follows the size of the delta, not of the list.
+     *
+     * @param changed the current rows of {@link #getChanged()}; ids missing from it were
+     *                deleted again before they could be read and are left out
+     * @return whether the list was modified
+     */
+    public boolean applyTo(List<LocBookmark> list, List<LocBookmark> changed) {
+        boolean modified = false;
+        for (int id : mDeleted) {
+            int index = indexOf(list, id);
+            if (index >= 0) {
+                list.remove(index);
+                modified = true;
+            }
+        }
+        if (changed != null) {
+            for (LocBookmark bookmark : changed) {
+                int index = indexOf(list, bookmark.getId());
+                if (index >= 0) {
+                    list.set(index, bookmark);
+                } else {
+                    list.add(-index - 1, bookmark);
+                }
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Binary search of a list in ascending id order.
+     *
+     * @return the index of {@code id}, or {@code -(insertion point) - 1}
+     */
+    public static int indexOf(List<LocBookmark> list, int id) {
+        int low = 0, high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = list.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "BookmarkDelta: inserted=" + mInserted.length + " updated=" + mUpdated.length
+                + " deleted=" + mDeleted.length;
+    }
+}
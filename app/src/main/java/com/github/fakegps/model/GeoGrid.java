@@ -0,0 +1,79 @@
+package com.github.fakegps.model;
+
+/**
+ * Fixed grid of {@link #CELL_DEGREES} cells over the globe, numbered row by row from the
+ * south-west corner, so that every row of a bounding box is one contiguous range of cell
+ * numbers an SQL index can scan.
+ */
+public final class GeoGrid {
+
+    public static final double CELL_DEGREES = 0.01;
+    public static final int LAT_CELLS = 18000;
+    public static final int LON_CELLS = 36000;
+
+    private GeoGrid() {
+    }
+
+    public static int latIndex(double latitude) {
+        int index = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LAT_CELLS - 1, index));
+    }
+
+    public static int lonIndex(double longitude) {
+        int index = (int) Math.floor((longitude + 180) / CELL_DEGREES) % LON_CELLS;
+        return index < 0 ? index + LON_CELLS : index;
+    }
+
+    public static int cellOf(double latitude, double longitude) {
+        return latIndex(latitude) * LON_CELLS + lonIndex(longitude);
+    }
+
+    /**
+     * Cell ranges covering a bounding box, as inclusive {@code from, to} pairs in ascending
+     * order. A box crossing the antimeridian has {@code minLongitude > maxLongitude}; pass
+     * -180 and 180 for all longitudes. Once the box has more rows than {@code out} has room
+     * for, whole rows are returned instead, which only widens the box.
+     *
+     * @return number of ranges
+     */
+    public static int cellRanges(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+                                 int[] out) {
+        int maxRanges = out.length / 2;
+        int lat0 = latIndex(minLatitude), lat1 = latIndex(maxLatitude);
+        boolean fullRows = maxLongitude - minLongitude >= 360;
+        int lon0 = fullRows ? 0 : lonIndex(minLongitude);
+        int lon1 = fullRows ? LON_CELLS - 1 : lonIndex(maxLongitude);
+        boolean wraps = !fullRows && lon0 > lon1;
+        if (wraps && lon1 + 1 >= lon0) {
+            fullRows = true;
+            wraps = false;
+        }
+        if (!fullRows && (wraps ? 2 : 1) * (lat1 - lat0 + 1) > maxRanges) {
+            fullRows = true;
+            wraps = false;
+        }
+        if (fullRows) {
+            // consecutive whole rows are one range
+            out[0] = lat0 * LON_CELLS;
+            out[1] = lat1 * LON_CELLS + LON_CELLS - 1;
+            return 1;
+        }
+        int count = 0;
+        for (int lat = lat0; lat <= lat1; lat++) {
+            int row = lat * LON_CELLS;
+            if (wraps) {
+                out[2 * count] = row;
+                out[2 * count + 1] = row + lon1;
+                count++;
+                out[2 * count] = row + lon0;
+                out[2 * count + 1] = row + LON_CELLS - 1;
+                count++;
+            } else {
+                out[2 * count] = row + lon0;
+                out[2 * count + 1] = row + lon1;
+                count++;
+            }
+        }
+        return count;
+    }
+}
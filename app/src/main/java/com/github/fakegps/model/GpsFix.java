@@ -0,0 +1,180 @@
+package com.github.fakegps.model;
+
+import de.taimos.gpsd4java.types.ENMEAMode;
+import de.taimos.gpsd4java.types.TPVObject;
+
+/**
+ * Mutable, primitive-only holder for one position fix.
+ * An instance is meant to be reused for every TPV so the fix path does not allocate.
+ */
+public class GpsFix {
+
+    private boolean mValid;
+    private double mLatitude;
+    private double mLongitude;
+    private double mAltitude;
+    private float mAccuracy;
+    private float mSpeed;
+    private float mBearing;
+    private long mTime;
+    private long mElapsedRealtimeNanos;
+
+    public GpsFix() {
+    }
+
+    /**
+     * Copy the fields used for publishing out of a gpsd TPV report.
+     *
+     * @return true if the TPV carries a 2D or 3D fix
+     */
+    public boolean set(TPVObject tpv, long elapsedRealtimeNanos) {
+        ENMEAMode mode = tpv.getMode();
+        mValid = mode != null && mode != ENMEAMode.NotSeen && mode != ENMEAMode.NoFix;
+        mLatitude = tpv.getLatitude();
+        mLongitude = tpv.getLongitude();
+        mAltitude = tpv.getAltitude();
+        mAccuracy = (float) (tpv.getLatitudeError() + tpv.getLongitudeError()) / 2;
+        mSpeed = (float) tpv.getSpeed();
+        mBearing = (float) tpv.getCourse();
+        mTime = (long) (tpv.getTimestamp() * 1000);
+        mElapsedRealtimeNanos = elapsedRealtimeNanos;
+        return mValid;
+    }
+
+    public void set(GpsFix fix) {
+        mValid = fix.mValid;
+        mLatitude = fix.mLatitude;
+        mLongitude = fix.mLongitude;
+        mAltitude = fix.mAltitude;
+        mAccuracy = fix.mAccuracy;
+        mSpeed = fix.mSpeed;
+        mBearing = fix.mBearing;
+        mTime = fix.mTime;
+        mElapsedRealtimeNanos = fix.mElapsedRealtimeNanos;
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public void setValid(boolean valid) {
+        mValid = valid;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public void setLatitude(double latitude) {
+        mLatitude = latitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public void setLongitude(double longitude) {
+        mLongitude = longitude;
+    }
+
+    public double getAltitude() {
+        return mAltitude;
+    }
+
+    public void setAltitude(double altitude) {
+        mAltitude = altitude;
+    }
+
+    public float getAccuracy() {
+        return mAccuracy;
+    }
+
+    public void setAccuracy(float accuracy) {
+        mAccuracy = accuracy;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+
+    public float getBearing() {
+        return mBearing;
+    }
+
+    public void setBearing(float bearing) {
+        mBearing = bearing;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public void setTime(long time) {
+        mTime = time;
+    }
+
+    public long getElapsedRealtimeNanos() {
+        return mElapsedRealtimeNanos;
+    }
+
+    public void setElapsedRealtimeNanos(long elapsedRealtimeNanos) {
+        mElapsedRealtimeNanos = elapsedRealtimeNanos;
+    }
+
+    /**
+     * Append the notification summary ("12 m") without allocating.
+     */
+    public void appendAccuracy(StringBuilder sb) {
+        sb.append(Math.round(mAccuracy)).append(" m");
+    }
+
+    /**
+     * Append the notification position ("48.12346°, 11.12346° ", about a metre) without allocating.
+     */
+    public void appendLatLon(StringBuilder sb) {
+        appendDecimal(sb, mLatitude, 5);
+        sb.append("°, ");
+        appendDecimal(sb, mLongitude, 5);
+        sb.append("° ");
+    }
+
+    /**
+     * Fixed-point rendering of a double; StringBuilder.append(double) allocates on most runtimes.
+     */
+    public static void appendDecimal(StringBuilder sb, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            sb.append(value);
+            return;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            sb.append('-');
+        }
+        sb.append(scaled / scale);
+        if (decimals > 0) {
+            sb.append('.');
+            long fraction = scaled % scale;
+            for (long div = scale / 10; div > 0; div /= 10) {
+                sb.append((char) ('0' + (fraction / div) % 10));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("GpsFix: ");
+        builder.append(mValid ? "(" : "no fix (");
+        builder.append(mLatitude).append(" , ").append(mLongitude).append(")");
+        builder.append(" acc=").append(mAccuracy);
+        builder.append(" time=").append(mTime);
+        return builder.toString();
+    }
+}
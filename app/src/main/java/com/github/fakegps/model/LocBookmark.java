@@ -16,6 +16,8 @@ import java.io.Serializable;
 public class LocBookmark implements Serializable {
     static final long serialVersionUID = -1770575152720897666L;
 
+    public static final String COLUMN_CELL = "cell";
+
     @PrimaryKey(AssignType.AUTO_INCREMENT)
     @Column("_id")
     private int id;
@@ -25,13 +27,23 @@ public class LocBookmark implements Serializable {
 
     private LocPoint mLocPoint;
 
+    // GeoGrid cell of mLocPoint, indexed for spatial queries
+    @Column(COLUMN_CELL)
+    private int mCell;
+
 
     public LocBookmark() {
     }
 
     public LocBookmark(String name, LocPoint locPoint) {
         mName = name;
-        mLocPoint = locPoint;
+        setLocPoint(locPoint);
+    }
+
+    LocBookmark(int id, String name, LocPoint locPoint) {
+        this.id = id;
+        mName = name;
+        setLocPoint(locPoint);
     }
 
     public String getName() {
@@ -48,6 +60,13 @@ public class LocBookmark implements Serializable {
 
     public void setLocPoint(LocPoint locPoint) {
         mLocPoint = locPoint;
+        if (locPoint != null) {
+            mCell = GeoGrid.cellOf(locPoint.getLatitude(), locPoint.getLongitude());
+        }
+    }
+
+    public int getCell() {
+        return mCell;
     }
 
     public int getId() {
@@ -9,7 +9,7 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import com.github.fakegps.DbUtils;
+import com.github.fakegps.BookmarkRepository;
 import com.github.fakegps.FakeGpsUtils;
 import com.github.fakegps.model.LocBookmark;
 import com.github.fakegps.model.LocPoint;
@@ -75,12 +75,18 @@ public class BookmarkActivity extends AppCompatActivity implements View.OnClickL
         LocPoint locPointFromInput = FakeGpsUtils.getLocPointFromInput(this, mLocEditText);
         if (locPointFromInput != null) {
             LocBookmark locBookmark = new LocBookmark(name, locPointFromInput);
-            long id = DbUtils.insertBookmark(locBookmark);
-            if (id != -1) {
-                Toast.makeText(this, "bookmark saved!", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "bookmark cannot save!", Toast.LENGTH_SHORT).show();
-            }
+            // the activity finishes right away, toast with the application context
+            final Context appContext = getApplicationContext();
+            BookmarkRepository.get().insert(locBookmark, new BookmarkRepository.Callback<Long>() {
+                @Override
+                public void onResult(Long id) {
+                    if (id != -1) {
+                        Toast.makeText(appContext, "bookmark saved!", Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, "bookmark cannot save!", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
     }
 
@@ -7,6 +7,9 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
+import com.github.fakegps.BookmarkPages;
+import com.github.fakegps.BookmarkRepository;
+import com.github.fakegps.model.BookmarkDelta;
 import com.github.fakegps.model.LocBookmark;
 import com.tencent.fakegps.R;
 
@@ -14,31 +17,38 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Bookmark Adapter
+ * Bookmark Adapter, loading pages of bookmarks as they scroll into view
  * Created by tiger on 7/23/16.
  */
-public class BookmarkAdapter extends BaseAdapter {
+public class BookmarkAdapter extends BaseAdapter implements BookmarkPages.Loader {
 
     private Context mContext;
-    private List<LocBookmark> mLocBookmarkList = new ArrayList<>();
+    private final BookmarkPages mPages;
+    // repository callbacks may arrive after the list is gone
+    private boolean mReleased;
 
     public BookmarkAdapter(Context context) {
         mContext = context;
+        mPages = new BookmarkPages(BookmarkPages.PAGE_SIZE_DEFAULT, BookmarkPages.CACHED_PAGES_DEFAULT, this);
     }
 
     @Override
     public int getCount() {
-        return mLocBookmarkList.size();
+        return mPages.getCount();
     }
 
+    /**
+     * @return null while the bookmark is loading
+     */
     @Override
     public LocBookmark getItem(int position) {
-        return mLocBookmarkList.get(position);
+        return mPages.get(position);
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        LocBookmark item = mPages.get(position);
+        return item != null ? item.getId() : -1 - position;
     }
 
     @Override
@@ -55,26 +65,59 @@ public class BookmarkAdapter extends BaseAdapter {
             viewHolder = (ViewHolder) convertView.getTag();
         }
         LocBookmark item = getItem(position);
-        viewHolder.name.setText(item.getName());
-        viewHolder.loc.setText(item.getLocPoint().toString());
+        if (item != null) {
+            viewHolder.name.setText(item.getName());
+            viewHolder.loc.setText(item.getLocPoint().toString());
+        } else {
+            viewHolder.name.setText("…");
+            viewHolder.loc.setText("");
+        }
 
         return convertView;
     }
 
-    public void setLocBookmarkList(List<LocBookmark> locBookmarkList) {
-        if (locBookmarkList == null || locBookmarkList.size() <= 0) return;
-        mLocBookmarkList.clear();
-        mLocBookmarkList.addAll(locBookmarkList);
-        notifyDataSetChanged();
+    /**
+     * (Re)read the page index; rows follow as they are shown.
+     */
+    public void reload() {
+        BookmarkRepository.get().loadPageIndex(BookmarkPages.PAGE_SIZE_DEFAULT,
+                new BookmarkRepository.Callback<BookmarkPages.Index>() {
+                    @Override
+                    public void onResult(BookmarkPages.Index index) {
+                        if (mReleased) return;
+                        mPages.setIndex(index);
+                        notifyDataSetChanged();
+                    }
+                });
     }
 
-    public void addBookmark(LocBookmark bookmark) {
-        mLocBookmarkList.add(bookmark);
+    /**
+     * Patch counts and loaded pages instead of reloading.
+     *
+     * @param changed the rows of {@link BookmarkDelta#getChanged()} as they are now
+     */
+    public void applyDelta(BookmarkDelta delta, List<LocBookmark> changed) {
+        if (!mPages.applyDelta(delta, changed)) {
+            reload();
+        }
         notifyDataSetChanged();
     }
 
-    public void clearAll() {
-        mLocBookmarkList.clear();
+    @Override
+    public void loadPage(final int generation, final int page, int fromId, int toId) {
+        BookmarkRepository.get().loadRange(fromId, toId, new BookmarkRepository.Callback<ArrayList<LocBookmark>>() {
+            @Override
+            public void onResult(ArrayList<LocBookmark> rows) {
+                if (mReleased) return;
+                if (mPages.onPageLoaded(generation, page, rows)) {
+                    notifyDataSetChanged();
+                }
+            }
+        });
+    }
+
+    public void release() {
+        mReleased = true;
     }
 
 
@@ -21,11 +21,13 @@ import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import com.github.fakegps.BookmarkRepository;
 import com.github.fakegps.BroadcastEvent;
 import com.github.fakegps.DbUtils;
 import com.github.fakegps.FakeGpsApp;
 import com.github.fakegps.FakeGpsUtils;
 import com.github.fakegps.JoyStickManager;
+import com.github.fakegps.model.BookmarkDelta;
 import com.github.fakegps.model.LocBookmark;
 import com.github.fakegps.model.LocPoint;
 import com.tencent.fakegps.R;
@@ -41,6 +43,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private Button mBtnStart;
     private Button mBtnSetNew;
     private BookmarkAdapter mAdapter;
+    // repository callbacks may arrive after onDestroy
+    private boolean mDestroyed;
 
 
     SharedPreferences sharedPref;
@@ -127,9 +131,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     private void initListView() {
         mAdapter = new BookmarkAdapter(this);
-        ArrayList<LocBookmark> allBookmark = DbUtils.getAllBookmark();
-        mAdapter.setLocBookmarkList(allBookmark);
         mListView.setAdapter(mAdapter);
+        mAdapter.reload();
 
         View emptyView = findViewById(R.id.empty_view);
         mListView.setEmptyView(emptyView);
@@ -159,11 +162,13 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private void delete(final int position) {
         if (position < 0) return;
         final LocBookmark bookmark = mAdapter.getItem(position);
+        // still loading
+        if (bookmark == null) return;
         new AlertDialog.Builder(this)
                 .setTitle("Delete " + bookmark.toString())
                 .setPositiveButton("OK", new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int which) {
-                        DbUtils.deleteBookmark(bookmark);
+                        BookmarkRepository.get().delete(bookmark);
                     }
                 })
                 .setNegativeButton("Cancel", null)
@@ -184,8 +189,20 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (BroadcastEvent.BookMark.ACTION_BOOK_MARK_UPDATE.equals(action)) {
-                ArrayList<LocBookmark> allBookmark = DbUtils.getAllBookmark();
-                mAdapter.setLocBookmarkList(allBookmark);
+                final BookmarkDelta delta = DbUtils.getBookmarkDelta(intent);
+                if (delta == null) {
+                    mAdapter.reload();
+                } else if (!delta.isEmpty()) {
+                    // only the rows that changed are read back
+                    BookmarkRepository.get().load(delta.getChanged(),
+                            new BookmarkRepository.Callback<ArrayList<LocBookmark>>() {
+                                @Override
+                                public void onResult(ArrayList<LocBookmark> changed) {
+                                    if (mDestroyed) return;
+                                    mAdapter.applyDelta(delta, changed);
+                                }
+                            });
+                }
             }
         }
     };
@@ -193,6 +210,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     @Override
     protected void onDestroy() {
+        mDestroyed = true;
+        mAdapter.release();
         unregisterBroadcastReceiver();
         super.onDestroy();
     }
@@ -0,0 +1,172 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.BookmarkDelta;
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BookmarkPagesTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int CACHED_PAGES = 3;
+
+    // stands in for the table
+    private final TreeMap<Integer, LocBookmark> mTable = new TreeMap<>();
+    private final List<int[]> mRequests = new ArrayList<>();
+    private BookmarkPages mPages;
+
+    private static LocBookmark bookmark(int id) {
+        LocBookmark bookmark = new LocBookmark("b" + id, new LocPoint(id, id));
+        try {
+            Field field = LocBookmark.class.getDeclaredField("id");
+            field.setAccessible(true);
+            field.setInt(bookmark, id);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+        return bookmark;
+    }
+
+    @Before
+    public void setUp() {
+        mPages = new BookmarkPages(PAGE_SIZE, CACHED_PAGES, new BookmarkPages.Loader() {
+            @Override
+            public void loadPage(int generation, int page, int fromId, int toId) {
+                mRequests.add(new int[]{generation, page, fromId, toId});
+            }
+        });
+    }
+
+    private void insert(int fromId, int toId) {
+        for (int id = fromId; id < toId; id++) {
+            mTable.put(id, bookmark(id));
+        }
+    }
+
+    private void reindex() {
+        BookmarkPages.Builder builder = BookmarkPages.Index.builder(PAGE_SIZE);
+        for (int id : mTable.keySet()) {
+            builder.add(id);
+        }
+        mPages.setIndex(builder.build());
+    }
+
+    /**
+     * Answer all page requests from the table, the way the repository would later on.
+     */
+    private int answer() {
+        int answered = mRequests.size();
+        for (int[] request : new ArrayList<>(mRequests)) {
+            List<LocBookmark> rows = new ArrayList<>(mTable.subMap(request[2], request[3]).values());
+            mPages.onPageLoaded(request[0], request[1], rows);
+        }
+        mRequests.clear();
+        return answered;
+    }
+
+    private int idAt(int position) {
+        LocBookmark bookmark = mPages.get(position);
+        if (bookmark == null) {
+            answer();
+            bookmark = mPages.get(position);
+        }
+        return bookmark.getId();
+    }
+
+    @Test
+    public void loadsPagesOnDemand() {
+        insert(1, 1001);
+        reindex();
+        assertEquals(1000, mPages.getCount());
+        assertNull(mPages.get(555));
+        assertNull(mPages.get(556));
+        assertEquals(1, mRequests.size());
+        assertEquals(1, answer());
+        assertEquals(556, mPages.get(555).getId());
+        assertEquals(1000, idAt(999));
+        assertEquals(1, idAt(0));
+    }
+
+    @Test
+    public void keepsOnlyRecentPages() {
+        insert(1, 1001);
+        reindex();
+        for (int position = 0; position < 1000; position += 7) {
+            assertEquals(position + 1, idAt(position));
+        }
+        assertEquals(CACHED_PAGES, mPages.getCachedPageCount());
+    }
+
+    @Test
+    public void deltaAdjustsCountsAndCachedPages() {
+        insert(1, 101);
+        reindex();
+        assertEquals(1, idAt(0));
+        // delete from a cached and an uncached page, then append past the full last page
+        mTable.remove(5);
+        mTable.remove(55);
+        insert(101, 106);
+        BookmarkDelta delta = new BookmarkDelta(new int[]{101, 102, 103, 104, 105}, null, new int[]{5, 55});
+        assertTrue(mPages.applyDelta(delta, new ArrayList<>(mTable.subMap(101, 106).values())));
+        assertEquals(103, mPages.getCount());
+        assertEquals(6, mPages.get(4).getId());
+        assertEquals(57, idAt(54));
+        assertEquals(105, idAt(102));
+        assertEquals(101, idAt(98));
+    }
+
+    @Test
+    public void updatePatchesCachedRow() {
+        insert(1, 21);
+        reindex();
+        assertEquals(3, idAt(2));
+        LocBookmark renamed = bookmark(3);
+        renamed.setName("renamed");
+        mTable.put(3, renamed);
+        assertTrue(mPages.applyDelta(new BookmarkDelta(null, new int[]{3}, null),
+                Collections.singletonList(renamed)));
+        assertEquals("renamed", mPages.get(2).getName());
+        assertEquals(20, mPages.getCount());
+    }
+
+    @Test
+    public void changeDuringLoadAsksAgain() {
+        insert(1, 31);
+        reindex();
+        assertNull(mPages.get(15));
+        mTable.remove(12);
+        mPages.applyDelta(new BookmarkDelta(null, null, new int[]{12}), null);
+        // the answer to the first request may predate the delete and is dropped
+        assertEquals(1, answer());
+        assertNull(mPages.get(15));
+        assertEquals(1, answer());
+        assertEquals(17, mPages.get(15).getId());
+        assertEquals(29, mPages.getCount());
+    }
+
+    @Test
+    public void lopsidedPageCallsForReindex() {
+        insert(1, 11);
+        insert(100, 110);
+        reindex();
+        // a burst of inserts in the middle of the first page
+        int[] ids = new int[2 * PAGE_SIZE];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 20 + i;
+        }
+        assertFalse(mPages.applyDelta(new BookmarkDelta(ids, null, null), null));
+    }
+}
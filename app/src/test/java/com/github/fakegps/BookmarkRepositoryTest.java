@@ -0,0 +1,129 @@
+package com.github.fakegps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BookmarkRepositoryTest {
+
+    private ExecutorService mWorker;
+    private final List<Runnable> mDelivered = new ArrayList<>();
+    private BookmarkRepository mRepository;
+
+    @Before
+    public void setUp() {
+        mWorker = Executors.newSingleThreadExecutor();
+        // stands in for the main thread: callbacks queue up until the test runs them
+        mRepository = new BookmarkRepository(mWorker, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                synchronized (mDelivered) {
+                    mDelivered.add(command);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mWorker.shutdownNow();
+    }
+
+    private void runDelivered() {
+        synchronized (mDelivered) {
+            for (Runnable runnable : mDelivered) {
+                runnable.run();
+            }
+            mDelivered.clear();
+        }
+    }
+
+    @Test
+    public void tasksRunInOrderOnOneThread() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        Future<Integer> last = null;
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            last = mRepository.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    order.add(n);
+                    threads.add(Thread.currentThread());
+                    return n;
+                }
+            }, null);
+        }
+        assertEquals(99, (int) last.get(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+            assertTrue(threads.get(i) == threads.get(0));
+        }
+        assertTrue(threads.get(0) != Thread.currentThread());
+    }
+
+    @Test
+    public void callbackIsDeliveredThroughTheCallbackExecutor() throws Exception {
+        final List<String> results = new ArrayList<>();
+        Future<String> future = mRepository.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        }, new BookmarkRepository.Callback<String>() {
+            @Override
+            public void onResult(String result) {
+                results.add(result);
+            }
+        });
+        assertEquals("done", future.get(5, TimeUnit.SECONDS));
+        // done() runs right after the result is set, give it a moment
+        mWorker.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+        assertTrue(results.isEmpty());
+        runDelivered();
+        assertEquals(Collections.singletonList("done"), results);
+    }
+
+    @Test
+    public void failureSkipsCallback() throws Exception {
+        final List<String> results = new ArrayList<>();
+        Future<String> future = mRepository.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("disk full");
+            }
+        }, new BookmarkRepository.Callback<String>() {
+            @Override
+            public void onResult(String result) {
+                results.add(result);
+            }
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("task should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        runDelivered();
+        assertTrue(results.isEmpty());
+    }
+}
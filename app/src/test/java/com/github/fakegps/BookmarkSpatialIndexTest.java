@@ -0,0 +1,184 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GeoGrid;
+import com.github.fakegps.model.LocBookmark;
+import com.github.fakegps.model.LocPoint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BookmarkSpatialIndexTest {
+
+    /**
+     * The cell column and its index, in memory.
+     */
+    private static final class CellTable implements BookmarkSpatialIndex.Source {
+        final TreeMap<Integer, List<LocBookmark>> mCells = new TreeMap<>();
+        final List<LocBookmark> mAll = new ArrayList<>();
+        long mRead;
+
+        void add(double latitude, double longitude) {
+            LocBookmark bookmark = new LocBookmark("b" + mAll.size(), new LocPoint(latitude, longitude));
+            List<LocBookmark> cell = mCells.get(bookmark.getCell());
+            if (cell == null) {
+                cell = new ArrayList<>();
+                mCells.put(bookmark.getCell(), cell);
+            }
+            cell.add(bookmark);
+            mAll.add(bookmark);
+        }
+
+        @Override
+        public List<LocBookmark> query(int[] ranges, int count) {
+            List<LocBookmark> result = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                for (List<LocBookmark> cell : mCells.subMap(ranges[2 * i], true, ranges[2 * i + 1], true).values()) {
+                    result.addAll(cell);
+                }
+            }
+            mRead += result.size();
+            return result;
+        }
+    }
+
+    private static double distance(LocBookmark bookmark, double latitude, double longitude) {
+        return GreatCircleMotion.distance(latitude, longitude,
+                bookmark.getLocPoint().getLatitude(), bookmark.getLocPoint().getLongitude());
+    }
+
+    private static List<LocBookmark> bruteForceWithin(Collection<LocBookmark> all, double latitude, double longitude,
+                                                      double metres) {
+        List<LocBookmark> result = new ArrayList<>();
+        for (LocBookmark bookmark : all) {
+            if (distance(bookmark, latitude, longitude) <= metres) result.add(bookmark);
+        }
+        return result;
+    }
+
+    @Test
+    public void cellRanges_wrapAndPoles() {
+        int[] ranges = new int[2 * BookmarkSpatialIndex.MAX_RANGES];
+        // one row, across the antimeridian: two ranges
+        assertEquals(2, GeoGrid.cellRanges(10.001, 10.002, 179.995, -179.995, ranges));
+        int row = GeoGrid.latIndex(10.001) * GeoGrid.LON_CELLS;
+        assertEquals(row, ranges[0]);
+        assertEquals(row + GeoGrid.lonIndex(-179.995), ranges[1]);
+        assertEquals(row + GeoGrid.lonIndex(179.995), ranges[2]);
+        assertEquals(row + GeoGrid.LON_CELLS - 1, ranges[3]);
+        // all longitudes: whole rows, merged
+        assertEquals(1, GeoGrid.cellRanges(89.5, 90, -180, 180, ranges));
+        assertEquals(GeoGrid.latIndex(89.5) * GeoGrid.LON_CELLS, ranges[0]);
+        assertEquals(GeoGrid.LAT_CELLS * GeoGrid.LON_CELLS - 1, ranges[1]);
+        // a 50 km circle still gets one range per row
+        assertEquals(GeoGrid.latIndex(51.45) - GeoGrid.latIndex(50.55) + 1,
+                GeoGrid.cellRanges(50.55, 51.45, 19.28, 20.72, ranges));
+        assertEquals(GeoGrid.cellOf(50.55, 19.28), ranges[0]);
+        assertEquals(GeoGrid.cellOf(50.55, 20.72), ranges[1]);
+        // more rows than ranges: whole rows
+        assertEquals(1, GeoGrid.cellRanges(0, 10, 10, 10.5, ranges));
+    }
+
+    @Test
+    public void withinRadius_matchesBruteForce() {
+        CellTable table = new CellTable();
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            table.add(48 + random.nextDouble() * 0.5, 11 + random.nextDouble() * 0.5);
+        }
+        // around the antimeridian and a pole as well
+        for (int i = 0; i < 2000; i++) {
+            table.add(-16 + random.nextDouble() * 0.2, 179.9 + random.nextDouble() * 0.2);
+            table.add(89.9 + random.nextDouble() * 0.1, random.nextDouble() * 360 - 180);
+        }
+        BookmarkSpatialIndex index = new BookmarkSpatialIndex(table);
+        double[][] queries = {{48.2, 11.2, 500}, {48.25, 11.25, 5000}, {-15.9, -180, 3000}, {89.95, 0, 8000},
+                {0, 0, 100}};
+        for (double[] q : queries) {
+            List<LocBookmark> expected = bruteForceWithin(table.mAll, q[0], q[1], q[2]);
+            List<LocBookmark> actual = index.withinRadius(q[0], q[1], q[2]);
+            assertEquals("query " + q[0] + "," + q[1] + " r=" + q[2], expected.size(), actual.size());
+            for (int i = 1; i < actual.size(); i++) {
+                assertTrue(distance(actual.get(i - 1), q[0], q[1]) <= distance(actual.get(i), q[0], q[1]));
+            }
+        }
+    }
+
+    @Test
+    public void nearest_matchesBruteForce() {
+        CellTable table = new CellTable();
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            table.add(random.nextDouble() * 20 + 40, random.nextDouble() * 20);
+        }
+        BookmarkSpatialIndex index = new BookmarkSpatialIndex(table);
+        for (int k : new int[]{1, 10, 100}) {
+            double latitude = 50.123, longitude = 9.876;
+            List<LocBookmark> nearest = index.nearest(latitude, longitude, k);
+            assertEquals(k, nearest.size());
+            // the k-th nearest is not farther than any point left out
+            double kth = distance(nearest.get(k - 1), latitude, longitude);
+            assertEquals(k, bruteForceWithin(table.mAll, latitude, longitude, kth).size());
+        }
+        // far away from everything: the radius keeps growing
+        assertEquals(3, index.nearest(-60, -120, 3).size());
+        // more than there is
+        assertEquals(20000, index.nearest(50, 10, 50000).size());
+    }
+
+    @Test
+    public void nearest_readsOnlyTheNeighbourhood() {
+        CellTable table = new CellTable();
+        Random random = new Random(7);
+        // 500k points over a 2 x 2 degree area, ~12 per cell
+        for (int i = 0; i < 500000; i++) {
+            table.add(52 + random.nextDouble() * 2, 13 + random.nextDouble() * 2);
+        }
+        BookmarkSpatialIndex index = new BookmarkSpatialIndex(table);
+        for (int i = 0; i < 20; i++) {
+            index.nearest(53, 14, 10);
+        }
+        table.mRead = 0;
+        long start = System.nanoTime();
+        int queries = 200;
+        for (int i = 0; i < queries; i++) {
+            assertEquals(10, index.nearest(52.5 + i * 0.004, 13.5 + i * 0.004, 10).size());
+        }
+        long perQuery = (System.nanoTime() - start) / queries;
+        long read = table.mRead / queries;
+        System.out.println("nearest-10 of 500k: " + perQuery / 1000 + " us, " + read + " rows read per query");
+        assertTrue("read " + read, read < 10000);
+    }
+
+    @Test
+    public void withinRadius50km_readsTheBoxNotTheLatitudeBand() {
+        CellTable table = new CellTable();
+        Random random = new Random(11);
+        // 200k points over a 2 x 40 degree band
+        for (int i = 0; i < 200000; i++) {
+            table.add(50 + random.nextDouble() * 2, random.nextDouble() * 40);
+        }
+        BookmarkSpatialIndex index = new BookmarkSpatialIndex(table);
+        assertEquals(bruteForceWithin(table.mAll, 51, 20, 50000).size(), index.withinRadius(51, 20, 50000).size());
+        table.mRead = 0;
+        long start = System.nanoTime();
+        int queries = 20;
+        int found = 0;
+        for (int i = 0; i < queries; i++) {
+            found += index.withinRadius(51, 10 + i, 50000).size();
+        }
+        long perQuery = (System.nanoTime() - start) / queries;
+        long read = table.mRead / queries;
+        System.out.println("within 50 km of 200k: " + perQuery / 1000 + " us, " + read + " rows read, "
+                + found / queries + " hits per query");
+        // the bounding box holds ~1.6% of the points, its latitude band ~45%
+        assertTrue("read " + read, read < 12000);
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import de.taimos.gpsd4java.types.ENMEAMode;
+import de.taimos.gpsd4java.types.TPVObject;
+import tiger.radio.loggerlibrary.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM microbenchmark of the whole fix path at the release log level: a report from either
+ * parser through {@link LocationThread.SourceListener}, the dispatcher and publishFix, with
+ * the notification texts and the location report. After warm-up it must not allocate.
+ */
+public class FixPathAllocationTest {
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    @After
+    public void tearDown() {
+        Logger.setLevel(Log.VERBOSE);
+    }
+
+    @Test
+    public void sourceToPublish_doesNotAllocate() {
+        Logger.setLevel(Log.INFO);
+        NotificationPublisher notifications = new NotificationPublisher(new Handler(),
+                new NotificationPublisher.Target() {
+                    @Override
+                    public void post(String contentText, String subText) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+        JoyStickManager.get().init(notifications);
+        LocationThread thread = new LocationThread(JoyStickManager.get(), new Handler());
+        LocationThread.SourceListener listener = thread.new SourceListener(0);
+
+        TPVObject[] tpvs = new TPVObject[64];
+        GpsFix[] fixes = new GpsFix[64];
+        for (int i = 0; i < tpvs.length; i++) {
+            TPVObject tpv = new TPVObject();
+            tpv.setMode(ENMEAMode.ThreeDimensional);
+            tpv.setLatitude(48.0 + i * 0.0001);
+            tpv.setLongitude(11.0 - i * 0.0001);
+            tpv.setAltitude(520.0);
+            tpv.setLatitudeError(3.0);
+            tpv.setLongitudeError(4.0);
+            tpv.setSpeed(1.5);
+            tpv.setCourse(90.0);
+            tpv.setTimestamp(1.5e9 + i);
+            tpvs[i] = tpv;
+            fixes[i] = new GpsFix();
+            fixes[i].set(tpv, i);
+        }
+
+        run(thread, listener, tpvs, fixes, WARMUP);
+
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long published = thread.getDispatcher().getPublishedCount();
+        Metrics.Counter reported = Metrics.get().counter("location.fixes_published");
+        Metrics.Counter unavailable = Metrics.get().counter("location.reports_unavailable");
+        long reportedBefore = reported.get();
+        long unavailableBefore = unavailable.get();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        run(thread, listener, tpvs, fixes, ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        System.out.println("fix path: " + (elapsed / ITERATIONS) + " ns/fix, "
+                + allocated + " bytes allocated over " + ITERATIONS + " fixes");
+        assertEquals(ITERATIONS, thread.getDispatcher().getPublishedCount() - published);
+        // no location service on the JVM: nothing reached one, and nothing is counted as if it had
+        assertEquals(reportedBefore, reported.get());
+        assertEquals(ITERATIONS, unavailable.get() - unavailableBefore);
+        // tolerate the odd JIT/TLAB bookkeeping, but nothing proportional to the fix count
+        assertTrue("allocated " + allocated + " bytes", allocated < ITERATIONS / 100);
+    }
+
+    private static void run(LocationThread thread, LocationThread.SourceListener listener, TPVObject[] tpvs,
+                            GpsFix[] fixes, int count) {
+        FixDispatcher dispatcher = thread.getDispatcher();
+        for (int i = 0; i < count; i++) {
+            int index = i & (tpvs.length - 1);
+            // gpsd4java's objects and the fast parser's fixes, in turn
+            if ((i & 1) == 0) {
+                listener.handleTPV(tpvs[index]);
+            } else {
+                listener.onTpv(fixes[index]);
+            }
+            dispatcher.drain();
+        }
+    }
+}
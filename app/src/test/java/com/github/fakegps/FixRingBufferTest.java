@@ -0,0 +1,64 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FixRingBufferTest {
+
+    @Test
+    public void overflow_dropsOldest() {
+        FixRingBuffer buffer = new FixRingBuffer(3);
+        assertEquals(4, buffer.capacity());
+        GpsFix fix = new GpsFix();
+        for (int i = 0; i < 6; i++) {
+            fix.setTime(i);
+            buffer.offer(fix);
+        }
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(4, buffer.size());
+        for (int i = 2; i < 6; i++) {
+            assertTrue(buffer.poll(fix));
+            assertEquals(i, fix.getTime());
+        }
+        assertFalse(buffer.poll(fix));
+    }
+
+    @Test
+    public void concurrent_deliversInOrderWithoutTornFixes() throws Exception {
+        final FixRingBuffer buffer = new FixRingBuffer(4);
+        final int count = 2000000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                GpsFix fix = new GpsFix();
+                for (int i = 1; i <= count; i++) {
+                    fix.setTime(i);
+                    fix.setLatitude(i);
+                    fix.setLongitude(-i);
+                    buffer.offer(fix);
+                }
+            }
+        });
+        producer.start();
+
+        GpsFix fix = new GpsFix();
+        long last = 0;
+        long received = 0;
+        while (last < count) {
+            if (buffer.poll(fix)) {
+                assertTrue(fix.getTime() > last);
+                assertEquals(fix.getTime(), (long) fix.getLatitude());
+                assertEquals(-fix.getTime(), (long) fix.getLongitude());
+                last = fix.getTime();
+                received++;
+            }
+        }
+        producer.join();
+        assertEquals(count, received + buffer.getDroppedCount());
+    }
+}
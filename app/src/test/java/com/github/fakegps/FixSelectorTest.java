@@ -0,0 +1,161 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixSelectorTest {
+
+    private static class CollectingSink implements FixSink {
+        final List<GpsFix> fixes = new ArrayList<>();
+
+        @Override
+        public void offer(GpsFix fix) {
+            GpsFix copy = new GpsFix();
+            copy.set(fix);
+            fixes.add(copy);
+        }
+    }
+
+    private static GpsFix fix(long time, float accuracy, boolean valid) {
+        GpsFix fix = new GpsFix();
+        fix.setValid(valid);
+        fix.setTime(time);
+        fix.setAccuracy(accuracy);
+        fix.setLatitude(accuracy);
+        return fix;
+    }
+
+    @Test
+    public void bestFixPerWindow_publishedWhenAllSourcesReported() {
+        CollectingSink sink = new CollectingSink();
+        FixSelector selector = new FixSelector(new String[]{"a", "b", "c"}, sink, null);
+
+        selector.offer(0, fix(10000, 5, true));
+        selector.offer(1, fix(10000, 2, true));
+        assertEquals(0, sink.fixes.size());
+        selector.offer(2, fix(10000, 1, false)); // invalid never wins
+        assertEquals(0, sink.fixes.size());
+        selector.offer(2, fix(10000, 3, true));
+        assertEquals(1, sink.fixes.size());
+        assertEquals(2, sink.fixes.get(0).getAccuracy(), 0);
+
+        assertEquals(1, selector.getStats(1).getSelectedCount());
+        assertEquals(2, selector.getStats(2).getFixCount());
+        assertEquals(1, selector.getStats(2).getValidCount());
+    }
+
+    @Test
+    public void unknownAccuracy_ranksWorstAndStaysOutOfTheMean() {
+        CollectingSink sink = new CollectingSink();
+        FixSelector selector = new FixSelector(new String[]{"a", "b", "c"}, sink, null);
+
+        // the fix without accuracy arrives first
+        selector.offer(0, fix(10000, Float.NaN, true));
+        selector.offer(1, fix(10000, 8, true));
+        selector.offer(2, fix(10000, 3, true));
+        assertEquals(1, sink.fixes.size());
+        assertEquals(3, sink.fixes.get(0).getAccuracy(), 0);
+
+        // alone in its window it still wins
+        selector.offer(0, fix(11000, Float.NaN, true));
+        selector.flush();
+        assertEquals(2, sink.fixes.size());
+        assertEquals(1, selector.getStats(0).getSelectedCount());
+
+        selector.offer(0, fix(12000, 4, true));
+        assertEquals(3, selector.getStats(0).getValidCount());
+        assertEquals(4, selector.getStats(0).getMeanAccuracy(), 0);
+        assertEquals(8, selector.getStats(1).getMeanAccuracy(), 0);
+    }
+
+    @Test
+    public void laterWindowClosesEarlierOne_lateFixesDropped() {
+        CollectingSink sink = new CollectingSink();
+        FixSelector selector = new FixSelector(new String[]{"a", "b"}, sink, null);
+
+        selector.offer(0, fix(10000, 4, true));
+        // source b is silent for window 10 and already reports window 11
+        selector.offer(1, fix(11000, 6, true));
+        assertEquals(1, sink.fixes.size());
+        assertEquals(10000, sink.fixes.get(0).getTime());
+
+        selector.offer(1, fix(10000, 1, true));
+        assertEquals(1, selector.getStats(1).getLateCount());
+
+        selector.flush();
+        assertEquals(2, sink.fixes.size());
+        assertEquals(11000, sink.fixes.get(1).getTime());
+        assertEquals(2, selector.getPublishedCount());
+    }
+
+    @Test
+    public void graceTimeout_closesOnlyTheWindowItWasPostedFor() {
+        CollectingSink sink = new CollectingSink();
+        FixSelector selector = new FixSelector(new String[]{"a", "b"}, sink, null);
+
+        selector.offer(0, fix(10000, 4, true));
+        selector.offer(1, fix(11000, 6, true));
+        assertEquals(1, sink.fixes.size());
+        // the timer of window 10 fires late, with window 11 open for a second
+        selector.graceTimeout(10);
+        assertEquals(1, sink.fixes.size());
+
+        selector.graceTimeout(11);
+        assertEquals(2, sink.fixes.size());
+        assertEquals(11000, sink.fixes.get(1).getTime());
+        // closed already
+        selector.graceTimeout(11);
+        selector.offer(0, fix(11000, 2, true));
+        assertEquals(2, sink.fixes.size());
+        assertEquals(1, selector.getStats(0).getLateCount());
+    }
+
+    @Test
+    public void concurrentSources_everyWindowPublishedOnce() throws Exception {
+        final int sources = 4;
+        final int windows = 20000;
+        CollectingSink sink = new CollectingSink();
+        String[] names = new String[sources];
+        for (int i = 0; i < sources; i++) names[i] = "s" + i;
+        final FixSelector selector = new FixSelector(names, sink, null);
+
+        Thread[] threads = new Thread[sources];
+        for (int i = 0; i < sources; i++) {
+            final int source = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    GpsFix fix = new GpsFix();
+                    fix.setValid(true);
+                    for (int w = 0; w < windows; w++) {
+                        fix.setTime(w * FixSelector.WINDOW_DEFAULT);
+                        fix.setAccuracy(source + 1);
+                        selector.offer(source, fix);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        selector.flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("FixSelector: %d sources, %.0f fixes/s", sources, sources * windows / seconds));
+        System.out.println(selector);
+
+        assertEquals(windows, sink.fixes.size());
+        long total = 0;
+        for (int i = 0; i < sources; i++) {
+            FixSelector.SourceStats stats = selector.getStats(i);
+            assertEquals(windows, stats.getFixCount());
+            total += stats.getSelectedCount();
+        }
+        assertEquals(windows, total);
+    }
+}
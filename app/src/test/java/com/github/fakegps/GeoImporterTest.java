@@ -0,0 +1,262 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.LocBookmark;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeoImporterTest {
+
+    private static final String GPX = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<gpx version=\"1.1\" creator=\"test\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+            + "  <wpt lat=\"48.137154\" lon=\"11.576124\"><name>Marienplatz</name></wpt>\n"
+            + "  <wpt lat=\"48.1351\" lon=\"11.5820\"></wpt>\n"
+            + "  <trk><name>walk</name><trkseg>\n"
+            + "    <trkpt lat=\"48.1\" lon=\"11.5\"><ele>520</ele><time>2019-05-11T10:00:00Z</time></trkpt>\n"
+            + "    <trkpt lat=\"48.2\" lon=\"11.6\"><time>2019-05-11T12:00:01.500+02:00</time></trkpt>\n"
+            + "    <trkpt lat=\"bogus\" lon=\"11.6\"/>\n"
+            + "  </trkseg></trk>\n"
+            + "</gpx>\n";
+
+    private static final String KML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\"><Document>\n"
+            + "  <Placemark><name>Home</name><Point><coordinates>11.576124,48.137154,0</coordinates></Point></Placemark>\n"
+            + "  <Placemark><name>Line</name><LineString><coordinates>\n"
+            + "    11.0,48.0,0 11.1,48.1,0\n    11.2,48.2\n"
+            + "  </coordinates></LineString></Placemark>\n"
+            + "  <Placemark><gx:Track><when>2019-05-11T10:00:00Z</when><when>2019-05-11T10:00:01Z</when>"
+            + "<gx:coord>11.3 48.3 500</gx:coord><gx:coord>11.4 48.4 501</gx:coord></gx:Track></Placemark>\n"
+            + "</Document></kml>\n";
+
+    private static final String NMEA = nmea("GPRMC,100000.00,A,4807.0292,N,01134.5674,E,0.5,90.0,110519,,,A")
+            + nmea("GPGGA,100000.00,4807.0292,N,01134.5674,E,1,08,1.0,520.0,M,47.0,M,,")
+            + nmea("GPGGA,100001.00,4807.0300,N,01134.5700,E,1,08,1.0,520.0,M,47.0,M,,")
+            + nmea("GPRMC,100002.00,V,,,,,,,110519,,,N")
+            + "$GPRMC,100002.50,A,4807.0292,N,01134.5674,E,0.5,90.0,110519,,,A*00\n"
+            + "$GPRMC,100002.70,A,4807.0292,N,01134.5674,E,0.5,90.0,110519,,,A*Z?\n"
+            + nmea("GNRMC,100003.00,A,3352.0000,S,15112.0000,W,0.5,90.0,110519,,,A")
+            + "garbage line\n";
+
+    private static String nmea(String body) {
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum ^= body.charAt(i);
+        }
+        return String.format("$%s*%02X\r\n", body, sum);
+    }
+
+    private static long utc(int hour, int minute, int second) {
+        return GpsdFastParser.daysFromCivil(2019, 5, 11) * 86400000L + ((hour * 60 + minute) * 60 + second) * 1000L;
+    }
+
+    @Test
+    public void gpx_waypointsAndTrack() throws Exception {
+        GeoImporter.RouteCollector collector = new GeoImporter.RouteCollector();
+        GeoImporter importer = new GeoImporter(collector);
+        importer.importGpx(new KXmlParser(), new StringReader(GPX));
+
+        List<LocBookmark> bookmarks = collector.getBookmarks();
+        assertEquals(2, bookmarks.size());
+        assertEquals("Marienplatz", bookmarks.get(0).getName());
+        assertEquals(48.137154, bookmarks.get(0).getLocPoint().getLatitude(), 0);
+        assertEquals("Imported 2", bookmarks.get(1).getName());
+
+        assertEquals(2, collector.getPointCount());
+        assertEquals(1, importer.getSkippedCount());
+        Route route = collector.toRoute(Route.SPEED_DEFAULT);
+        assertEquals(48.2, route.getLatitude(1), 0);
+        // timestamps are used: 10:00:00Z to 10:00:01.5Z
+        assertEquals(1.5, route.getDuration(), 1e-9);
+        assertEquals(utc(10, 0, 1) + 500, GeoImporter.parseTime("2019-05-11T12:00:01.500+02:00"));
+    }
+
+    @Test
+    public void kml_placemarksLineStringAndTrack() throws Exception {
+        GeoImporter.RouteCollector collector = new GeoImporter.RouteCollector();
+        GeoImporter importer = new GeoImporter(collector);
+        importer.importKml(new KXmlParser(), new StringReader(KML));
+
+        assertEquals(1, collector.getBookmarks().size());
+        assertEquals("Home", collector.getBookmarks().get(0).getName());
+        assertEquals(11.576124, collector.getBookmarks().get(0).getLocPoint().getLongitude(), 0);
+        assertEquals(5, collector.getPointCount());
+        Route route = collector.toRoute(10);
+        assertEquals(48.2, route.getLatitude(2), 0);
+        assertEquals(11.4, route.getLongitude(4), 0);
+    }
+
+    @Test
+    public void nmea_rmcAndGga() throws Exception {
+        final long[] times = new long[8];
+        final double[] lats = new double[8];
+        final int[] count = new int[1];
+        GeoImporter importer = new GeoImporter(new GeoImporter.Callback() {
+            @Override
+            public void onPoints(double[] latitudes, double[] longitudes, long[] t, int n) {
+                for (int i = 0; i < n; i++) {
+                    lats[count[0]] = latitudes[i];
+                    times[count[0]++] = t[i];
+                }
+            }
+
+            @Override
+            public void onBookmarks(List<LocBookmark> bookmarks) {
+            }
+        });
+        importer.importNmea(new StringReader(NMEA));
+
+        // RMC, the GGA of the next second, the southern/western RMC;
+        // the void RMC, the bad and the corrupt checksum and the GGA of the RMC's epoch are dropped
+        assertEquals(3, count[0]);
+        assertEquals(2, importer.getSkippedCount());
+        assertEquals(48 + 7.0292 / 60, lats[0], 1e-9);
+        assertEquals(utc(10, 0, 0), times[0]);
+        assertEquals(utc(10, 0, 1), times[1]);
+        assertEquals(-(33 + 52.0 / 60), lats[2], 1e-9);
+        assertEquals(-(151 + 12.0 / 60), GeoImporter.parseNmeaAngle("15112.0000", "W"), 1e-9);
+    }
+
+    @Test
+    public void nmea_tenHertz_oneFixPerEpoch() throws Exception {
+        final long[] times = new long[8];
+        final double[] lats = new double[8];
+        final int[] count = new int[1];
+        GeoImporter importer = new GeoImporter(new GeoImporter.Callback() {
+            @Override
+            public void onPoints(double[] latitudes, double[] longitudes, long[] t, int n) {
+                for (int i = 0; i < n; i++) {
+                    lats[count[0]] = latitudes[i];
+                    times[count[0]++] = t[i];
+                }
+            }
+
+            @Override
+            public void onBookmarks(List<LocBookmark> bookmarks) {
+            }
+        });
+        // GGA first in each epoch, as most receivers send them; the RMC replaces it
+        importer.importNmea(new StringReader(
+                nmea("GPGGA,100000.00,4807.0000,N,01134.0000,E,1,08,1.0,520.0,M,47.0,M,,")
+                        + nmea("GPRMC,100000.00,A,4807.0100,N,01134.0000,E,0.5,90.0,110519,,,A")
+                        + nmea("GPGGA,100000.10,4807.0000,N,01134.0000,E,1,08,1.0,520.0,M,47.0,M,,")
+                        + nmea("GPRMC,100000.10,A,4807.0200,N,01134.0000,E,0.5,90.0,110519,,,A")
+                        + nmea("GPGGA,100000.20,4807.0300,N,01134.0000,E,1,08,1.0,520.0,M,47.0,M,,")));
+
+        assertEquals(3, count[0]);
+        assertEquals(utc(10, 0, 0), times[0]);
+        assertEquals(utc(10, 0, 0) + 100, times[1]);
+        assertEquals(utc(10, 0, 0) + 200, times[2]);
+        assertEquals(48 + 7.01 / 60, lats[0], 1e-9);
+        assertEquals(48 + 7.02 / 60, lats[1], 1e-9);
+        assertEquals(48 + 7.03 / 60, lats[2], 1e-9);
+    }
+
+    @Test
+    public void kml_interleavedTrack_keepsItsTimes() throws Exception {
+        final long[] times = new long[4];
+        final int[] count = new int[1];
+        GeoImporter importer = new GeoImporter(new GeoImporter.Callback() {
+            @Override
+            public void onPoints(double[] latitudes, double[] longitudes, long[] t, int n) {
+                for (int i = 0; i < n; i++) {
+                    times[count[0]++] = t[i];
+                }
+            }
+
+            @Override
+            public void onBookmarks(List<LocBookmark> bookmarks) {
+            }
+        });
+        importer.importKml(new KXmlParser(), new StringReader("<kml><Placemark><gx:Track>"
+                + "<when>2019-05-11T10:00:00Z</when><gx:coord>11.3 48.3 500</gx:coord>"
+                + "<when>2019-05-11T10:00:01Z</when><gx:coord>11.4 48.4 501</gx:coord>"
+                + "<when>2019-05-11T10:00:02Z</when><when>2019-05-11T10:00:03Z</when>"
+                + "<gx:coord>11.5 48.5 502</gx:coord><gx:coord>11.6 48.6 503</gx:coord>"
+                + "</gx:Track></Placemark></kml>"));
+
+        assertEquals(4, count[0]);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(utc(10, 0, i), times[i]);
+        }
+    }
+
+    @Test
+    public void hugeGpx_isStreamedInBatches() throws Exception {
+        final int points = 300000;
+        final int[] batches = new int[1];
+        final int[] maxBatch = new int[1];
+        GeoImporter importer = new GeoImporter(new GeoImporter.Callback() {
+            @Override
+            public void onPoints(double[] latitudes, double[] longitudes, long[] times, int count) {
+                batches[0]++;
+                maxBatch[0] = Math.max(maxBatch[0], count);
+            }
+
+            @Override
+            public void onBookmarks(List<LocBookmark> bookmarks) {
+            }
+        });
+        long start = System.nanoTime();
+        importer.importGpx(new KXmlParser(), new GeneratedGpx(points));
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("GeoImporter: " + points + " trkpt in " + millis + " ms, " + batches[0] + " batches");
+
+        assertEquals(points, importer.getPointCount());
+        assertEquals(GeoImporter.BATCH_DEFAULT, maxBatch[0]);
+        assertEquals((points + GeoImporter.BATCH_DEFAULT - 1) / GeoImporter.BATCH_DEFAULT, batches[0]);
+    }
+
+    @Test
+    public void detect_byExtension() {
+        assertEquals(GeoImporter.Format.GPX, GeoImporter.detect("a.GPX"));
+        assertEquals(GeoImporter.Format.KML, GeoImporter.detect("b.kml"));
+        assertEquals(GeoImporter.Format.NMEA, GeoImporter.detect("c.nmea"));
+        assertNull(new GeoImporter.RouteCollector().toRoute(1));
+        assertTrue(GeoImporter.parseTime("not a time") == 0);
+    }
+
+    /**
+     * A GPX document generated on the fly, so the test itself never holds it in memory.
+     */
+    private static class GeneratedGpx extends Reader {
+        private final int mPoints;
+        private int mNext = -1;
+        private String mChunk = "<?xml version=\"1.0\"?><gpx><trk><trkseg>";
+        private int mPos;
+
+        GeneratedGpx(int points) {
+            mPoints = points;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mPos == mChunk.length()) {
+                mNext++;
+                if (mNext < mPoints) {
+                    mChunk = "<trkpt lat=\"" + (48 + mNext * 1e-6) + "\" lon=\"11.5\"><time>2019-05-11T10:00:00Z</time></trkpt>\n";
+                } else if (mNext == mPoints) {
+                    mChunk = "</trkseg></trk></gpx>";
+                } else {
+                    return -1;
+                }
+                mPos = 0;
+            }
+            int n = Math.min(length, mChunk.length() - mPos);
+            mChunk.getChars(mPos, mPos + n, buffer, offset);
+            mPos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import de.taimos.gpsd4java.backend.ResultParser;
+import de.taimos.gpsd4java.types.IGPSObject;
+import de.taimos.gpsd4java.types.TPVObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GpsdFastParserTest {
+
+    private static final int ROUNDS = 5;
+    private static final int REPEAT = 2000;
+
+    private static class RecordingCallback implements GpsdFastParser.Callback {
+        final GpsFix last = new GpsFix();
+        int tpvCount;
+        int validCount;
+        int discarded;
+
+        @Override
+        public void onTpv(GpsFix fix) {
+            last.set(fix);
+            tpvCount++;
+            if (fix.isValid()) validCount++;
+        }
+
+        @Override
+        public void onDiscarded(int reportClass) {
+            discarded++;
+        }
+    }
+
+    static List<String> readSession() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                GpsdFastParserTest.class.getClassLoader().getResourceAsStream("gpsd_session.log"), "UTF-8"));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("{\"class\":\"TPV\"") || line.startsWith("{\"class\":\"SKY\"")) {
+                lines.add(line);
+            }
+        }
+        reader.close();
+        return lines;
+    }
+
+    @Test
+    public void tpv_fieldsAreExtracted() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        GpsdFastParser parser = new GpsdFastParser(callback);
+        assertSame(GpsdFastParser.CONSUMED, parser.parse("{\"class\":\"TPV\",\"device\":\"/dev/ttyACM0\",\"mode\":3,"
+                + "\"time\":\"2019-05-11T10:01:02.250Z\",\"ept\":0.005,\"lat\":48.137154321,"
+                + "\"lon\":-11.5761,\"alt\":519.3,\"epx\":3.0,\"epy\":5.0,\"track\":271.5,\"speed\":1.25,"
+                + "\"climb\":1.2e-2}"));
+        GpsFix fix = callback.last;
+        assertTrue(fix.isValid());
+        assertEquals(48.137154321, fix.getLatitude(), 0);
+        assertEquals(-11.5761, fix.getLongitude(), 0);
+        assertEquals(519.3, fix.getAltitude(), 0);
+        assertEquals(4.0f, fix.getAccuracy(), 0);
+        assertEquals(271.5f, fix.getBearing(), 0);
+        assertEquals(1.25f, fix.getSpeed(), 0);
+
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(2019, Calendar.MAY, 11, 10, 1, 2);
+        assertEquals(calendar.getTimeInMillis() + 250, fix.getTime());
+    }
+
+    @Test
+    public void noFix_andOtherClasses() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        GpsdFastParser parser = new GpsdFastParser(callback);
+        parser.parse("{\"class\":\"TPV\",\"device\":\"/dev/ttyACM0\",\"mode\":1}");
+        assertEquals(1, callback.tpvCount);
+        assertFalse(callback.last.isValid());
+        assertTrue(Double.isNaN(callback.last.getLatitude()));
+
+        assertSame(GpsdFastParser.CONSUMED,
+                parser.parse("{\"class\":\"SKY\",\"satellites\":[{\"PRN\":2,\"used\":true}]}"));
+        assertSame(GpsdFastParser.CONSUMED, parser.parse("{\"class\":\"SUBFRAME\",\"frame\":4}"));
+        assertEquals(2, callback.discarded);
+        assertEquals(GpsdFastParser.CLASS_OTHER, GpsdFastParser.scanClass("{\"class\":\"VERSION\"}"));
+    }
+
+    @Test
+    public void recordedSession_matchesResultParserAndIsFaster() throws Exception {
+        List<String> lines = readSession();
+        RecordingCallback callback = new RecordingCallback();
+        GpsdFastParser fastParser = new GpsdFastParser(callback);
+        ResultParser resultParser = new ResultParser();
+
+        // field by field against gpsd4java's own parse of every TPV
+        RecordingCallback checked = new RecordingCallback();
+        GpsdFastParser checkedParser = new GpsdFastParser(checked);
+        GpsFix expected = new GpsFix();
+        int compared = 0;
+        for (String line : lines) {
+            IGPSObject object = resultParser.parse(line);
+            checkedParser.parse(line);
+            if (!(object instanceof TPVObject)) continue;
+            expected.set((TPVObject) object, 0);
+            GpsFix actual = checked.last;
+            assertEquals(line, expected.isValid(), actual.isValid());
+            assertEquals(line, expected.getLatitude(), actual.getLatitude(), 1e-12);
+            assertEquals(line, expected.getLongitude(), actual.getLongitude(), 1e-12);
+            assertEquals(line, expected.getAltitude(), actual.getAltitude(), 1e-9);
+            assertEquals(line, expected.getAccuracy(), actual.getAccuracy(), 1e-6);
+            assertEquals(line, expected.getSpeed(), actual.getSpeed(), 1e-6);
+            assertEquals(line, expected.getBearing(), actual.getBearing(), 1e-6);
+            assertEquals(line, expected.getTime(), actual.getTime(), 1);
+            compared++;
+        }
+        assertEquals(checked.tpvCount, compared);
+
+        long fast = 0, reference = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < REPEAT; r++) {
+                for (String line : lines) {
+                    fastParser.parse(line);
+                }
+            }
+            fast = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < REPEAT; r++) {
+                for (String line : lines) {
+                    resultParser.parse(line);
+                }
+            }
+            reference = System.nanoTime() - start;
+        }
+        assertEquals(ROUNDS * REPEAT * 60, callback.validCount);
+
+        long count = (long) REPEAT * lines.size();
+        System.out.println("gpsd session (" + lines.size() + " TPV/SKY lines): GpsdFastParser "
+                + fast / count + " ns/line, ResultParser " + reference / count + " ns/line");
+    }
+}
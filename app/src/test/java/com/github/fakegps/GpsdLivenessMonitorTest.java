@@ -0,0 +1,82 @@
+package com.github.fakegps;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GpsdLivenessMonitorTest {
+
+    @Test
+    public void steadyStream_neverReconnects() {
+        GpsdLivenessMonitor monitor = new GpsdLivenessMonitor(5000, 1000, 60000);
+        monitor.onConnect(0);
+        for (long now = 0; now < 60000; now += 1000) {
+            monitor.onObject(now);
+            assertFalse(monitor.shouldReconnect(now + 500));
+        }
+    }
+
+    @Test
+    public void silence_reconnectsWithExponentialBackoff() {
+        GpsdLivenessMonitor monitor = new GpsdLivenessMonitor(5000, 1000, 16000);
+        monitor.onConnect(0);
+        monitor.onObject(1000);
+        long last = -1;
+        int attempts = 0;
+        long[] gaps = new long[8];
+        for (long now = 1000; now < 200000; now += 100) {
+            if (monitor.shouldReconnect(now)) {
+                if (last >= 0) {
+                    gaps[attempts - 1] = now - last;
+                }
+                last = now;
+                attempts++;
+                if (attempts > gaps.length) break;
+            }
+        }
+        // first attempt after 5 s of silence, then max(timeout, backoff) apart
+        assertEquals(5000, gaps[0]);
+        assertEquals(5000, gaps[1]);
+        assertEquals(5000, gaps[2]);
+        assertEquals(8000, gaps[3]);
+        assertEquals(16000, gaps[4]);
+        assertEquals(16000, gaps[5]);
+    }
+
+    @Test
+    public void dataAfterReconnect_resetsBackoff() {
+        GpsdLivenessMonitor monitor = new GpsdLivenessMonitor(5000, 1000, 60000);
+        monitor.onConnect(0);
+        assertTrue(monitor.shouldReconnect(5000));
+        assertTrue(monitor.shouldReconnect(10000));
+        assertEquals(2, monitor.getAttempts());
+        monitor.onObject(11000);
+        assertFalse(monitor.shouldReconnect(12000));
+        assertEquals(0, monitor.getAttempts());
+    }
+
+    @Test
+    public void jitter_staysWithinHalfAndFullBackoff() {
+        GpsdLivenessMonitor monitor = new GpsdLivenessMonitor(1000, 4000, 64000, new Random(42));
+        monitor.onConnect(0);
+        long last = -1;
+        int attempts = 0;
+        for (long now = 0; now < 2000000 && attempts < 10; now += 10) {
+            if (monitor.shouldReconnect(now)) {
+                if (last >= 0) {
+                    long nominal = monitor.getBackoff(attempts);
+                    long gap = now - last;
+                    assertTrue("gap " + gap + " nominal " + nominal, gap >= Math.max(1000, nominal / 2));
+                    assertTrue("gap " + gap + " nominal " + nominal, gap <= Math.max(1000, nominal) + 10);
+                }
+                last = now;
+                attempts++;
+            }
+        }
+        assertEquals(10, attempts);
+    }
+}
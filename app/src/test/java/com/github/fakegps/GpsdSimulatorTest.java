@@ -0,0 +1,189 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end harness: simulator -> loopback socket -> {@link GpsdConnection} ->
+ * {@link LocationThread.SourceListener} -> dispatcher -> publish.
+ */
+public class GpsdSimulatorTest {
+
+    private static final double RATE = 5000;
+    private static final long MEASURE_MILLIS = 2000;
+
+    private GpsdSimulator mSimulator;
+    private Socket mSocket;
+    private BufferedReader mReader;
+    private Writer mWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        mSimulator = new GpsdSimulator();
+        int port = mSimulator.start(0);
+        mSocket = new Socket("127.0.0.1", port);
+        mReader = new BufferedReader(new InputStreamReader(mSocket.getInputStream(), "US-ASCII"));
+        mWriter = new OutputStreamWriter(mSocket.getOutputStream(), "US-ASCII");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSocket.close();
+        mSimulator.stop();
+    }
+
+    private void send(String command) throws Exception {
+        mWriter.write(command + "\n");
+        mWriter.flush();
+    }
+
+    @Test
+    public void handshake_answersVersionWatchAndPoll() throws Exception {
+        assertTrue(mReader.readLine().startsWith("{\"class\":\"VERSION\""));
+        send("?POLL;");
+        assertTrue(mReader.readLine().startsWith("{\"class\":\"POLL\""));
+        send("?WATCH={\"enable\":true,\"json\":true};");
+        assertTrue(mReader.readLine().startsWith("{\"class\":\"DEVICES\""));
+        assertTrue(mReader.readLine().startsWith("{\"class\":\"WATCH\",\"enable\":true"));
+        String line;
+        do {
+            line = mReader.readLine();
+        } while (line.startsWith("{\"class\":\"SKY\""));
+        assertTrue(line.startsWith("{\"class\":\"TPV\""));
+    }
+
+    @Test
+    public void watch_canBeDisabledAndEnabledAgain() throws Exception {
+        mSimulator.setRate(100);
+        assertTrue(mReader.readLine().startsWith("{\"class\":\"VERSION\""));
+        for (int round = 0; round < 2; round++) {
+            send("?WATCH={\"enable\":true,\"json\":true};");
+            List<String> tpvs = new ArrayList<>();
+            String line;
+            while (tpvs.size() < 5 && (line = mReader.readLine()) != null) {
+                if (line.startsWith("{\"class\":\"TPV\"")) tpvs.add(line);
+            }
+            // 100 reports per second are 10 ms apart in gpsd time
+            GpsFix first = parse(tpvs.get(0));
+            GpsFix last = parse(tpvs.get(4));
+            assertEquals(40, last.getTime() - first.getTime(), 1);
+            send("?WATCH={\"enable\":false};");
+            do {
+                line = mReader.readLine();
+            } while (!line.startsWith("{\"class\":\"WATCH\",\"enable\":false"));
+        }
+    }
+
+    @Test
+    public void disconnectBeforeWatch_endsTheStreamer() throws Exception {
+        assertTrue(mReader.readLine().startsWith("{\"class\":\"VERSION\""));
+        mSocket.close();
+        awaitNoStreamers();
+    }
+
+    @Test
+    public void stopAfterUnwatch_endsTheStreamer() throws Exception {
+        send("?WATCH={\"enable\":true,\"json\":true};");
+        send("?WATCH={\"enable\":false};");
+        String line;
+        do {
+            line = mReader.readLine();
+        } while (!line.startsWith("{\"class\":\"WATCH\",\"enable\":false"));
+        mSimulator.stop();
+        awaitNoStreamers();
+    }
+
+    private static void awaitNoStreamers() throws InterruptedException {
+        int streamers = 0;
+        for (int i = 0; i < 100; i++) {
+            streamers = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("GpsdSimulator-stream") && thread.isAlive()) streamers++;
+            }
+            if (streamers == 0) break;
+            Thread.sleep(50);
+        }
+        assertEquals(0, streamers);
+    }
+
+    private static GpsFix parse(String line) throws Exception {
+        final GpsFix parsed = new GpsFix();
+        new GpsdFastParser(new GpsdFastParser.Callback() {
+            @Override
+            public void onTpv(GpsFix fix) {
+                parsed.set(fix);
+            }
+
+            @Override
+            public void onDiscarded(int reportClass) {
+            }
+        }).parse(line);
+        return parsed;
+    }
+
+    /**
+     * Reports only, no bounds: how fast the simulator feeds a {@link GpsdConnection} into a
+     * {@link LocationThread.SourceListener}, and how long fixes wait from parse to publish.
+     */
+    @Test
+    public void throughput_fixesPerSecondAndLatency() throws Exception {
+        mSimulator.setRate(RATE);
+        JoyStickManager.get().init(new NotificationPublisher(new Handler(), new NotificationPublisher.Target() {
+            @Override
+            public void post(String contentText, String subText) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+        LocationThread thread = new LocationThread(JoyStickManager.get(), new Handler());
+        LocationThread.SourceListener listener = thread.new SourceListener(0);
+        final FixDispatcher dispatcher = thread.getDispatcher();
+        GpsdConnection connection = new GpsdConnection("127.0.0.1", mSimulator.getPort(), listener);
+        connection.setFastParserCallback(listener);
+
+        // stands in for the LocationThread looper, which a JVM test does not have
+        Thread drainer = new Thread("GpsdSimulatorTest-drain") {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    dispatcher.drain();
+                    LockSupport.parkNanos(50000);
+                }
+            }
+        };
+        drainer.start();
+        long start = System.nanoTime();
+        connection.connect();
+        Thread.sleep(MEASURE_MILLIS);
+        connection.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        drainer.interrupt();
+        drainer.join();
+        dispatcher.drain();
+
+        System.out.println(String.format("gpsd simulator: %d sent, %.0f fixes/s published, %s",
+                mSimulator.getSentCount(), dispatcher.getPublishedCount() / seconds, dispatcher));
+        assertEquals(1, connection.getConnectCount());
+        assertTrue(dispatcher.getPublishedCount() > 0);
+        assertEquals(dispatcher.getOfferedCount(), dispatcher.getPublishedCount() + dispatcher.getDroppedCount());
+    }
+}
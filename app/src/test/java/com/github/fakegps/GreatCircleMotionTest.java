@@ -0,0 +1,122 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GreatCircleMotionTest {
+
+    private static final long SECOND = 1000000000L;
+    private static final long START = 42 * SECOND;
+
+    // Munich to New York JFK, and a route across the antimeridian
+    private static final double[][] ROUTES = {
+            {48.137154, 11.576124, 40.641311, -73.778139},
+            {35.549393, 139.779839, 37.615223, -122.389977},
+            {-33.939923, 151.175276, -37.008227, 174.785060},
+            {0, 0, 0, 90},
+            {10, 20, -10, -160.0001},
+    };
+
+    @Test
+    public void quarterOfEquator_distanceAndHeading() {
+        GreatCircleMotion motion = new GreatCircleMotion(0, 0, 0, 90, 250, 0, START);
+        assertEquals(GreatCircleMotion.EARTH_RADIUS * Math.PI / 2, motion.getDistance(), 1e-6);
+        GpsFix fix = new GpsFix();
+        motion.sample(START + motion.getDurationNanos() / 2, fix);
+        assertEquals(0, fix.getLatitude(), 1e-9);
+        assertEquals(45, fix.getLongitude(), 1e-6);
+        assertEquals(90, fix.getBearing(), 1e-3);
+        assertEquals(250, fix.getSpeed(), 0);
+
+        assertEquals(0, GreatCircleMotion.initialBearing(0, 0, 90, 0), 1e-9);
+        assertEquals(270, GreatCircleMotion.initialBearing(0, 10, 0, 0), 1e-9);
+    }
+
+    @Test
+    public void longRoutes_stayOnTheGreatCircleAtTheRightDistance() {
+        GpsFix fix = new GpsFix();
+        for (double[] r : ROUTES) {
+            GreatCircleMotion motion = new GreatCircleMotion(r[0], r[1], r[2], r[3], 250, 1.5, START);
+            double total = GreatCircleMotion.distance(r[0], r[1], r[2], r[3]);
+            assertEquals(total, motion.getDistance(), total * 1e-9 + 1e-6);
+
+            motion.sample(START, fix);
+            assertEquals(GreatCircleMotion.initialBearing(r[0], r[1], r[2], r[3]), fix.getBearing(), 1e-3);
+
+            long duration = motion.getDurationNanos();
+            for (int i = 1; i < 1000; i++) {
+                long now = START + duration / 1000 * i;
+                motion.sample(now, fix);
+                double travelled = GreatCircleMotion.distance(r[0], r[1], fix.getLatitude(), fix.getLongitude());
+                double remaining = GreatCircleMotion.distance(fix.getLatitude(), fix.getLongitude(), r[2], r[3]);
+                // on the path: no detour, and exactly as far along as the speed profile says
+                assertEquals(total, travelled + remaining, 0.01);
+                assertEquals(motion.distanceAt(now), travelled, 0.01);
+                assertTrue(fix.getLongitude() >= -180 && fix.getLongitude() <= 180);
+                // the heading points at the target
+                assertEquals(0, angleDiff(fix.getBearing(), GreatCircleMotion.initialBearing(
+                        fix.getLatitude(), fix.getLongitude(), r[2], r[3])), 1e-3);
+            }
+
+            motion.sample(START + duration + SECOND, fix);
+            assertEquals(r[2], fix.getLatitude(), 0);
+            assertEquals(r[3], fix.getLongitude(), 0);
+            assertEquals(0, fix.getSpeed(), 0);
+            assertTrue(motion.isFinished(START + duration + 1));
+        }
+    }
+
+    @Test
+    public void speedProfile_accelerateCruiseBrake() {
+        // 10 km at up to 50 m/s with 2 m/s^2: 25 s ramps of 625 m each
+        GreatCircleMotion motion = new GreatCircleMotion(48, 11, 48, 11, 50, 2, START);
+        assertEquals(0, motion.getDurationNanos());
+        double lon = 11 + Math.toDegrees(10000 / (GreatCircleMotion.EARTH_RADIUS * Math.cos(Math.toRadians(48))));
+        motion = new GreatCircleMotion(48, 11, 48, lon, 50, 2, START);
+        double d = motion.getDistance();
+        assertEquals(10000, d, 5);
+        assertEquals(2 * 25 + (d - 1250) / 50, motion.getDurationNanos() / 1e9, 1e-6);
+        assertEquals(100, motion.distanceAt(START + 10 * SECOND), 1e-9);
+        assertEquals(20, motion.speedAt(START + 10 * SECOND), 1e-9);
+        assertEquals(50, motion.speedAt(START + 100 * SECOND), 1e-9);
+        assertEquals(d - 100, motion.distanceAt(START + motion.getDurationNanos() - 10 * SECOND), 1e-6);
+
+        // too short to reach cruise speed: triangular profile peaking at sqrt(a * d)
+        motion = new GreatCircleMotion(0, 0, 0, Math.toDegrees(200 / GreatCircleMotion.EARTH_RADIUS), 50, 2, START);
+        assertEquals(20, motion.speedAt(START + 10 * SECOND), 1e-6);
+        assertEquals(20, motion.getDurationNanos() / 1e9, 1e-6);
+    }
+
+    @Test
+    public void trajectory_doesNotDependOnSampleCadence() {
+        double[] r = ROUTES[0];
+        GreatCircleMotion motion = new GreatCircleMotion(r[0], r[1], r[2], r[3], 900, 3, START);
+        long duration = motion.getDurationNanos();
+        // summing the legs between samples gives the route length at 10 Hz and at 0.2 Hz alike
+        for (long step : new long[]{SECOND / 10, 5 * SECOND}) {
+            GpsFix previous = new GpsFix();
+            GpsFix fix = new GpsFix();
+            motion.sample(START, previous);
+            double length = 0;
+            for (long t = START + step; t < START + duration + step; t += step) {
+                motion.sample(t, fix);
+                length += GreatCircleMotion.distance(previous.getLatitude(), previous.getLongitude(),
+                        fix.getLatitude(), fix.getLongitude());
+                previous.set(fix);
+            }
+            assertEquals(motion.getDistance(), length, 1);
+            assertEquals(r[2], fix.getLatitude(), 0);
+        }
+    }
+
+    private static double angleDiff(double a, double b) {
+        double d = (a - b) % 360;
+        if (d > 180) d -= 360;
+        if (d < -180) d += 360;
+        return d;
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KalmanFixFilterTest {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    private static final int WARMUP = 2000;
+    private static final int REPEAT = 20000;
+
+    private static GpsFix fix(long time, double lat, double lon, float accuracy) {
+        GpsFix fix = new GpsFix();
+        fix.setValid(true);
+        fix.setTime(time);
+        fix.setLatitude(lat);
+        fix.setLongitude(lon);
+        fix.setAccuracy(accuracy);
+        return fix;
+    }
+
+    @Test
+    public void noisyStraightLine_isSmoothedAndOutlierRejected() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        Random random = new Random(42);
+        GpsFix out = new GpsFix();
+        double rawError = 0, filteredError = 0;
+        int n = 0;
+        // 5 m/s due north, 5 m noise
+        for (int i = 0; i < 120; i++) {
+            double truth = 48.0 + 5.0 * i / METERS_PER_DEGREE;
+            double noisy = truth + random.nextGaussian() * 5 / METERS_PER_DEGREE;
+            assertTrue(filter.filter(fix(1000L * i, noisy, 11.0, 5), out));
+            if (i >= 20) {
+                rawError += sq((noisy - truth) * METERS_PER_DEGREE);
+                filteredError += sq((out.getLatitude() - truth) * METERS_PER_DEGREE);
+                n++;
+            }
+        }
+        assertTrue("filtered " + Math.sqrt(filteredError / n) + " raw " + Math.sqrt(rawError / n),
+                filteredError < rawError / 2);
+        assertEquals(5, out.getSpeed(), 0.5);
+        assertTrue(out.getBearing() < 5 || out.getBearing() > 355);
+        assertTrue(out.getAccuracy() < 5);
+
+        // a 500 m jump is an outlier...
+        double last = out.getLatitude();
+        assertFalse(filter.filter(fix(120000, last + 500 / METERS_PER_DEGREE, 11.0, 5), out));
+        assertEquals(1, filter.getRejectedCount());
+        // ...until it persists, then the filter follows it
+        for (int i = 1; i <= KalmanFixFilter.MAX_REJECTS; i++) {
+            filter.filter(fix(120000 + 1000L * i, last + 500 / METERS_PER_DEGREE, 11.0, 5), out);
+        }
+        assertEquals(1, filter.getResetCount());
+        assertEquals(last + 500 / METERS_PER_DEGREE, out.getLatitude(), 1e-9);
+    }
+
+    @Test
+    public void missingTrackAndAccuracy_keepTheStateFinite() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        GpsFix out = new GpsFix();
+        // a mode 2 fix: speed, but no track and no epx/epy
+        GpsFix first = fix(0, 48.0, 11.0, Float.NaN);
+        first.setSpeed(1.1f);
+        first.setBearing(Float.NaN);
+        assertTrue(filter.filter(first, out));
+        for (int i = 1; i < 20; i++) {
+            GpsFix in = fix(1000L * i, 48.0 + 1.0 * i / METERS_PER_DEGREE, 11.0, i % 2 == 0 ? Float.NaN : 5);
+            assertTrue(filter.filter(in, out));
+            assertFalse(Double.isNaN(out.getLatitude()));
+            assertFalse(Double.isNaN(out.getLongitude()));
+            assertFalse(Float.isNaN(out.getAccuracy()));
+            assertFalse(Float.isNaN(out.getSpeed()));
+            assertFalse(Float.isNaN(out.getBearing()));
+        }
+        assertEquals(48.0 + 19.0 / METERS_PER_DEGREE, out.getLatitude(), 5 / METERS_PER_DEGREE);
+    }
+
+    /**
+     * Benchmark on the recorded session: well under a millisecond and no allocation per fix.
+     */
+    @Test
+    public void recordedTrack_isFastAndAllocationFree() throws Exception {
+        final List<GpsFix> fixes = new ArrayList<>();
+        GpsdFastParser parser = new GpsdFastParser(new GpsdFastParser.Callback() {
+            @Override
+            public void onTpv(GpsFix fix) {
+                if (fix.isValid()) {
+                    GpsFix copy = new GpsFix();
+                    copy.set(fix);
+                    fixes.add(copy);
+                }
+            }
+
+            @Override
+            public void onDiscarded(int reportClass) {
+            }
+        });
+        for (String line : GpsdFastParserTest.readSession()) {
+            parser.parse(line);
+        }
+        GpsFix[] track = fixes.toArray(new GpsFix[fixes.size()]);
+        long span = track[track.length - 1].getTime() - track[0].getTime() + 1000;
+
+        KalmanFixFilter filter = new KalmanFixFilter();
+        GpsFix in = new GpsFix();
+        GpsFix out = new GpsFix();
+        run(filter, track, span, in, out, 0, WARMUP);
+
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long sink = run(filter, track, span, in, out, WARMUP, REPEAT);
+        long elapsed = System.nanoTime() - start;
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        long count = (long) REPEAT * track.length;
+        long nsPerFix = elapsed / count;
+        System.out.println("KalmanFixFilter on " + track.length + " recorded fixes: " + nsPerFix + " ns/fix, "
+                + allocated + " bytes allocated over " + count + " fixes, " + filter + " (sink " + sink + ")");
+        assertTrue(nsPerFix + " ns/fix", nsPerFix < 100000);
+        assertTrue("allocated " + allocated + " bytes", allocated < count / 100);
+        assertEquals(0, filter.getRejectedCount());
+    }
+
+    private static long run(KalmanFixFilter filter, GpsFix[] track, long span, GpsFix in, GpsFix out,
+                            int firstRound, int rounds) {
+        long sink = 0;
+        for (int r = firstRound; r < firstRound + rounds; r++) {
+            // replay the track over and over, later in time every round
+            filter.reset();
+            for (GpsFix fix : track) {
+                in.set(fix);
+                in.setTime(fix.getTime() + r * span);
+                if (filter.filter(in, out)) {
+                    sink += (long) out.getAccuracy();
+                }
+            }
+        }
+        return sink;
+    }
+
+    private static double sq(double value) {
+        return value * value;
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.fakegps;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void histogram_bucketsBoundTheirValues() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = Metrics.Histogram.bucketOf(value);
+            assertTrue(bucket >= 0 && bucket < Metrics.Histogram.BUCKETS);
+            long highest = Metrics.Histogram.highestOf(bucket);
+            long lowest = bucket == 0 ? 0 : Metrics.Histogram.highestOf(bucket - 1) + 1;
+            assertTrue(value + " in [" + lowest + ", " + highest + "]", lowest <= value && value <= highest);
+            // within 1/16 of the value
+            assertTrue(value + ": " + highest, (highest - lowest) * 16 <= Math.max(16, lowest));
+        }
+        assertEquals(Metrics.Histogram.BUCKETS - 1, Metrics.Histogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Metrics.Histogram.highestOf(Metrics.Histogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void histogram_percentilesMatchSortedValues() {
+        Metrics.Histogram histogram = new Metrics().histogram("latency");
+        Random random = new Random(2);
+        long[] values = new long[50000];
+        for (int i = 0; i < values.length; i++) {
+            // log-normal-ish: mostly ~100 us, a tail into milliseconds
+            values[i] = (long) (100000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getValueAt(percentile);
+            assertTrue(percentile + ": " + reported + " vs " + exact, reported >= exact && reported <= exact + exact / 16);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getValueAt(100));
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        Metrics metrics = new Metrics();
+        final Metrics.Counter counter = metrics.counter("events");
+        final Metrics.Histogram histogram = metrics.histogram("latency");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        counter.increment();
+                        histogram.record(i + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, counter.get());
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999 + 3, histogram.getMax());
+    }
+
+    @Test
+    public void registry_namesAndSnapshot() {
+        Metrics metrics = new Metrics();
+        Metrics.Counter posts = metrics.counter("notification.posts");
+        assertSame(posts, metrics.counter("notification.posts"));
+        metrics.gauge("gpsd.time_to_first_fix_ms").set(1200);
+        Metrics.Histogram query = metrics.histogram("db.query_ns");
+        metrics.histogram("empty");
+        posts.add(3);
+        for (int i = 1; i <= 100; i++) {
+            query.record(i);
+        }
+        assertEquals("notification.posts = 3\n"
+                + "gpsd.time_to_first_fix_ms = 1200\n"
+                + "db.query_ns: n=100 mean=50 p50=51 p90=91 p99=99 max=100\n"
+                + "empty: n=0\n", metrics.snapshot());
+    }
+
+    @Test
+    public void recording_doesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        Metrics metrics = new Metrics();
+        Metrics.Counter counter = metrics.counter("events");
+        Metrics.Gauge gauge = metrics.gauge("level");
+        Metrics.Histogram histogram = metrics.histogram("latency");
+        int samples = 1000000;
+        for (int i = 0; i < samples; i++) {
+            counter.increment();
+            gauge.set(i);
+            histogram.recordSince(System.nanoTime() - i);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            counter.increment();
+            gauge.set(i);
+            histogram.recordSince(System.nanoTime() - i);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        System.out.println(samples + " x counter + gauge + histogram: " + nanos / samples + " ns, "
+                + allocated + " bytes allocated");
+        assertTrue("allocated " + allocated, allocated < 1024);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The handler does not run anything on the JVM; the tests call {@code flush} at the scheduled
+ * time themselves.
+ */
+public class NotificationPublisherTest {
+
+    private static class RecordingTarget implements NotificationPublisher.Target {
+        final List<String> posts = new ArrayList<>();
+        int cancels;
+
+        @Override
+        public void post(String contentText, String subText) {
+            posts.add(contentText + " | " + subText);
+        }
+
+        @Override
+        public void cancel() {
+            cancels++;
+        }
+    }
+
+    private static String latLon(double latitude, double longitude) {
+        GpsFix fix = new GpsFix();
+        fix.setLatitude(latitude);
+        fix.setLongitude(longitude);
+        StringBuilder sb = new StringBuilder();
+        fix.appendLatLon(sb);
+        return sb.toString();
+    }
+
+    @Test
+    public void updatesWithinAnInterval_areCoalesced() {
+        RecordingTarget target = new RecordingTarget();
+        NotificationPublisher publisher = new NotificationPublisher(new Handler(), target);
+        publisher.update("3 m", "a");
+        long flushTime = publisher.getFlushTime();
+        publisher.update("4 m", "b");
+        publisher.update("5 m", "c");
+        assertEquals(flushTime, publisher.getFlushTime());
+        publisher.flush(10000);
+        assertEquals(1, target.posts.size());
+        assertEquals("5 m | c", target.posts.get(0));
+        assertEquals(-1, publisher.getFlushTime());
+    }
+
+    @Test
+    public void posts_atMostOncePerInterval() {
+        RecordingTarget target = new RecordingTarget();
+        NotificationPublisher publisher = new NotificationPublisher(new Handler(), target);
+        publisher.setMinInterval(500);
+        publisher.update("3 m", "a");
+        publisher.flush(10000);
+        publisher.update("4 m", "b");
+        assertEquals(10500, publisher.getFlushTime());
+        publisher.flush(10500);
+        publisher.update("5 m", "c");
+        assertEquals(11000, publisher.getFlushTime());
+        assertEquals(2, target.posts.size());
+
+        // 0 posts every change as soon as the handler gets to it
+        publisher.setMinInterval(0);
+        publisher.flush(11000);
+        publisher.update("6 m", "d");
+        assertEquals(11000, publisher.getFlushTime());
+    }
+
+    @Test
+    public void unchangedText_isNotPosted() {
+        RecordingTarget target = new RecordingTarget();
+        NotificationPublisher publisher = new NotificationPublisher(new Handler(), target);
+        publisher.update("3 m", latLon(48.1234561, 11.1234561));
+        publisher.flush(10000);
+        // a centimetre away: the same rounded text, nothing scheduled
+        publisher.update("3 m", latLon(48.1234562, 11.1234563));
+        assertEquals(-1, publisher.getFlushTime());
+        // changed and back before the flush: nothing posted
+        publisher.update("4 m", latLon(48.1234562, 11.1234563));
+        publisher.update("3 m", latLon(48.1234561, 11.1234561));
+        publisher.flush(11000);
+        assertEquals(1, target.posts.size());
+        assertEquals("3 m | 48.12346°, 11.12346° ", target.posts.get(0));
+    }
+
+    @Test
+    public void updatesAfterCancel_areIgnoredUntilStart() {
+        RecordingTarget target = new RecordingTarget();
+        NotificationPublisher publisher = new NotificationPublisher(new Handler(), target);
+        publisher.update("3 m", "a");
+        publisher.flush(10000);
+        publisher.update("4 m", "b");
+        publisher.cancel();
+        assertEquals(1, target.cancels);
+        assertEquals(-1, publisher.getFlushTime());
+        // a fix still in flight after the service stopped
+        publisher.update("5 m", "c");
+        assertEquals(-1, publisher.getFlushTime());
+        publisher.flush(11000);
+        assertEquals(1, target.posts.size());
+
+        publisher.start();
+        publisher.update("3 m", "a");
+        publisher.flush(12000);
+        assertEquals(2, target.posts.size());
+        assertEquals("3 m | a", target.posts.get(1));
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoutePlayerTest {
+
+    private static final long SECOND = 1000000000L;
+    private static final double METERS_PER_DEGREE = GreatCircleMotion.EARTH_RADIUS * Math.PI / 180;
+    private static final int BIG = 200000;
+
+    /** due north along a meridian, 10 m between points */
+    private static Route northbound(int points, long[] times, float[] speeds) {
+        double[] lat = new double[points];
+        double[] lon = new double[points];
+        for (int i = 0; i < points; i++) {
+            lat[i] = 10 * i / METERS_PER_DEGREE;
+            lon[i] = 11;
+        }
+        return new Route(lat, lon, times, speeds, 5);
+    }
+
+    @Test
+    public void route_timesFromSpeedsAndTimestamps() {
+        Route route = northbound(3, null, new float[]{10, 2});
+        assertEquals(20, route.getDistance(), 1e-6);
+        assertEquals(1 + 5, route.getDuration(), 1e-9);
+        assertEquals(15, route.distanceAtTime(3.5), 1e-6);
+        assertEquals(3.5, route.timeAtDistance(15), 1e-6);
+
+        route = northbound(3, new long[]{1000, 1000, 4000}, null);
+        assertEquals(3, route.getDuration(), 1e-9);
+        GpsFix fix = new GpsFix();
+        route.sampleAtTime(1.5, fix);
+        assertEquals(15, fix.getLatitude() * METERS_PER_DEGREE, 1e-6);
+        assertEquals(10 / 3.0, fix.getSpeed(), 1e-4);
+        assertEquals(0, fix.getBearing(), 1e-6);
+    }
+
+    @Test
+    public void player_pauseResumeSeekRateAndLoop() {
+        Route route = northbound(11, null, null); // 100 m at 5 m/s = 20 s
+        RoutePlayer player = new RoutePlayer(route, false);
+        GpsFix fix = new GpsFix();
+        assertTrue(player.isPaused());
+        player.resume(0);
+        player.sample(4 * SECOND, fix);
+        assertEquals(20, fix.getLatitude() * METERS_PER_DEGREE, 1e-6);
+        assertEquals(5, fix.getSpeed(), 1e-4);
+
+        player.pause(4 * SECOND);
+        player.sample(100 * SECOND, fix);
+        assertEquals(20, fix.getLatitude() * METERS_PER_DEGREE, 1e-6);
+        assertEquals(0, fix.getSpeed(), 0);
+
+        player.resume(100 * SECOND);
+        player.setRate(2, 102 * SECOND);
+        assertEquals(10, player.getPosition(104 * SECOND), 1e-9);
+        player.seekDistance(90, 104 * SECOND);
+        assertTrue(player.sample(104 * SECOND, fix));
+        assertFalse(player.sample(106 * SECOND, fix));
+        assertTrue(player.isFinished(106 * SECOND));
+        assertEquals(100, fix.getLatitude() * METERS_PER_DEGREE, 1e-6);
+
+        RoutePlayer looping = new RoutePlayer(route, true);
+        looping.resume(0);
+        assertEquals(5, looping.getPosition(45 * SECOND), 1e-9);
+        assertTrue(looping.sample(45 * SECOND, fix));
+    }
+
+    @Test
+    public void bigRoute_loadsAndSeeksFast() {
+        long start = System.nanoTime();
+        Route route = northbound(BIG, null, null);
+        long load = System.nanoTime() - start;
+
+        RoutePlayer player = new RoutePlayer(route, false);
+        GpsFix fix = new GpsFix();
+        int seeks = 1000000;
+        double sink = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < seeks; i++) {
+            player.seekDistance((i * 7919L) % (BIG * 10), 0);
+            player.sample(0, fix);
+            sink += fix.getLatitude();
+        }
+        long seek = (System.nanoTime() - start) / seeks;
+        System.out.println("Route of " + BIG + " points: load " + load / 1000000 + " ms, seek+sample " + seek
+                + " ns (sink " + sink + ")");
+
+        player.seekDistance(123456.5, 0);
+        player.sample(0, fix);
+        assertEquals(123456.5, fix.getLatitude() * METERS_PER_DEGREE, 1e-3);
+        assertTrue(load < 2000L * 1000000);
+        assertTrue(seek < 50000);
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.fakegps;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackRecorderTest {
+
+    private static final int COUNT = 100;
+    private static final long INTERVAL_NANOS = 10000000L;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("track", ".fgt");
+        TrackRecorder recorder = new TrackRecorder(mFile, 16);
+        GpsFix fix = new GpsFix();
+        for (int i = 0; i < COUNT; i++) {
+            fix.setValid(i % 10 != 0);
+            fix.setElapsedRealtimeNanos(i * INTERVAL_NANOS);
+            fix.setTime(1557568800000L + i * 10);
+            fix.setLatitude(48.0 + i * 1e-6);
+            fix.setLongitude(11.0 - i * 1e-6);
+            fix.setAltitude(500 + i);
+            fix.setAccuracy(3.5f);
+            fix.setSpeed(i);
+            fix.setBearing(i % 360);
+            recorder.append(fix);
+        }
+        recorder.close();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void recordedFile_readsBack() throws Exception {
+        assertEquals(TrackRecorder.HEADER_SIZE + COUNT * TrackRecorder.RECORD_SIZE, mFile.length());
+        TrackReader reader = new TrackReader(mFile);
+        assertEquals(COUNT, reader.getCount());
+        GpsFix fix = new GpsFix();
+        for (int i = 0; i < COUNT; i++) {
+            reader.read(i, fix);
+            assertEquals(i % 10 != 0, fix.isValid());
+            assertEquals(i * INTERVAL_NANOS, fix.getElapsedRealtimeNanos());
+            assertEquals(1557568800000L + i * 10, fix.getTime());
+            assertEquals(48.0 + i * 1e-6, fix.getLatitude(), 0);
+            assertEquals(11.0 - i * 1e-6, fix.getLongitude(), 0);
+            assertEquals(500 + i, fix.getAltitude(), 0);
+            assertEquals(i, fix.getSpeed(), 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void replay_deliversAllFixesInOrder() throws Exception {
+        final List<Long> times = new ArrayList<>();
+        final List<Long> elapsed = new ArrayList<>();
+        TrackReplaySource source = new TrackReplaySource(mFile, new FixSink() {
+            @Override
+            public void offer(GpsFix fix) {
+                times.add(fix.getTime());
+                elapsed.add(fix.getElapsedRealtimeNanos());
+            }
+        }, TrackReplaySource.SPEED_AS_FAST_AS_POSSIBLE, false);
+        source.start();
+        source.join();
+        assertEquals(COUNT, times.size());
+        for (int i = 0; i < COUNT; i++) {
+            // restamped: time moves with the elapsed clock
+            long shift = (elapsed.get(i) - i * INTERVAL_NANOS) / 1000000;
+            assertEquals(1557568800000L + i * 10 + shift, (long) times.get(i));
+            if (i > 0) {
+                assertTrue(elapsed.get(i) >= elapsed.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void failedAppend_stopsRecording() throws Exception {
+        File file = File.createTempFile("track", ".fgt");
+        TrackRecorder recorder = new TrackRecorder(file, 16);
+        GpsFix fix = new GpsFix();
+        recorder.offer(fix);
+        recorder.close();
+        assertFalse(recorder.hasFailed());
+        recorder.offer(fix);
+        recorder.offer(fix);
+        assertTrue(recorder.hasFailed());
+        assertEquals(1, recorder.getCount());
+        file.delete();
+    }
+
+    @Test
+    public void replay_keepsScaledTiming() throws Exception {
+        TrackReplaySource source = new TrackReplaySource(mFile, new FixSink() {
+            @Override
+            public void offer(GpsFix fix) {
+            }
+        }, 10, false);
+        long start = System.nanoTime();
+        source.start();
+        source.join();
+        long elapsed = System.nanoTime() - start;
+        long expected = (COUNT - 1) * INTERVAL_NANOS / 10;
+        assertEquals(COUNT, source.getReplayedCount());
+        assertTrue("elapsed " + elapsed, elapsed >= expected && elapsed < expected * 3);
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.fakegps;
+
+import android.os.Handler;
+
+import com.github.fakegps.model.GpsFix;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpsamplingEmitterTest {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+    private static final long SECOND = 1000000000L;
+
+    private static class CountingPublisher implements FixDispatcher.Publisher {
+        int count;
+
+        @Override
+        public void publish(GpsFix fix) {
+            count++;
+        }
+    }
+
+    private static class RecordingPublisher implements FixDispatcher.Publisher {
+        final long[] elapsed = new long[8192];
+        int count;
+
+        @Override
+        public void publish(GpsFix fix) {
+            elapsed[count++] = fix.getElapsedRealtimeNanos();
+        }
+    }
+
+    private static GpsFix fix(long elapsedNanos, double lat, double lon, float speed, float bearing) {
+        GpsFix fix = new GpsFix();
+        fix.setValid(true);
+        fix.setTime(1557568800000L + elapsedNanos / 1000000);
+        fix.setElapsedRealtimeNanos(elapsedNanos);
+        fix.setLatitude(lat);
+        fix.setLongitude(lon);
+        fix.setSpeed(speed);
+        fix.setBearing(bearing);
+        return fix;
+    }
+
+    @Test
+    public void extrapolate_alongSpeedAndCourse() {
+        CountingPublisher publisher = new CountingPublisher();
+        UpsamplingEmitter emitter = new UpsamplingEmitter(new Handler(), publisher, 10, UpsamplingEmitter.TIMEOUT_DEFAULT);
+        emitter.publish(fix(SECOND, 48.0, 11.0, 10, 0));
+        assertEquals(1, publisher.count);
+
+        GpsFix out = new GpsFix();
+        assertTrue(emitter.extrapolate(SECOND + SECOND / 2, out));
+        // 10 m/s due north for half a second
+        assertEquals(5.0, (out.getLatitude() - 48.0) * METERS_PER_DEGREE, 1e-6);
+        assertEquals(11.0, out.getLongitude(), 1e-12);
+        assertEquals(1557568800000L + 1500, out.getTime());
+        assertEquals(SECOND + SECOND / 2, out.getElapsedRealtimeNanos());
+    }
+
+    @Test
+    public void extrapolate_withoutCourseUsesLastTwoFixes() {
+        UpsamplingEmitter emitter = new UpsamplingEmitter(new Handler(), new CountingPublisher(), 5, 2000);
+        double east = 4 / (METERS_PER_DEGREE * Math.cos(Math.toRadians(48.0)));
+        emitter.publish(fix(SECOND, 48.0, 11.0, Float.NaN, Float.NaN));
+        emitter.publish(fix(2 * SECOND, 48.0, 11.0 + east, Float.NaN, Float.NaN));
+
+        GpsFix out = new GpsFix();
+        assertTrue(emitter.extrapolate(2 * SECOND + SECOND / 4, out));
+        // 4 m/s due east for a quarter second
+        assertEquals(1.0, (out.getLongitude() - 11.0 - east) * METERS_PER_DEGREE * Math.cos(Math.toRadians(48.0)), 1e-3);
+        assertEquals(48.0, out.getLatitude(), 1e-12);
+    }
+
+    /**
+     * The looper is simulated: each tick runs at the uptime it was posted for, up to 3 ms late,
+     * with elapsedRealtime advancing in step.
+     */
+    @Test
+    public void ticks_stayOnTheTimeline_overManyTicks() {
+        RecordingPublisher publisher = new RecordingPublisher();
+        // 7/s: a period of 142.857142 ms, never a whole millisecond
+        UpsamplingEmitter emitter = new UpsamplingEmitter(new Handler(), publisher, 7, 1000 * 1000);
+        long period = (long) (1e9 / 7);
+        long start = 5 * SECOND + 300000;
+        long startUptime = 1000;
+        emitter.publish(fix(start, 48.0, 11.0, 1, 0), start, startUptime);
+
+        Random random = new Random(42);
+        int ticks = 5000;
+        for (int n = 1; n <= ticks; n++) {
+            long uptime = emitter.getNextTickUptime() + random.nextInt(4);
+            emitter.tick(start + (uptime - startUptime) * 1000000, uptime);
+        }
+
+        assertEquals(1 + ticks, publisher.count);
+        for (int n = 1; n <= ticks; n++) {
+            long late = publisher.elapsed[n] - (start + n * period);
+            // never early, and late by the rounding and the looper only: no drift
+            assertTrue("tick " + n + " late by " + late + " ns", late >= 0 && late < 4000000);
+        }
+    }
+
+    @Test
+    public void lateLooper_skipsMissedSlotsInsteadOfBursting() {
+        RecordingPublisher publisher = new RecordingPublisher();
+        UpsamplingEmitter emitter = new UpsamplingEmitter(new Handler(), publisher, 10, UpsamplingEmitter.TIMEOUT_DEFAULT);
+        emitter.publish(fix(SECOND, 48.0, 11.0, 1, 0), SECOND, 1000);
+        assertEquals(1100, emitter.getNextTickUptime());
+
+        // runs 250 ms late, at 1.35 s: the slots at 1.2 and 1.3 s are gone, the next is 1.4 s
+        emitter.tick(SECOND + 350000000, 1350);
+        assertEquals(2, publisher.count);
+        assertEquals(1400, emitter.getNextTickUptime());
+        emitter.tick(SECOND + 400000000, 1400);
+        assertEquals(3, publisher.count);
+        assertEquals(1500, emitter.getNextTickUptime());
+    }
+
+    @Test
+    public void ticks_stopAtTheTimeout_andResumeWithTheNextFix() {
+        RecordingPublisher publisher = new RecordingPublisher();
+        UpsamplingEmitter emitter = new UpsamplingEmitter(new Handler(), publisher, 10, 1000);
+        emitter.publish(fix(SECOND, 48.0, 11.0, 1, 0), SECOND, 1000);
+        while (emitter.getNextTickUptime() >= 0) {
+            long uptime = emitter.getNextTickUptime();
+            emitter.tick(SECOND + (uptime - 1000) * 1000000, uptime);
+        }
+        // ticks at 1.1 to 2.0 s; the one at 2.1 s is past the timeout and ends the ticking
+        assertEquals(1 + 10, publisher.count);
+        assertEquals(2 * SECOND, publisher.elapsed[10]);
+
+        emitter.publish(fix(3 * SECOND, 48.0, 11.0, 1, 0), 3 * SECOND, 3000);
+        assertEquals(3100, emitter.getNextTickUptime());
+        emitter.stop();
+        assertEquals(-1, emitter.getNextTickUptime());
+    }
+
+    @Test
+    public void extrapolate_doesNotAllocate() {
+        UpsamplingEmitter emitter = new UpsamplingEmitter(new Handler(), new CountingPublisher(), 10, 2000);
+        emitter.publish(fix(SECOND, 48.0, 11.0, 3, 45));
+        GpsFix out = new GpsFix();
+        long sink = 0;
+        for (int i = 0; i < 100000; i++) {
+            emitter.extrapolate(SECOND + i, out);
+            sink += out.getTime();
+        }
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000000; i++) {
+            emitter.extrapolate(SECOND + i, out);
+            sink += out.getTime();
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes (sink " + sink + ")", allocated < 10000);
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.fakegps.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BookmarkDeltaTest {
+
+    private static LocBookmark bookmark(int id, String name) {
+        return new LocBookmark(id, name, new LocPoint(id, id));
+    }
+
+    private static List<LocBookmark> list(int... ids) {
+        List<LocBookmark> list = new ArrayList<>();
+        for (int id : ids) {
+            list.add(bookmark(id, "b" + id));
+        }
+        return list;
+    }
+
+    private static int[] ids(List<LocBookmark> list) {
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = list.get(i).getId();
+        }
+        return ids;
+    }
+
+    @Test
+    public void applyTo_patchesInPlace() {
+        List<LocBookmark> list = list(1, 3, 5, 7, 9);
+        BookmarkDelta delta = new BookmarkDelta(new int[]{10, 4}, new int[]{5}, new int[]{3, 9});
+        List<LocBookmark> changed = Arrays.asList(bookmark(10, "new"), bookmark(4, "reused"), bookmark(5, "renamed"));
+
+        assertTrue(delta.applyTo(list, changed));
+        assertArrayEquals(new int[]{1, 4, 5, 7, 10}, ids(list));
+        assertEquals("renamed", list.get(2).getName());
+        assertEquals("reused", list.get(1).getName());
+    }
+
+    @Test
+    public void applyTo_ignoresUnknownIds() {
+        List<LocBookmark> list = list(1, 2);
+        BookmarkDelta delta = new BookmarkDelta(null, new int[]{8}, new int[]{6});
+        // 8 was deleted before its row could be read back
+        assertFalse(delta.applyTo(list, Collections.<LocBookmark>emptyList()));
+        assertArrayEquals(new int[]{1, 2}, ids(list));
+    }
+
+    @Test
+    public void of_readsIds() {
+        BookmarkDelta delta = BookmarkDelta.of(list(4, 5), null, list(2));
+        assertArrayEquals(new int[]{4, 5}, delta.getInserted());
+        assertArrayEquals(new int[0], delta.getUpdated());
+        assertArrayEquals(new int[]{2}, delta.getDeleted());
+        assertArrayEquals(new int[]{4, 5}, delta.getChanged());
+        assertFalse(delta.isEmpty());
+        assertTrue(new BookmarkDelta(null, null, null).isEmpty());
+    }
+
+    @Test
+    public void indexOf_returnsInsertionPoint() {
+        List<LocBookmark> list = list(2, 4, 6);
+        assertEquals(1, BookmarkDelta.indexOf(list, 4));
+        assertEquals(-1, BookmarkDelta.indexOf(list, 1));
+        assertEquals(-3, BookmarkDelta.indexOf(list, 5));
+        assertEquals(-4, BookmarkDelta.indexOf(list, 7));
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.fakegps.model;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import de.taimos.gpsd4java.types.ENMEAMode;
+import de.taimos.gpsd4java.types.TPVObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM microbenchmark for the TPV ingest path: after warm-up, turning a TPV into a
+ * {@link GpsFix} plus the two notification texts must not allocate.
+ */
+public class GpsFixAllocationTest {
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    @Test
+    public void appendDecimal_isCorrect() {
+        StringBuilder sb = new StringBuilder();
+        GpsFix.appendDecimal(sb, 48.1234567, 7);
+        assertEquals("48.1234567", sb.toString());
+        sb.setLength(0);
+        GpsFix.appendDecimal(sb, -0.5, 2);
+        assertEquals("-0.50", sb.toString());
+        sb.setLength(0);
+        GpsFix.appendDecimal(sb, -0.000000001, 3);
+        assertEquals("0.000", sb.toString());
+    }
+
+    @Test
+    public void ingest_doesNotAllocate() {
+        TPVObject[] tpvs = new TPVObject[64];
+        for (int i = 0; i < tpvs.length; i++) {
+            TPVObject tpv = new TPVObject();
+            tpv.setMode(ENMEAMode.ThreeDimensional);
+            tpv.setLatitude(48.0 + i * 0.0001);
+            tpv.setLongitude(11.0 - i * 0.0001);
+            tpv.setAltitude(520.0);
+            tpv.setLatitudeError(3.0);
+            tpv.setLongitudeError(4.0);
+            tpv.setSpeed(1.5);
+            tpv.setCourse(90.0);
+            tpv.setTimestamp(1.5e9 + i);
+            tpvs[i] = tpv;
+        }
+        GpsFix fix = new GpsFix();
+        StringBuilder content = new StringBuilder(16);
+        StringBuilder sub = new StringBuilder(48);
+
+        long sink = run(tpvs, fix, content, sub, WARMUP);
+
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        sink += run(tpvs, fix, content, sub, ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        System.out.println("TPV ingest: " + (elapsed / ITERATIONS) + " ns/fix, "
+                + allocated + " bytes allocated over " + ITERATIONS + " fixes (sink " + sink + ")");
+        // tolerate the odd JIT/TLAB bookkeeping, but nothing proportional to the fix count
+        assertTrue("allocated " + allocated + " bytes", allocated < ITERATIONS / 100);
+    }
+
+    private static long run(TPVObject[] tpvs, GpsFix fix, StringBuilder content, StringBuilder sub, int count) {
+        long sink = 0;
+        for (int i = 0; i < count; i++) {
+            if (fix.set(tpvs[i & (tpvs.length - 1)], i)) {
+                content.setLength(0);
+                fix.appendAccuracy(content);
+                sub.setLength(0);
+                fix.appendLatLon(sub);
+                sink += content.length() + sub.length();
+            }
+        }
+        return sink;
+    }
+}
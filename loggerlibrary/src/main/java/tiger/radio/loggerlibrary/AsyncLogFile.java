@@ -0,0 +1,272 @@
+package tiger.radio.loggerlibrary;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * {@link LogFile} that hands records to a background writer instead of writing them itself.
+ * <p>
+ * Logging threads claim a slot of a bounded ring with a CAS and fill it in - no lock, no I/O,
+ * no allocation. One writer thread drains the ring in batches through a large buffer into the
+ * same rotated files {@code FileHandler} would write ({@code name.0} to {@code name.9}), and
+ * flushes whenever the ring runs empty. When the ring is full, {@link Overflow#DROP} discards
+ * the record and counts it, {@link Overflow#BLOCK} waits for room.
+ */
+public class AsyncLogFile extends LogFile {
+
+    public enum Overflow {
+        DROP, BLOCK
+    }
+
+    public static final int CAPACITY_DEFAULT = 8192;
+
+    private static final String TAG = "AsyncLogFile";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = 100 * 1000000L;
+    private static final long FULL_PARK_NANOS = 50 * 1000L;
+
+    private static final class Entry {
+        long mMillis;
+        Level mLevel;
+        String mTag;
+        String mMsg;
+        Throwable mThrown;
+    }
+
+    private final Overflow mOverflow;
+    private final int mMask;
+    private final Entry[] mEntries;
+    // per slot: position + 1 once filled, position + capacity once drained
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    // written by the writer thread only
+    private long mHead;
+    private volatile long mFlushed;
+    private volatile boolean mWriterParked;
+    private volatile boolean mClosed;
+    private final Thread mWriter;
+
+    private final CustomFormatter mFormatter = new CustomFormatter();
+    private long mDroppedReported;
+    private OutputStream mOut;
+    // bytes in name.0
+    private long mSize;
+
+    /**
+     * @param capacity records the ring holds, rounded up to a power of two
+     */
+    public AsyncLogFile(File dir, String fileName, int capacity, Overflow overflow) {
+        super(dir, fileName);
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mOverflow = overflow;
+        mMask = size - 1;
+        mEntries = new Entry[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mEntries[i] = new Entry();
+            mSequences.set(i, i);
+        }
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    protected void log(Level level, String tag, String msg, Throwable t) {
+        if (mClosed) return;
+        long position;
+        int index;
+        int spins = 0;
+        while (true) {
+            position = mTail.get();
+            index = (int) position & mMask;
+            long available = mSequences.get(index) - position;
+            if (available == 0) {
+                if (mTail.compareAndSet(position, position + 1)) break;
+            } else if (available < 0) {
+                // full
+                if (mOverflow == Overflow.DROP || mClosed) {
+                    mDropped.incrementAndGet();
+                    return;
+                }
+                wakeWriter();
+                if (++spins < 64) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                }
+            }
+        }
+        Entry entry = mEntries[index];
+        entry.mMillis = System.currentTimeMillis();
+        entry.mLevel = level;
+        entry.mTag = tag;
+        entry.mMsg = msg;
+        entry.mThrown = t;
+        mSequences.lazySet(index, position + 1);
+        if (mWriterParked) {
+            wakeWriter();
+        }
+    }
+
+    private void wakeWriter() {
+        LockSupport.unpark(mWriter);
+    }
+
+    /**
+     * Wait until everything logged before this call is written out.
+     *
+     * @return false on timeout
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = mTail.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (mFlushed < target) {
+            if (!mWriter.isAlive() || System.nanoTime() > deadline) return false;
+            wakeWriter();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Write out what is queued and stop the writer; later records are dropped.
+     */
+    public void close() {
+        mClosed = true;
+        wakeWriter();
+        try {
+            mWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void dump(PrintWriter writer) {
+        flush(1000);
+        super.dump(writer);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            int written = drain();
+            if (written > 0) continue;
+            flushOut();
+            mFlushed = mHead;
+            if (mClosed && mTail.get() == mHead) break;
+            mWriterParked = true;
+            if (!hasNext()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            mWriterParked = false;
+        }
+        IOUtils.closeQuietly(mOut);
+        mOut = null;
+    }
+
+    private boolean hasNext() {
+        int index = (int) mHead & mMask;
+        return mSequences.get(index) == mHead + 1;
+    }
+
+    /**
+     * @return records taken off the ring
+     */
+    private int drain() {
+        int count = 0;
+        while (count < mEntries.length && hasNext()) {
+            int index = (int) mHead & mMask;
+            Entry entry = mEntries[index];
+            write(entry);
+            entry.mTag = null;
+            entry.mMsg = null;
+            entry.mThrown = null;
+            mSequences.lazySet(index, mHead + mEntries.length);
+            mHead++;
+            count++;
+        }
+        return count;
+    }
+
+    private void write(Entry entry) {
+        long dropped = mDropped.get();
+        if (dropped != mDroppedReported) {
+            format(entry.mMillis, Level.WARNING, TAG, "dropped " + (dropped - mDroppedReported) + " records", null);
+            mDroppedReported = dropped;
+        }
+        format(entry.mMillis, entry.mLevel, entry.mTag, entry.mMsg, entry.mThrown);
+    }
+
+    private void format(long millis, Level level, String tag, String msg, Throwable thrown) {
+        try {
+            if (mOut == null || mSize >= LOG_FILE_MAX_SIZE) {
+                rotate();
+            }
+            mSize += mFormatter.write(mOut, millis, level, tag, msg, thrown);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception: ", e);
+            IOUtils.closeQuietly(mOut);
+            mOut = null;
+        }
+    }
+
+    private void flushOut() {
+        if (mOut == null) return;
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Exception: ", e);
+        }
+    }
+
+    private File file(int generation) {
+        return new File(getLogDir(), getLogFileName() + "." + generation);
+    }
+
+    /**
+     * Open {@code name.0} for appending, shifting the older files up first once it is full,
+     * the way {@code FileHandler} does.
+     */
+    private void rotate() throws IOException {
+        File current = file(0);
+        if (mOut != null) {
+            mOut.flush();
+            IOUtils.closeQuietly(mOut);
+            mOut = null;
+        }
+        if (current.length() >= LOG_FILE_MAX_SIZE) {
+            for (int i = LOG_FILE_MAX_COUNT - 2; i >= 0; i--) {
+                File from = file(i);
+                if (from.exists()) {
+                    File to = file(i + 1);
+                    to.delete();
+                    from.renameTo(to);
+                }
+            }
+        }
+        mSize = current.length();
+        mOut = new BufferedOutputStream(new FileOutputStream(current, true), BUFFER_SIZE);
+    }
+}
@@ -1,16 +1,26 @@
 package tiger.radio.loggerlibrary;
 
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.Writer;
+import java.util.Calendar;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.TimeZone;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
+/**
+ * Formats records as {@code MM-dd HH:mm:ss.SSS L tag: message}.
+ * <p>
+ * Each thread formats into its own reused buffer. The date prefix is cached: within the same
+ * minute only the seconds and milliseconds digits are rewritten, the calendar is consulted once
+ * a minute. {@link #write(OutputStream, long, Level, String, String, Throwable)} and
+ * {@link #write(Writer, long, Level, String, String, Throwable)} hand the buffer to the sink
+ * without building a String.
+ */
 public class CustomFormatter extends Formatter {
     private static final HashMap<Level, String> sLevelMap = new HashMap<>();
 
@@ -22,37 +32,208 @@ public class CustomFormatter extends Formatter {
         sLevelMap.put(Level.SEVERE, "E");
     }
 
+    // "MM-dd HH:mm:ss.SSS "
+    private static final int DATE_LENGTH = 19;
+    private static final int SECONDS = 12;
+    private static final int MILLIS = 15;
+    private static final long MINUTE_MILLIS = 60 * 1000L;
 
-    @Override
-    public String format(LogRecord r) {
-        String level = sLevelMap.get(r.getLevel());
-        if (level == null) {
-            level = "";
-        }
-        StringBuilder sb = new StringBuilder();
-        sb.append(new SimpleDateFormat("MM-dd HH:mm:ss.SSS ", Locale.US).format(new Date(r.getMillis())));
-        sb.append(level);
-        sb.append(" ");
-        sb.append(formatMessage(r)).append("\n");
-        if (r.getThrown() != null) {
+    private static final ThreadLocal<Buffer> sBuffer = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    /**
+     * Per thread: the text being formatted, the cached date prefix and the encoded bytes.
+     */
+    private static final class Buffer {
+        final StringBuilder mText = new StringBuilder(256);
+        final char[] mDate = new char[DATE_LENGTH];
+        // the minute mDate holds, [mMinuteStart, mMinuteStart + MINUTE_MILLIS)
+        long mMinuteStart = Long.MAX_VALUE;
+        int mSecond = -1;
+        Calendar mCalendar;
+        char[] mChars = new char[256];
+        byte[] mBytes = new byte[256];
+        PrintWriter mStackTrace;
+
+        void date(long millis) {
+            if (millis < mMinuteStart || millis - mMinuteStart >= MINUTE_MILLIS) {
+                renderMinute(millis);
+            }
+            int offset = (int) (millis - mMinuteStart);
+            int second = offset / 1000;
+            if (second != mSecond) {
+                mSecond = second;
+                digits(mDate, SECONDS, second, 2);
+            }
+            digits(mDate, MILLIS, offset % 1000, 3);
+        }
+
+        private void renderMinute(long millis) {
+            TimeZone zone = TimeZone.getDefault();
+            if (mCalendar == null) {
+                mCalendar = Calendar.getInstance(zone);
+                "00-00 00:00:00.000 ".getChars(0, DATE_LENGTH, mDate, 0);
+            } else if (!zone.hasSameRules(mCalendar.getTimeZone())) {
+                mCalendar.setTimeZone(zone);
+            }
+            Calendar c = mCalendar;
+            c.setTimeInMillis(millis);
+            mMinuteStart = millis - c.get(Calendar.SECOND) * 1000L - c.get(Calendar.MILLISECOND);
+            mSecond = -1;
+            digits(mDate, 0, c.get(Calendar.MONTH) + 1, 2);
+            digits(mDate, 3, c.get(Calendar.DAY_OF_MONTH), 2);
+            digits(mDate, 6, c.get(Calendar.HOUR_OF_DAY), 2);
+            digits(mDate, 9, c.get(Calendar.MINUTE), 2);
+        }
+
+        char[] chars() {
+            int length = mText.length();
+            if (mChars.length < length) {
+                mChars = new char[Math.max(length, 2 * mChars.length)];
+            }
+            mText.getChars(0, length, mChars, 0);
+            return mChars;
+        }
+
+        /**
+         * @return number of UTF-8 bytes in {@link #mBytes}
+         */
+        int utf8() {
+            int length = mText.length();
+            if (mBytes.length < 3 * length) {
+                mBytes = new byte[Math.max(3 * length, 2 * mBytes.length)];
+            }
+            return CustomFormatter.utf8(mText, 0, length, mBytes, 0);
+        }
+
+        void stackTrace(Throwable t) {
+            if (mStackTrace == null) {
+                mStackTrace = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(char[] buf, int off, int len) {
+                        mText.append(buf, off, len);
+                    }
+
+                    @Override
+                    public void write(String str, int off, int len) {
+                        mText.append(str, off, off + len);
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+            }
+            t.printStackTrace(mStackTrace);
+            mStackTrace.flush();
+        }
+    }
+
+    /**
+     * Encode {@code text[start, end)} as UTF-8; {@code out} needs room for three bytes a char.
+     *
+     * @return number of bytes written
+     */
+    static int utf8(CharSequence text, int start, int end, byte[] out, int offset) {
+        int n = offset;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            } else if (c < 0x800) {
+                out[n++] = (byte) (0xc0 | c >> 6);
+                out[n++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                out[n++] = (byte) (0xf0 | cp >> 18);
+                out[n++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                out[n++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                out[n++] = (byte) (0x80 | cp & 0x3f);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                out[n++] = '?';
+            } else {
+                out[n++] = (byte) (0xe0 | c >> 12);
+                out[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+                out[n++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return n - offset;
+    }
+
+    private static void digits(char[] out, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Format into the calling thread's buffer; valid until its next call.
+     *
+     * @param tag may be null when {@code msg} already carries it
+     */
+    private static Buffer render(long millis, Level level, String tag, String msg, Throwable thrown) {
+        Buffer buffer = sBuffer.get();
+        StringBuilder sb = buffer.mText;
+        sb.setLength(0);
+        buffer.date(millis);
+        sb.append(buffer.mDate, 0, DATE_LENGTH);
+        String l = sLevelMap.get(level);
+        if (l != null) {
+            sb.append(l);
+        }
+        sb.append(' ');
+        if (tag != null) {
+            sb.append(tag).append(": ");
+        }
+        sb.append(msg).append('\n');
+        if (thrown != null) {
             sb.append("Throwable occurred: ");
-            Throwable t = r.getThrown();
-            PrintWriter pw = null;
             try {
-                StringWriter sw = new StringWriter();
-                PrintWriter pw2 = new PrintWriter(sw);
-                try {
-                    t.printStackTrace(pw2);
-                    sb.append(sw.toString());
-                    IOUtils.closeQuietly(pw2);
-                } catch (Throwable th2) {
-                    pw = pw2;
-                    IOUtils.closeQuietly(pw);
-                }
-            } catch (Throwable th3) {
-                IOUtils.closeQuietly(pw);
-            }
-        }
-        return sb.toString();
+                buffer.stackTrace(thrown);
+            } catch (Throwable ignored) {
+            }
+        }
+        return buffer;
+    }
+
+    @Override
+    public String format(LogRecord r) {
+        return render(r.getMillis(), r.getLevel(), null, formatMessage(r), r.getThrown()).mText.toString();
+    }
+
+    /**
+     * Write one record to {@code out} as UTF-8.
+     *
+     * @return number of bytes written
+     */
+    public int write(OutputStream out, long millis, Level level, String tag, String msg, Throwable thrown)
+            throws IOException {
+        Buffer buffer = render(millis, level, tag, msg, thrown);
+        int length = buffer.utf8();
+        out.write(buffer.mBytes, 0, length);
+        return length;
+    }
+
+    /**
+     * Write one record to {@code out}.
+     *
+     * @return number of chars written
+     */
+    public int write(Writer out, long millis, Level level, String tag, String msg, Throwable thrown)
+            throws IOException {
+        Buffer buffer = render(millis, level, tag, msg, thrown);
+        int length = buffer.mText.length();
+        out.write(buffer.chars(), 0, length);
+        return length;
     }
 }
@@ -26,12 +26,7 @@ public class LogFile {
     private Logger mLogger;
 
     public LogFile(String name, File dir, String fileName) {
-        if (dir == null || !dir.exists() || fileName == null) {
-            Log.w("LogFile", "Invalid configuration provided");
-            throw new IllegalArgumentException();
-        }
-        this.mLogDir = dir;
-        this.mLogFileName = fileName;
+        this(dir, fileName);
         File path = new File(this.mLogDir, this.mLogFileName);
         this.mLogger = Logger.getLogger(name);
         try {
@@ -48,6 +43,26 @@ public class LogFile {
         }
     }
 
+    /**
+     * For subclasses that write the files themselves, in the same place and rotation.
+     */
+    protected LogFile(File dir, String fileName) {
+        if (dir == null || !dir.exists() || fileName == null) {
+            Log.w("LogFile", "Invalid configuration provided");
+            throw new IllegalArgumentException();
+        }
+        this.mLogDir = dir;
+        this.mLogFileName = fileName;
+    }
+
+    public File getLogDir() {
+        return mLogDir;
+    }
+
+    public String getLogFileName() {
+        return mLogFileName;
+    }
+
     public void v(String tag, String msg) {
         log(Level.FINEST, tag, msg);
     }
@@ -105,25 +120,17 @@ public class LogFile {
         log(Level.INFO, tag, msg, t);
     }
 
-    private synchronized void log(Level level, String tag, String msg) {
-        if (this.mLogger == null) {
-            Log.w("LogFile", "File logger not configured");
-        } else {
-            this.mLogRecord.setMillis(System.currentTimeMillis());
-            this.mLogRecord.setLevel(level);
-            this.mLogRecord.setMessage(String.format("%s: %s", tag, msg));
-            this.mLogRecord.setThrown(null);
-            this.mLogger.log(this.mLogRecord);
-        }
+    private void log(Level level, String tag, String msg) {
+        log(level, tag, msg, null);
     }
 
-    private synchronized void log(Level level, String tag, String msg, Throwable t) {
+    protected synchronized void log(Level level, String tag, String msg, Throwable t) {
         if (this.mLogger == null) {
             Log.w("LogFile", "File logger not configured");
         } else {
             this.mLogRecord.setMillis(System.currentTimeMillis());
             this.mLogRecord.setLevel(level);
-            this.mLogRecord.setMessage(String.format("%s: %s", tag, msg));
+            this.mLogRecord.setMessage(tag + ": " + msg);
             this.mLogRecord.setThrown(t);
             this.mLogger.log(this.mLogRecord);
         }
@@ -1,20 +1,110 @@
 package tiger.radio.loggerlibrary;
 
+import android.util.Log;
+
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
+/**
+ * Logs to logcat and the configured {@link LogFile}.
+ * <p>
+ * Records below the tag's minimum level, or the global one for tags without their own, are
+ * dropped before anything is formatted. The format and {@link Message} overloads only build
+ * the message once it passed that check, so a disabled call costs a volatile read and a
+ * compare.
+ */
 public class Logger {
     private static final boolean LOGV = true;
     private static volatile LogFile sLogFile;
     private static Map<String, LogFile> sLogFilesMap = new HashMap<String, LogFile>();
 
+    private static volatile int sMinLevel = Log.VERBOSE;
+    // copied on write, read without a lock
+    private static volatile Map<String, Integer> sTagLevels = Collections.emptyMap();
+    // lowest of all the levels above: below it nothing needs a lookup
+    private static volatile int sFloor = Log.VERBOSE;
+
+    /**
+     * Builds a message only once it is known to be logged.
+     */
+    public interface Message {
+        String build();
+    }
+
+    /**
+     * @param level one of the {@link Log} priorities; records below it are dropped, above
+     *              {@link Log#ASSERT} disables logging
+     */
+    public static synchronized void setLevel(int level) {
+        sMinLevel = level;
+        updateFloor();
+    }
+
+    public static int getLevel() {
+        return sMinLevel;
+    }
+
+    /**
+     * Minimum level for one tag, overriding the global one in either direction.
+     */
+    public static synchronized void setLevel(String tag, int level) {
+        Map<String, Integer> levels = new HashMap<>(sTagLevels);
+        levels.put(tag, level);
+        sTagLevels = levels;
+        updateFloor();
+    }
+
+    /**
+     * Back to the global minimum level for {@code tag}.
+     */
+    public static synchronized void clearLevel(String tag) {
+        if (!sTagLevels.containsKey(tag)) return;
+        Map<String, Integer> levels = new HashMap<>(sTagLevels);
+        levels.remove(tag);
+        sTagLevels = levels.isEmpty() ? Collections.<String, Integer>emptyMap() : levels;
+        updateFloor();
+    }
+
+    private static void updateFloor() {
+        int floor = sMinLevel;
+        for (int level : sTagLevels.values()) {
+            floor = Math.min(floor, level);
+        }
+        sFloor = floor;
+    }
+
+    /**
+     * @param level one of the {@link Log} priorities
+     */
     public static boolean isLoggable(String tag, int level) {
-        return android.util.Log.isLoggable(tag, level);
+        if (level < sFloor) return false;
+        Map<String, Integer> levels = sTagLevels;
+        if (!levels.isEmpty()) {
+            Integer min = levels.get(tag);
+            if (min != null) {
+                return level >= min;
+            }
+        }
+        return level >= sMinLevel;
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.US, format, args);
+    }
+
+    /**
+     * For tests.
+     */
+    static void setLogFile(LogFile logFile) {
+        sLogFile = logFile;
     }
 
     public static void v(String tag, String msg) {
+        if (!isLoggable(tag, Log.VERBOSE)) return;
         android.util.Log.v(tag, msg);
         if (sLogFile != null) {
             sLogFile.v(tag, msg);
@@ -22,13 +112,39 @@ public class Logger {
     }
 
     public static void v(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.VERBOSE)) return;
         android.util.Log.v(tag, msg, t);
         if (sLogFile != null) {
             sLogFile.v(tag, msg, t);
         }
     }
 
+    public static void v(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            v(tag, format(format, arg));
+        }
+    }
+
+    public static void v(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            v(tag, format(format, arg1, arg2));
+        }
+    }
+
+    public static void v(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            v(tag, format(format, args));
+        }
+    }
+
+    public static void v(String tag, Message message) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            v(tag, message.build());
+        }
+    }
+
     public static void d(String tag, String msg) {
+        if (!isLoggable(tag, Log.DEBUG)) return;
         android.util.Log.d(tag, msg);
         if (sLogFile != null) {
             sLogFile.d(tag, msg);
@@ -36,13 +152,39 @@ public class Logger {
     }
 
     public static void d(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.DEBUG)) return;
         android.util.Log.d(tag, msg, t);
         if (sLogFile != null) {
             sLogFile.d(tag, msg, t);
         }
     }
 
+    public static void d(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            d(tag, format(format, arg));
+        }
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            d(tag, format(format, arg1, arg2));
+        }
+    }
+
+    public static void d(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            d(tag, format(format, args));
+        }
+    }
+
+    public static void d(String tag, Message message) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            d(tag, message.build());
+        }
+    }
+
     public static void i(String tag, String msg) {
+        if (!isLoggable(tag, Log.INFO)) return;
         android.util.Log.i(tag, msg);
         if (sLogFile != null) {
             sLogFile.i(tag, msg);
@@ -50,13 +192,39 @@ public class Logger {
     }
 
     public static void i(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.INFO)) return;
         android.util.Log.i(tag, msg, t);
         if (sLogFile != null) {
             sLogFile.i(tag, msg, t);
         }
     }
 
+    public static void i(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.INFO)) {
+            i(tag, format(format, arg));
+        }
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.INFO)) {
+            i(tag, format(format, arg1, arg2));
+        }
+    }
+
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.INFO)) {
+            i(tag, format(format, args));
+        }
+    }
+
+    public static void i(String tag, Message message) {
+        if (isLoggable(tag, Log.INFO)) {
+            i(tag, message.build());
+        }
+    }
+
     public static void w(String tag, String msg) {
+        if (!isLoggable(tag, Log.WARN)) return;
         android.util.Log.w(tag, msg);
         if (sLogFile != null) {
             sLogFile.w(tag, msg);
@@ -64,13 +232,39 @@ public class Logger {
     }
 
     public static void w(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.WARN)) return;
         android.util.Log.w(tag, msg, t);
         if (sLogFile != null) {
             sLogFile.w(tag, msg, t);
         }
     }
 
+    public static void w(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.WARN)) {
+            w(tag, format(format, arg));
+        }
+    }
+
+    public static void w(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.WARN)) {
+            w(tag, format(format, arg1, arg2));
+        }
+    }
+
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.WARN)) {
+            w(tag, format(format, args));
+        }
+    }
+
+    public static void w(String tag, Message message) {
+        if (isLoggable(tag, Log.WARN)) {
+            w(tag, message.build());
+        }
+    }
+
     public static void e(String tag, String msg) {
+        if (!isLoggable(tag, Log.ERROR)) return;
         android.util.Log.e(tag, msg);
         if (sLogFile != null) {
             sLogFile.e(tag, msg);
@@ -78,13 +272,39 @@ public class Logger {
     }
 
     public static void e(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.ERROR)) return;
         android.util.Log.e(tag, msg, t);
         if (sLogFile != null) {
-            sLogFile.i(tag, msg, t);
+            sLogFile.e(tag, msg, t);
+        }
+    }
+
+    public static void e(String tag, String format, Object arg) {
+        if (isLoggable(tag, Log.ERROR)) {
+            e(tag, format(format, arg));
+        }
+    }
+
+    public static void e(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, Log.ERROR)) {
+            e(tag, format(format, arg1, arg2));
+        }
+    }
+
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(tag, Log.ERROR)) {
+            e(tag, format(format, args));
+        }
+    }
+
+    public static void e(String tag, Message message) {
+        if (isLoggable(tag, Log.ERROR)) {
+            e(tag, message.build());
         }
     }
 
     public static void wtf(String tag, String msg) {
+        if (!isLoggable(tag, Log.ASSERT)) return;
         android.util.Log.wtf(tag, msg);
         if (sLogFile != null) {
             sLogFile.wtf(tag, msg);
@@ -92,6 +312,7 @@ public class Logger {
     }
 
     public static void wtf(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.ASSERT)) return;
         android.util.Log.wtf(tag, msg, t);
         if (sLogFile != null) {
             sLogFile.wtf(tag, msg, t);
@@ -99,12 +320,14 @@ public class Logger {
     }
 
     public static void f(String tag, String msg) {
+        if (!isLoggable(tag, Log.INFO)) return;
         if (sLogFile != null) {
             sLogFile.f(tag, msg);
         }
     }
 
     public static void f(String tag, String msg, Throwable t) {
+        if (!isLoggable(tag, Log.INFO)) return;
         if (sLogFile != null) {
             sLogFile.f(tag, msg, t);
         }
@@ -135,6 +358,55 @@ public class Logger {
         }
     }
 
+    /**
+     * Like {@link #configure(File, String)}, but records are written by a background thread;
+     * see {@link AsyncLogFile}.
+     */
+    public static synchronized void configureAsync(File dir, String fileName, int capacity,
+                                                   AsyncLogFile.Overflow overflow) {
+        synchronized (Logger.class) {
+            if (dir == null || fileName == null) {
+                android.util.Log.w("Log", "Invalid configuration provided");
+            } else {
+                try {
+                    LogFile previous = sLogFile;
+                    sLogFile = new AsyncLogFile(dir, fileName, capacity, overflow);
+                    close(previous);
+                } catch (IllegalArgumentException e) {
+                    android.util.Log.w("Log", "Failed to create log file.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #configure(File, String)}, but records go into a fixed-size binary ring;
+     * see {@link MappedLogFile} and {@link MappedLogDecoder}.
+     */
+    public static synchronized void configureMapped(File dir, String fileName, int size) {
+        synchronized (Logger.class) {
+            if (dir == null || fileName == null) {
+                android.util.Log.w("Log", "Invalid configuration provided");
+            } else {
+                try {
+                    LogFile previous = sLogFile;
+                    sLogFile = new MappedLogFile(dir, fileName, size);
+                    close(previous);
+                } catch (IllegalArgumentException e) {
+                    android.util.Log.w("Log", "Failed to create log file.");
+                }
+            }
+        }
+    }
+
+    private static void close(LogFile logFile) {
+        if (logFile instanceof AsyncLogFile) {
+            ((AsyncLogFile) logFile).close();
+        } else if (logFile instanceof MappedLogFile) {
+            ((MappedLogFile) logFile).close();
+        }
+    }
+
     public static synchronized void configureLogFile(String name, File dir, String fileName) {
         synchronized (Logger.class) {
             if (dir == null || fileName == null) {
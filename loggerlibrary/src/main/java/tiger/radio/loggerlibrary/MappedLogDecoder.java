@@ -0,0 +1,137 @@
+package tiger.radio.loggerlibrary;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+
+/**
+ * Turns a {@link MappedLogFile} ring back into text, oldest record first, in the format of
+ * {@link CustomFormatter}. Needs nothing from Android, so it also runs on a desktop:
+ * <pre>
+ * adb pull /sdcard/fakegps/logs.ring
+ * java -cp loggerlibrary.jar tiger.radio.loggerlibrary.MappedLogDecoder logs.ring [logs.txt]
+ * </pre>
+ */
+public final class MappedLogDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private MappedLogDecoder() {
+    }
+
+    private static Level level(int priority) {
+        switch (priority) {
+            case 2:
+                return Level.FINER;
+            case 3:
+                return Level.FINE;
+            case 4:
+                return Level.INFO;
+            case 5:
+                return Level.WARNING;
+            default:
+                return Level.SEVERE;
+        }
+    }
+
+    /**
+     * @return number of records written to {@code out}
+     * @throws IOException if the file is not a log ring
+     */
+    public static int decode(File file, Writer out) throws IOException {
+        byte[] bytes;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < MappedLogFile.HEADER_SIZE || in.length() > Integer.MAX_VALUE) {
+                throw new IOException(file + ": not a log ring");
+            }
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int tagTableSize = b.getInt(MappedLogFile.OFFSET_TAG_TABLE_SIZE);
+        int capacity = b.getInt(MappedLogFile.OFFSET_CAPACITY);
+        if (b.getInt(MappedLogFile.OFFSET_MAGIC) != MappedLogFile.MAGIC
+                || b.getInt(MappedLogFile.OFFSET_VERSION) != MappedLogFile.VERSION
+                || (long) MappedLogFile.HEADER_SIZE + tagTableSize + capacity != bytes.length) {
+            throw new IOException(file + ": not a log ring");
+        }
+
+        int count = b.getInt(MappedLogFile.OFFSET_TAG_COUNT);
+        int tagBytes = Math.min(b.getInt(MappedLogFile.OFFSET_TAG_BYTES), tagTableSize);
+        String[] tags = new String[Math.max(0, count)];
+        int offset = 0;
+        for (int id = 0; id < tags.length && offset + 2 <= tagBytes; id++) {
+            int length = b.getShort(MappedLogFile.HEADER_SIZE + offset) & 0xffff;
+            if (offset + 2 + length > tagBytes) break;
+            tags[id] = new String(bytes, MappedLogFile.HEADER_SIZE + offset + 2, length, UTF_8);
+            offset += 2 + length;
+        }
+
+        CustomFormatter formatter = new CustomFormatter();
+        int data = MappedLogFile.HEADER_SIZE + tagTableSize;
+        long head = b.getLong(MappedLogFile.OFFSET_HEAD);
+        long tail = b.getLong(MappedLogFile.OFFSET_TAIL);
+        if (head < 0 || head > tail || tail - head > capacity) {
+            throw new IOException(file + ": head " + head + ", tail " + tail);
+        }
+        int records = 0;
+        long position = head;
+        while (position < tail) {
+            int index = (int) (position % capacity);
+            int length = b.getInt(data + index);
+            if (length == MappedLogFile.SKIP) {
+                position += capacity - index;
+                continue;
+            }
+            if (length < MappedLogFile.RECORD_HEADER || index + length > capacity) {
+                out.write("[corrupt record at " + position + "]\n");
+                break;
+            }
+            int at = data + index;
+            long millis = b.getLong(at + 4);
+            int priority = b.get(at + 12);
+            int tagId = b.getShort(at + 14) & 0xffff;
+            String msg = new String(bytes, at + MappedLogFile.RECORD_HEADER, length - MappedLogFile.RECORD_HEADER,
+                    UTF_8);
+            String tag;
+            if (tagId == MappedLogFile.INLINE_TAG) {
+                tag = null;
+            } else {
+                tag = tagId < tags.length && tags[tagId] != null ? tags[tagId] : "#" + tagId;
+            }
+            formatter.write(out, millis, level(priority), tag, msg, null);
+            records++;
+            position += (length + 7) & ~7;
+        }
+        return records;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: MappedLogDecoder <name.ring> [out.txt]");
+            System.exit(2);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                args.length == 2 ? new FileOutputStream(args[1]) : System.out, UTF_8));
+        try {
+            int records = decode(new File(args[0]), out);
+            out.flush();
+            System.err.println(records + " records");
+        } finally {
+            if (args.length == 2) {
+                out.close();
+            }
+        }
+    }
+}
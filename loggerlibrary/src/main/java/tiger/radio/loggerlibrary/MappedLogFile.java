@@ -0,0 +1,278 @@
+package tiger.radio.loggerlibrary;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.logging.Level;
+
+/**
+ * {@link LogFile} that writes binary records into a fixed-size, memory-mapped ring file
+ * ({@code name.ring}).
+ * <p>
+ * A record is a few stores into the mapping - no system call, no formatting - and the kernel
+ * owns the pages, so what was logged up to a crash of the process is still in the file. Once
+ * the ring is full the oldest records are overwritten. {@link MappedLogDecoder} turns the file
+ * back into the text {@link CustomFormatter} writes.
+ * <p>
+ * Layout, little endian: a {@link #HEADER_SIZE} byte header, a {@link #TAG_TABLE_SIZE} byte
+ * table of tag names (a short length and the UTF-8 name each, the id is the index), then the
+ * data area. Records there are {@code int length, long millis, byte priority, byte 0,
+ * short tag id, payload}, 8-byte aligned; {@link #SKIP} marks the unused end of the area
+ * before a record that did not fit. The header's head and tail are absolute positions of the
+ * oldest record and the end of the newest.
+ */
+public class MappedLogFile extends LogFile {
+
+    public static final int SIZE_DEFAULT = 4 * 1024 * 1024;
+
+    static final int MAGIC = 0x524c4746; // "FGLR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int TAG_TABLE_SIZE = 8 * 1024;
+    static final int RECORD_HEADER = 16;
+    static final int SKIP = -1;
+    // tag not in the table, the payload is "tag: msg"
+    static final int INLINE_TAG = 0xffff;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_TAG_TABLE_SIZE = 8;
+    static final int OFFSET_CAPACITY = 12;
+    static final int OFFSET_HEAD = 16;
+    static final int OFFSET_TAIL = 24;
+    static final int OFFSET_TAG_COUNT = 32;
+    static final int OFFSET_TAG_BYTES = 36;
+
+    static final String SUFFIX = ".ring";
+
+    private static final String TAG = "MappedLogFile";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+    private int mCapacity;
+    private int mMaxPayload;
+    private long mHead;
+    private long mTail;
+    private int mTagBytes;
+    private final HashMap<String, Integer> mTagIds = new HashMap<>();
+    private byte[] mPayload;
+
+    /**
+     * Open {@code dir/fileName.ring}, continuing the ring in it if it has the same size.
+     *
+     * @param size of the file in bytes
+     */
+    public MappedLogFile(File dir, String fileName, int size) {
+        super(dir, fileName);
+        mFile = new File(dir, fileName + SUFFIX);
+        try {
+            map(size);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception: ", e);
+            close();
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    private void map(int size) throws IOException {
+        int capacity = (size - HEADER_SIZE - TAG_TABLE_SIZE) & ~7;
+        if (capacity < 1024) {
+            throw new IllegalArgumentException("size " + size);
+        }
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        boolean resume = mRandomAccessFile.length() == HEADER_SIZE + TAG_TABLE_SIZE + capacity;
+        mRandomAccessFile.setLength(HEADER_SIZE + TAG_TABLE_SIZE + capacity);
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + TAG_TABLE_SIZE + capacity);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mCapacity = capacity;
+        mMaxPayload = Math.min(capacity / 4, 64 * 1024);
+        mPayload = new byte[mMaxPayload];
+        if (!(resume && resume())) {
+            mBuffer.putInt(OFFSET_VERSION, VERSION);
+            mBuffer.putInt(OFFSET_TAG_TABLE_SIZE, TAG_TABLE_SIZE);
+            mBuffer.putInt(OFFSET_CAPACITY, capacity);
+            mBuffer.putLong(OFFSET_HEAD, 0);
+            mBuffer.putLong(OFFSET_TAIL, 0);
+            mBuffer.putInt(OFFSET_TAG_COUNT, 0);
+            mBuffer.putInt(OFFSET_TAG_BYTES, 0);
+            mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+        }
+    }
+
+    /**
+     * Pick up the ring and the tag table a previous run left.
+     *
+     * @return false if the header does not describe a ring of this size
+     */
+    private boolean resume() {
+        MappedByteBuffer b = mBuffer;
+        if (b.getInt(OFFSET_MAGIC) != MAGIC || b.getInt(OFFSET_VERSION) != VERSION
+                || b.getInt(OFFSET_TAG_TABLE_SIZE) != TAG_TABLE_SIZE || b.getInt(OFFSET_CAPACITY) != mCapacity) {
+            return false;
+        }
+        long head = b.getLong(OFFSET_HEAD), tail = b.getLong(OFFSET_TAIL);
+        int count = b.getInt(OFFSET_TAG_COUNT), bytes = b.getInt(OFFSET_TAG_BYTES);
+        if (head < 0 || head > tail || tail - head > mCapacity || count < 0 || bytes < 0 || bytes > TAG_TABLE_SIZE) {
+            return false;
+        }
+        int offset = 0;
+        for (int id = 0; id < count; id++) {
+            int length = b.getShort(HEADER_SIZE + offset) & 0xffff;
+            if (offset + 2 + length > bytes) return false;
+            byte[] name = new byte[length];
+            b.position(HEADER_SIZE + offset + 2);
+            b.get(name);
+            mTagIds.put(new String(name, UTF_8), id);
+            offset += 2 + length;
+        }
+        mHead = head;
+        mTail = tail;
+        mTagBytes = bytes;
+        return true;
+    }
+
+    /**
+     * @return the tag's id, {@link #INLINE_TAG} once the table is full
+     */
+    private int tagId(String tag) {
+        Integer id = mTagIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        byte[] name = tag.getBytes(UTF_8);
+        if (mTagIds.size() >= INLINE_TAG || name.length > 0xffff
+                || mTagBytes + 2 + name.length > TAG_TABLE_SIZE) {
+            return INLINE_TAG;
+        }
+        int newId = mTagIds.size();
+        mBuffer.putShort(HEADER_SIZE + mTagBytes, (short) name.length);
+        mBuffer.position(HEADER_SIZE + mTagBytes + 2);
+        mBuffer.put(name);
+        mTagBytes += 2 + name.length;
+        mBuffer.putInt(OFFSET_TAG_BYTES, mTagBytes);
+        mBuffer.putInt(OFFSET_TAG_COUNT, newId + 1);
+        mTagIds.put(tag, newId);
+        return newId;
+    }
+
+    private static int priority(Level level) {
+        int value = level.intValue();
+        if (value >= Level.SEVERE.intValue()) return Log.ERROR;
+        if (value >= Level.WARNING.intValue()) return Log.WARN;
+        if (value >= Level.INFO.intValue()) return Log.INFO;
+        if (value >= Level.FINE.intValue()) return Log.DEBUG;
+        return Log.VERBOSE;
+    }
+
+    /**
+     * Drop the oldest records until {@code size} more bytes fit.
+     */
+    private void reserve(int size) {
+        while (mTail + size - mHead > mCapacity) {
+            int index = (int) (mHead % mCapacity);
+            int length = mBuffer.getInt(HEADER_SIZE + TAG_TABLE_SIZE + index);
+            if (length == SKIP) {
+                mHead += mCapacity - index;
+            } else if (length < RECORD_HEADER || index + length > mCapacity) {
+                // not a record: give up on what is left
+                mHead = mTail;
+            } else {
+                mHead += align(length);
+            }
+        }
+        mBuffer.putLong(OFFSET_HEAD, mHead);
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    @Override
+    protected synchronized void log(Level level, String tag, String msg, Throwable t) {
+        if (mBuffer == null) return;
+        if (tag == null) tag = "null";
+        if (msg == null) msg = "null";
+        int tagId = tagId(tag);
+        if (tagId == INLINE_TAG) {
+            msg = tag + ": " + msg;
+        }
+        if (t != null) {
+            StringWriter trace = new StringWriter();
+            t.printStackTrace(new PrintWriter(trace));
+            msg = msg + '\n' + trace;
+        }
+        // whole chars only, three bytes each at most
+        int chars = Math.min(msg.length(), mMaxPayload / 3);
+        int payload = CustomFormatter.utf8(msg, 0, chars, mPayload, 0);
+        int length = RECORD_HEADER + payload;
+        int stride = align(length);
+
+        int index = (int) (mTail % mCapacity);
+        if (mCapacity - index < stride) {
+            int rest = mCapacity - index;
+            reserve(rest);
+            mBuffer.putInt(HEADER_SIZE + TAG_TABLE_SIZE + index, SKIP);
+            mTail += rest;
+            index = 0;
+        }
+        reserve(stride);
+        int at = HEADER_SIZE + TAG_TABLE_SIZE + index;
+        MappedByteBuffer b = mBuffer;
+        b.putInt(at, length);
+        b.putLong(at + 4, System.currentTimeMillis());
+        b.put(at + 12, (byte) priority(level));
+        b.put(at + 13, (byte) 0);
+        b.putShort(at + 14, (short) tagId);
+        b.position(at + RECORD_HEADER);
+        b.put(mPayload, 0, payload);
+        mTail += stride;
+        b.putLong(OFFSET_TAIL, mTail);
+    }
+
+    /**
+     * Write the mapped pages to the disk; the file is complete without this unless the
+     * whole device goes down.
+     */
+    public synchronized void force() {
+        if (mBuffer != null) {
+            mBuffer.force();
+        }
+    }
+
+    public synchronized void close() {
+        if (mBuffer != null) {
+            mBuffer.force();
+            mBuffer = null;
+        }
+        IOUtils.closeQuietly(mRandomAccessFile);
+        mRandomAccessFile = null;
+    }
+
+    @Override
+    public synchronized void dump(PrintWriter writer) {
+        writer.println();
+        writer.println(mFile.getName() + ":");
+        writer.println();
+        try {
+            MappedLogDecoder.decode(mFile, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Exception: ", e);
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,172 @@
+package tiger.radio.loggerlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Includes a throughput benchmark of several threads logging at once, against {@link LogFile}.
+ */
+public class AsyncLogFileTest {
+
+    private static final int THREADS = 4;
+    private static final int RECORDS = 25000;
+
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "asynclogfile-" + System.nanoTime());
+        assertTrue(mDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    /**
+     * @return nanoseconds until all threads are done
+     */
+    private static long logConcurrently(final LogFile logFile, final int records) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final String tag = "T" + t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < records; i++) {
+                        logFile.i(tag, "fix " + i + " lat=48.1234567 lon=11.1234567");
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return per thread, how many of its records were found; fails if one is out of order
+     */
+    private int[] readBack(String fileName) throws IOException {
+        int[] next = new int[THREADS];
+        // oldest file first
+        for (int generation = LogFile.LOG_FILE_MAX_COUNT - 1; generation >= 0; generation--) {
+            File file = new File(mDir, fileName + "." + generation);
+            if (!file.exists()) continue;
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tag = line.indexOf(" T");
+                    if (tag < 0) continue;
+                    int thread = line.charAt(tag + 2) - '0';
+                    int fix = line.indexOf("fix ");
+                    int seq = Integer.parseInt(line.substring(fix + 4, line.indexOf(' ', fix + 4)));
+                    assertTrue("T" + thread + " " + seq + " after " + next[thread], seq >= next[thread]);
+                    next[thread] = seq + 1;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return next;
+    }
+
+    private int countLines(String fileName, String contains) throws IOException {
+        int count = 0;
+        for (int generation = 0; generation < LogFile.LOG_FILE_MAX_COUNT; generation++) {
+            File file = new File(mDir, fileName + "." + generation);
+            if (!file.exists()) continue;
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains(contains)) count++;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void blockKeepsEveryRecordInOrder() throws Exception {
+        AsyncLogFile logFile = new AsyncLogFile(mDir, "block", 256, AsyncLogFile.Overflow.BLOCK);
+        logConcurrently(logFile, RECORDS);
+        logFile.close();
+        assertEquals(0, logFile.getDroppedCount());
+        int[] found = readBack("block");
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(RECORDS, found[t]);
+        }
+        // 100k records of ~70 bytes: rotated once past LOG_FILE_MAX_SIZE
+        assertTrue(new File(mDir, "block.1").exists());
+    }
+
+    @Test
+    public void dropCountsWhatItDiscards() throws Exception {
+        AsyncLogFile logFile = new AsyncLogFile(mDir, "drop", 16, AsyncLogFile.Overflow.DROP);
+        logConcurrently(logFile, RECORDS);
+        logFile.close();
+        int written = countLines("drop", " fix ");
+        assertEquals(THREADS * RECORDS, written + logFile.getDroppedCount());
+        if (logFile.getDroppedCount() > 0) {
+            assertTrue(countLines("drop", "dropped ") > 0);
+        }
+    }
+
+    @Test
+    public void flushWritesWhatWasLogged() throws Exception {
+        AsyncLogFile logFile = new AsyncLogFile(mDir, "flush", 64, AsyncLogFile.Overflow.BLOCK);
+        logFile.i("T0", "fix 0 first");
+        assertTrue(logFile.flush(5000));
+        assertEquals(1, countLines("flush", "fix 0 first"));
+        logFile.close();
+    }
+
+    @Test
+    public void throughputAgainstLogFile() throws Exception {
+        int records = RECORDS / 5;
+        LogFile sync = new LogFile("benchmark_sync", mDir, "sync");
+        logConcurrently(sync, records / 10);
+        long syncNanos = logConcurrently(sync, records);
+
+        AsyncLogFile async = new AsyncLogFile(mDir, "async", AsyncLogFile.CAPACITY_DEFAULT, AsyncLogFile.Overflow.BLOCK);
+        logConcurrently(async, records / 10);
+        long asyncNanos = logConcurrently(async, records);
+        // until it is all on disk
+        long start = System.nanoTime();
+        assertTrue(async.flush(10000));
+        long asyncWritten = asyncNanos + System.nanoTime() - start;
+        async.close();
+
+        int total = THREADS * records;
+        System.out.println(THREADS + " threads x " + records + " records: LogFile " + total * 1000000000L / syncNanos
+                + "/s, AsyncLogFile " + total * 1000000000L / asyncNanos + "/s logged, "
+                + total * 1000000000L / asyncWritten + "/s written");
+        // the numbers vary too much from box to box to assert on
+        assertEquals(0, async.getDroppedCount());
+    }
+}
@@ -0,0 +1,178 @@
+package tiger.radio.loggerlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the cached date prefix against {@link SimpleDateFormat} and measures what a record
+ * allocates.
+ */
+public class CustomFormatterTest {
+
+    private TimeZone mDefaultZone;
+
+    @Before
+    public void setUp() {
+        mDefaultZone = TimeZone.getDefault();
+        // has a DST switch the test crosses
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultZone);
+    }
+
+    private static String expected(long millis, String level, String message) {
+        return new SimpleDateFormat("MM-dd HH:mm:ss.SSS ", Locale.US).format(new Date(millis)) + level + " "
+                + message + "\n";
+    }
+
+    private static String written(CustomFormatter formatter, long millis, Level level, String tag, String msg)
+            throws Exception {
+        StringWriter out = new StringWriter();
+        formatter.write(out, millis, level, tag, msg, null);
+        return out.toString();
+    }
+
+    @Test
+    public void date_matchesSimpleDateFormat() throws Exception {
+        CustomFormatter formatter = new CustomFormatter();
+        Random random = new Random(1);
+        // 2016-03-27 00:59:58.000 UTC, an hour before the DST switch
+        long millis = 1459040398000L;
+        for (int i = 0; i < 100000; i++) {
+            // mostly forwards in small steps, sometimes jumps and steps back
+            int step = random.nextInt(10);
+            if (step == 0) {
+                millis += random.nextInt(7200000) - 3600000;
+            } else if (step == 1) {
+                millis -= random.nextInt(2000);
+            } else {
+                millis += random.nextInt(300);
+            }
+            assertEquals(expected(millis, "I", "T: m"), written(formatter, millis, Level.INFO, "T", "m"));
+        }
+        // year end, leap day
+        long[] edges = {1483228799999L, 1483228800000L, 1456703999999L, 1456704000000L, 0L, -1L};
+        for (long edge : edges) {
+            assertEquals(expected(edge, "W", "T: m"), written(formatter, edge, Level.WARNING, "T", "m"));
+        }
+    }
+
+    @Test
+    public void date_followsTimeZoneChange() throws Exception {
+        CustomFormatter formatter = new CustomFormatter();
+        long millis = 1459040398000L;
+        written(formatter, millis, Level.INFO, "T", "m");
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+        // picked up with the next minute
+        millis += 60000;
+        assertEquals(expected(millis, "I", "T: m"), written(formatter, millis, Level.INFO, "T", "m"));
+    }
+
+    @Test
+    public void formatAndWrite_agree() throws Exception {
+        CustomFormatter formatter = new CustomFormatter();
+        long millis = 1459040398123L;
+        String msg = "lat=48.1\u00b0 \u4e2d \ud83d\ude00";
+        LogRecord record = new LogRecord(Level.FINE, "T: " + msg);
+        record.setMillis(millis);
+        assertEquals(expected(millis, "D", "T: " + msg), formatter.format(record));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int length = formatter.write(bytes, millis, Level.FINE, "T", msg, null);
+        assertEquals(bytes.size(), length);
+        assertEquals(expected(millis, "D", "T: " + msg), bytes.toString("UTF-8"));
+
+        // levels without a letter
+        assertEquals(expected(millis, "", "T: m"), written(formatter, millis, Level.FINEST, "T", "m"));
+    }
+
+    @Test
+    public void write_appendsStackTrace() throws Exception {
+        CustomFormatter formatter = new CustomFormatter();
+        Exception e = new IllegalStateException("boom");
+        StringWriter out = new StringWriter();
+        formatter.write(out, 0, Level.SEVERE, "T", "failed", e);
+        String text = out.toString();
+        assertTrue(text, text.contains("E T: failed\nThrowable occurred: java.lang.IllegalStateException: boom\n"));
+        assertTrue(text, text.contains("at " + getClass().getName() + ".write_appendsStackTrace"));
+        // the buffer is reset for the next record
+        assertEquals(expected(0, "I", "T: m"), written(formatter, 0, Level.INFO, "T", "m"));
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+
+    @Test
+    public void write_doesNotAllocate() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        CustomFormatter formatter = new CustomFormatter();
+        NullOutputStream out = new NullOutputStream();
+        String msg = "TPV: {\"class\":\"TPV\",\"mode\":3,\"lat\":48.1234567,\"lon\":11.1234567}";
+        int records = 200000;
+        long millis = 1459040398000L;
+        for (int i = 0; i < records; i++) {
+            formatter.write(out, millis + i, Level.INFO, "LocationThread", msg, null);
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            formatter.write(out, millis + i, Level.INFO, "LocationThread", msg, null);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        LogRecord record = new LogRecord(Level.INFO, "");
+        before = threads.getThreadAllocatedBytes(thread);
+        long oldStart = System.nanoTime();
+        for (int i = 0; i < records / 10; i++) {
+            record.setMillis(millis + i);
+            record.setMessage("LocationThread: " + msg);
+            String text = new SimpleDateFormat("MM-dd HH:mm:ss.SSS ", Locale.US).format(new Date(record.getMillis()))
+                    + "I " + record.getMessage() + "\n";
+            out.write(text.getBytes("UTF-8"));
+        }
+        long oldNanos = (System.nanoTime() - oldStart) * 10;
+        long oldAllocated = (threads.getThreadAllocatedBytes(thread) - before) * 10;
+
+        System.out.println(records + " records: " + nanos / records + " ns, " + allocated / records
+                + " bytes each; SimpleDateFormat per record: " + oldNanos / records + " ns, "
+                + oldAllocated / records + " bytes each");
+        // the message is already built; a minute rollover allocates a TimeZone now and then
+        assertTrue("allocated " + allocated, allocated / records < 8);
+    }
+}
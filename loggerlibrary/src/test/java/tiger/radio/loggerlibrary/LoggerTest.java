@@ -0,0 +1,173 @@
+package tiger.radio.loggerlibrary;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Includes a benchmark of disabled log calls.
+ */
+public class LoggerTest {
+
+    private static final String TAG = "LoggerTest";
+
+    /**
+     * Keeps what reaches the file instead of writing it.
+     */
+    private static final class RecordingLogFile extends LogFile {
+        final List<String> mRecords = new ArrayList<>();
+
+        RecordingLogFile(File dir) {
+            super(dir, "recording");
+        }
+
+        @Override
+        protected synchronized void log(Level level, String tag, String msg, Throwable t) {
+            mRecords.add(level.getName() + " " + tag + ": " + msg);
+        }
+    }
+
+    /**
+     * Stands in for a gpsd report; its toString is what an eager message pays for.
+     */
+    private static final class Report {
+        final double mLat = 48.1234567, mLon = 11.1234567;
+
+        @Override
+        public String toString() {
+            return "TPV{mode=3, lat=" + mLat + ", lon=" + mLon + "}";
+        }
+    }
+
+    private RecordingLogFile mLogFile;
+
+    @Before
+    public void setUp() {
+        mLogFile = new RecordingLogFile(new File(System.getProperty("java.io.tmpdir")));
+        Logger.setLogFile(mLogFile);
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLogFile(null);
+        Logger.setLevel(Log.VERBOSE);
+        Logger.clearLevel(TAG);
+        Logger.clearLevel("unrelated");
+    }
+
+    @Test
+    public void levels_globalAndPerTag() {
+        Logger.setLevel(Log.INFO);
+        assertFalse(Logger.isLoggable(TAG, Log.DEBUG));
+        assertTrue(Logger.isLoggable(TAG, Log.INFO));
+        // a tag can be more verbose than the rest
+        Logger.setLevel(TAG, Log.VERBOSE);
+        assertTrue(Logger.isLoggable(TAG, Log.VERBOSE));
+        assertFalse(Logger.isLoggable("other", Log.DEBUG));
+        // or quieter
+        Logger.setLevel(TAG, Log.ERROR);
+        assertFalse(Logger.isLoggable(TAG, Log.WARN));
+        assertTrue(Logger.isLoggable("other", Log.WARN));
+        Logger.clearLevel(TAG);
+        assertTrue(Logger.isLoggable(TAG, Log.WARN));
+        // above ASSERT: nothing
+        Logger.setLevel(Log.ASSERT + 1);
+        assertFalse(Logger.isLoggable(TAG, Log.ASSERT));
+    }
+
+    @Test
+    public void disabled_buildsNothing() {
+        Logger.setLevel(Log.INFO);
+        final int[] built = new int[1];
+        Logger.d(TAG, new Logger.Message() {
+            @Override
+            public String build() {
+                built[0]++;
+                return "debug";
+            }
+        });
+        Logger.d(TAG, "TPV: %s", new Object() {
+            @Override
+            public String toString() {
+                built[0]++;
+                return "tpv";
+            }
+        });
+        Logger.d(TAG, "plain");
+        Logger.f(TAG, "file");
+        assertEquals(0, built[0]);
+        assertEquals(1, mLogFile.mRecords.size());
+        assertEquals("INFO " + TAG + ": file", mLogFile.mRecords.get(0));
+    }
+
+    @Test
+    public void enabled_formatsAtTheRightLevel() {
+        Logger.setLevel(Log.VERBOSE);
+        Logger.d(TAG, "TPV: %s", "tpv");
+        Logger.i(TAG, "%d of %d", 1, 2);
+        Logger.w(TAG, "%s %s %s", "a", "b", "c");
+        Logger.e(TAG, "failed", new Exception());
+        Logger.v(TAG, new Logger.Message() {
+            @Override
+            public String build() {
+                return "lazy";
+            }
+        });
+        assertEquals("FINE " + TAG + ": TPV: tpv", mLogFile.mRecords.get(0));
+        assertEquals("INFO " + TAG + ": 1 of 2", mLogFile.mRecords.get(1));
+        assertEquals("WARNING " + TAG + ": a b c", mLogFile.mRecords.get(2));
+        assertEquals("SEVERE " + TAG + ": failed", mLogFile.mRecords.get(3));
+        assertEquals("FINEST " + TAG + ": lazy", mLogFile.mRecords.get(4));
+    }
+
+    @Test
+    public void disabled_costsNearlyNothing() {
+        Logger.setLevel(Log.INFO);
+        Logger.setLevel("unrelated", Log.ERROR);
+        final Report report = new Report();
+        int calls = 2000000;
+        for (int i = 0; i < calls; i++) {
+            Logger.d(TAG, "TPV: %s", report);
+            Logger.d(TAG, "TPV: " + report);
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean threads = bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+        long thread = Thread.currentThread().getId();
+
+        long allocated = threads != null ? threads.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            Logger.d(TAG, "TPV: %s", report);
+        }
+        long gated = System.nanoTime() - start;
+        long gatedBytes = threads != null ? threads.getThreadAllocatedBytes(thread) - allocated : 0;
+
+        allocated = threads != null ? threads.getThreadAllocatedBytes(thread) : 0;
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            Logger.d(TAG, "TPV: " + report);
+        }
+        long eager = System.nanoTime() - start;
+        long eagerBytes = threads != null ? threads.getThreadAllocatedBytes(thread) - allocated : 0;
+
+        System.out.println("disabled Logger.d x " + calls + ": format overload " + gated / calls + " ns, "
+                + gatedBytes / calls + " bytes per call; eager concatenation " + eager / calls + " ns, "
+                + eagerBytes / calls + " bytes per call");
+        assertTrue(mLogFile.mRecords.isEmpty());
+        assertTrue("allocated " + gatedBytes, gatedBytes / calls < 1);
+    }
+}
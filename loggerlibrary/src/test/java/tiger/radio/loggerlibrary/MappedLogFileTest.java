@@ -0,0 +1,190 @@
+package tiger.radio.loggerlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Includes a benchmark of the write cost against {@link LogFile}.
+ */
+public class MappedLogFileTest {
+
+    private static final int SMALL = 64 * 1024;
+
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "mappedlogfile-" + System.nanoTime());
+        assertTrue(mDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static String[] decode(File file) throws Exception {
+        StringWriter out = new StringWriter();
+        int records = MappedLogDecoder.decode(file, out);
+        String text = out.toString();
+        String[] lines = text.isEmpty() ? new String[0] : text.split("\n");
+        assertEquals(records, lines.length);
+        return lines;
+    }
+
+    /**
+     * @return the number after "fix " in a decoded line
+     */
+    private static int fix(String line) {
+        int at = line.indexOf("fix ");
+        return Integer.parseInt(line.substring(at + 4));
+    }
+
+    @Test
+    public void decode_givesBackTheRecords() throws Exception {
+        MappedLogFile logFile = new MappedLogFile(mDir, "logs", SMALL);
+        logFile.d("LocationThread", "TPV: lat=48.1\u00b0");
+        logFile.w("JoyStickManager", "slow");
+        logFile.e("LocationThread", "failed", new IllegalStateException("boom"));
+        logFile.v("DbUtils", "");
+
+        StringWriter out = new StringWriter();
+        assertEquals(4, MappedLogDecoder.decode(logFile.getFile(), out));
+        String text = out.toString();
+        assertTrue(text, text.contains(" D LocationThread: TPV: lat=48.1\u00b0\n"));
+        assertTrue(text, text.contains(" W JoyStickManager: slow\n"));
+        assertTrue(text, text.contains(" E LocationThread: failed\njava.lang.IllegalStateException: boom\n"));
+        assertTrue(text, text.contains(" V DbUtils: \n"));
+        // the prefix is the one CustomFormatter writes
+        assertTrue(text, text.matches("(?s)\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d D .*"));
+        logFile.close();
+    }
+
+    @Test
+    public void wrap_keepsTheNewestInOrder() throws Exception {
+        MappedLogFile logFile = new MappedLogFile(mDir, "logs", SMALL);
+        int records = 10000;
+        for (int i = 0; i < records; i++) {
+            // varying lengths, so the end of the area is skipped at different places
+            logFile.i("T" + i % 3, "                ".substring(i % 16) + "fix " + i);
+        }
+        // decoded without closing: what a crash would leave
+        String[] lines = decode(logFile.getFile());
+        assertTrue(lines.length > 500);
+        assertTrue(lines.length < records);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], records - lines.length + i, fix(lines[i]));
+        }
+        assertTrue(new File(mDir, "logs.ring").length() == SMALL);
+        logFile.close();
+    }
+
+    @Test
+    public void reopen_continuesTheRing() throws Exception {
+        MappedLogFile logFile = new MappedLogFile(mDir, "logs", SMALL);
+        logFile.i("First", "fix 0");
+        logFile.close();
+        logFile = new MappedLogFile(mDir, "logs", SMALL);
+        logFile.i("Second", "fix 1");
+        logFile.i("First", "fix 2");
+        String[] lines = decode(logFile.getFile());
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" I First: fix 0"));
+        assertTrue(lines[1], lines[1].endsWith(" I Second: fix 1"));
+        assertTrue(lines[2], lines[2].endsWith(" I First: fix 2"));
+        logFile.close();
+
+        // another size starts over
+        logFile = new MappedLogFile(mDir, "logs", 2 * SMALL);
+        assertEquals(0, decode(logFile.getFile()).length);
+        logFile.close();
+    }
+
+    @Test
+    public void fullTagTable_inlinesTheTag() throws Exception {
+        MappedLogFile logFile = new MappedLogFile(mDir, "logs", 512 * 1024);
+        String prefix = "AVeryLongTagNameToFillTheTable";
+        int tags = MappedLogFile.TAG_TABLE_SIZE / (2 + prefix.length() + 3) + 10;
+        for (int i = 0; i < tags; i++) {
+            logFile.i(prefix + i, "fix " + i);
+        }
+        String[] lines = decode(logFile.getFile());
+        assertEquals(tags, lines.length);
+        for (int i = 0; i < tags; i++) {
+            assertTrue(lines[i], lines[i].endsWith(" I " + prefix + i + ": fix " + i));
+        }
+        logFile.close();
+    }
+
+    @Test
+    public void decode_stopsAtACorruptRecord() throws Exception {
+        MappedLogFile logFile = new MappedLogFile(mDir, "logs", SMALL);
+        for (int i = 0; i < 3; i++) {
+            logFile.i("T", "fix " + i);
+        }
+        logFile.close();
+        RandomAccessFile file = new RandomAccessFile(logFile.getFile(), "rw");
+        // the length of the second record
+        file.seek(MappedLogFile.HEADER_SIZE + MappedLogFile.TAG_TABLE_SIZE + 24);
+        file.write(new byte[]{3, 0, 0, 0});
+        file.close();
+        String text;
+        StringWriter out = new StringWriter();
+        assertEquals(1, MappedLogDecoder.decode(logFile.getFile(), out));
+        text = out.toString();
+        assertTrue(text, text.contains("fix 0\n[corrupt record at 24]"));
+    }
+
+    @Test
+    public void writeCost_againstLogFile() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean threads = bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+        long thread = Thread.currentThread().getId();
+        String msg = "TPV: {\"class\":\"TPV\",\"mode\":3,\"lat\":48.1234567,\"lon\":11.1234567}";
+        int records = 200000;
+
+        MappedLogFile mapped = new MappedLogFile(mDir, "mapped", MappedLogFile.SIZE_DEFAULT);
+        for (int i = 0; i < records; i++) {
+            mapped.i("LocationThread", msg);
+        }
+        long allocated = threads != null ? threads.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            mapped.i("LocationThread", msg);
+        }
+        long mappedNanos = System.nanoTime() - start;
+        long mappedBytes = threads != null ? threads.getThreadAllocatedBytes(thread) - allocated : 0;
+        mapped.close();
+
+        LogFile text = new LogFile("benchmark_text", mDir, "text");
+        for (int i = 0; i < records / 10; i++) {
+            text.i("LocationThread", msg);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < records / 10; i++) {
+            text.i("LocationThread", msg);
+        }
+        long textNanos = (System.nanoTime() - start) * 10;
+
+        System.out.println(records + " records: MappedLogFile " + mappedNanos / records + " ns, "
+                + mappedBytes / records + " bytes each; LogFile " + textNanos / records + " ns each");
+        assertTrue("allocated " + mappedBytes, mappedBytes / records < 8);
+    }
+}